@@ -0,0 +1,131 @@
+package io.rapidpro.flows.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.runner.*;
+import io.rapidpro.flows.utils.JsonUtils;
+import org.threeten.bp.ZoneOffset;
+import org.threeten.bp.ZonedDateTime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilities shared by the benchmarks
+ */
+public class BenchmarkUtils {
+
+    /**
+     * Reads a classpath resource, e.g. test_flows/mushrooms.json
+     */
+    public static String readResource(String resource) {
+        try (InputStream in = BenchmarkUtils.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No such resource: " + resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the definition of the given test flow, e.g. mushrooms
+     */
+    public static String readFlow(String name) {
+        return readResource("test_flows/" + name + ".json");
+    }
+
+    /**
+     * Creates a runner like the one used by the interaction tests, with a fixed now and a permissive location resolver
+     */
+    public static Runner createRunner() {
+        return new RunnerBuilder()
+                .withLocationResolver(new Location.Resolver() {
+                    @Override
+                    public Location resolve(String input, String country, Location.Level level, Location parent) {
+                        if (!input.trim().toLowerCase().startsWith("x")) {
+                            return new Location("S0001", input, level);
+                        } else {
+                            return null;
+                        }
+                    }
+                })
+                .withNowAs(ZonedDateTime.of(2015, 10, 15, 7, 48, 30, 123456789, ZoneOffset.UTC).toInstant())
+                .build();
+    }
+
+    /**
+     * Loads the first interaction from the runs file of the given test flow, e.g. mushrooms
+     */
+    public static Interaction loadInteraction(String name) {
+        JsonArray interactions = JsonUtils.getGson().fromJson(readResource("test_runs/" + name + ".runs.json"), JsonArray.class);
+        return new Interaction(interactions.get(0).getAsJsonObject());
+    }
+
+    /**
+     * An interaction from a runs file, i.e. an org, an initial contact and field schema, and a sequence of inputs. The
+     * mutable parts (contact and fields) are re-created for each run so that every run starts from the same place.
+     */
+    public static class Interaction {
+
+        protected Org m_org;
+
+        protected JsonArray m_fieldsJson;
+
+        protected JsonElement m_contactJson;
+
+        protected List<String> m_inputs = new ArrayList<>();
+
+        public Interaction(JsonObject obj) {
+            m_org = Org.fromJson(obj.get("org"));
+            m_fieldsJson = obj.get("fields_initial").getAsJsonArray();
+            m_contactJson = obj.get("contact_initial");
+
+            for (JsonElement message : obj.get("messages").getAsJsonArray()) {
+                JsonObject messageObj = message.getAsJsonObject();
+                if (messageObj.get("type").getAsString().equals("input")) {
+                    m_inputs.add(messageObj.get("msg").getAsString());
+                }
+            }
+        }
+
+        public RunState start(Runner runner, Flow flow) throws FlowRunException {
+            List<Field> fields = JsonUtils.fromJsonArray(m_fieldsJson, null, Field.class);
+            Contact contact = Contact.fromJson(m_contactJson);
+            return runner.start(m_org, fields, contact, flow);
+        }
+
+        public RunState converse(Runner runner, Flow flow) throws FlowRunException {
+            RunState run = start(runner, flow);
+            for (String input : m_inputs) {
+                if (run.getState() != RunState.State.WAIT_MESSAGE) {
+                    break;
+                }
+                runner.resume(run, Input.of(input));
+            }
+            return run;
+        }
+
+        public Org getOrg() {
+            return m_org;
+        }
+
+        public List<String> getInputs() {
+            return m_inputs;
+        }
+    }
+}
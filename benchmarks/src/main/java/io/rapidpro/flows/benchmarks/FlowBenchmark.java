@@ -0,0 +1,33 @@
+package io.rapidpro.flows.benchmarks;
+
+import io.rapidpro.flows.definition.Flow;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for parsing flow definitions
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlowBenchmark {
+
+    @Param({"registration", "mushrooms", "greatwall", "basic-form"})
+    public String m_flowName;
+
+    protected String m_flowJson;
+
+    @Setup
+    public void setup() {
+        m_flowJson = BenchmarkUtils.readFlow(m_flowName);
+    }
+
+    @Benchmark
+    public Flow fromJson() {
+        return Flow.fromJson(m_flowJson);
+    }
+}
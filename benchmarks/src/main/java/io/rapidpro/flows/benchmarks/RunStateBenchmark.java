@@ -0,0 +1,59 @@
+package io.rapidpro.flows.benchmarks;
+
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.runner.FlowRunException;
+import io.rapidpro.flows.runner.RunState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for serializing and restoring run state, using the state at the end of each test_runs interaction
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunStateBenchmark {
+
+    @Param({"registration", "mushrooms", "basic-form"})
+    public String m_flowName;
+
+    protected Flow m_flow;
+
+    protected RunState m_run;
+
+    protected String m_runJson;
+
+    protected byte[] m_runBytes;
+
+    @Setup
+    public void setup() throws FlowRunException {
+        m_flow = Flow.fromJson(BenchmarkUtils.readFlow(m_flowName));
+        m_run = BenchmarkUtils.loadInteraction(m_flowName).converse(BenchmarkUtils.createRunner(), m_flow);
+        m_runJson = m_run.toJsonString();
+        m_runBytes = m_run.toBytes();
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return m_run.toJsonString();
+    }
+
+    @Benchmark
+    public RunState fromJson() {
+        return RunState.fromJson(m_runJson, m_flow);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return m_run.toBytes();
+    }
+
+    @Benchmark
+    public RunState fromBytes() {
+        return RunState.fromBytes(m_runBytes, m_flow);
+    }
+}
@@ -0,0 +1,78 @@
+package io.rapidpro.flows.benchmarks;
+
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.runner.FlowRunException;
+import io.rapidpro.flows.runner.Input;
+import io.rapidpro.flows.runner.RunState;
+import io.rapidpro.flows.runner.Runner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for starting and resuming runs, driven by the interactions in test_runs
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunnerBenchmark {
+
+    @Param({"registration", "mushrooms", "basic-form"})
+    public String m_flowName;
+
+    protected Flow m_flow;
+
+    protected Runner m_runner;
+
+    protected BenchmarkUtils.Interaction m_interaction;
+
+    @Setup
+    public void setup() {
+        m_flow = Flow.fromJson(BenchmarkUtils.readFlow(m_flowName));
+        m_runner = BenchmarkUtils.createRunner();
+        m_interaction = BenchmarkUtils.loadInteraction(m_flowName);
+    }
+
+    /**
+     * Starts a new run, i.e. from the entry node until the first wait
+     */
+    @Benchmark
+    public RunState start() throws FlowRunException {
+        return m_interaction.start(m_runner, m_flow);
+    }
+
+    /**
+     * Starts a new run and then resumes it with every input from the interaction
+     */
+    @Benchmark
+    public RunState converse() throws FlowRunException {
+        return m_interaction.converse(m_runner, m_flow);
+    }
+
+    /**
+     * Resumes a freshly started run with the first input from the interaction. Each invocation needs its own started
+     * run so this uses an invocation level fixture, which is only reliable because a resume is long enough to dwarf the
+     * timing overhead that such fixtures add.
+     */
+    @Benchmark
+    public RunState resume(PausedRun paused) throws FlowRunException {
+        return m_runner.resume(paused.m_run, paused.m_input);
+    }
+
+    @State(Scope.Thread)
+    public static class PausedRun {
+
+        protected RunState m_run;
+
+        protected Input m_input;
+
+        @Setup(Level.Invocation)
+        public void setup(RunnerBenchmark benchmark) throws FlowRunException {
+            m_run = benchmark.m_interaction.start(benchmark.m_runner, benchmark.m_flow);
+            m_input = Input.of(benchmark.m_interaction.getInputs().get(0));
+        }
+    }
+}
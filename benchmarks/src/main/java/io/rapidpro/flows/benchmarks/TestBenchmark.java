@@ -0,0 +1,93 @@
+package io.rapidpro.flows.benchmarks;
+
+import com.google.gson.JsonParser;
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.definition.tests.Test;
+import io.rapidpro.flows.runner.FlowRunException;
+import io.rapidpro.flows.runner.Input;
+import io.rapidpro.flows.runner.RunState;
+import io.rapidpro.flows.runner.Runner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for evaluating each type of rule test against a typical input
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestBenchmark {
+
+    /**
+     * Test definitions and the inputs to evaluate them against, keyed by test type
+     */
+    protected static final Map<String, String[]> s_testsByType = new HashMap<>();
+    static {
+        s_testsByType.put("true", new String[] {"{\"type\": \"true\"}", "anything"});
+        s_testsByType.put("false", new String[] {"{\"type\": \"false\"}", "anything"});
+        s_testsByType.put("and", new String[] {"{\"type\": \"and\", \"tests\": [{\"type\": \"contains\", \"test\": \"red\"}, {\"type\": \"contains\", \"test\": \"green\"}]}", "I like red and green"});
+        s_testsByType.put("or", new String[] {"{\"type\": \"or\", \"tests\": [{\"type\": \"contains\", \"test\": \"red\"}, {\"type\": \"contains\", \"test\": \"green\"}]}", "I like green"});
+        s_testsByType.put("not_empty", new String[] {"{\"type\": \"not_empty\"}", " hello "});
+        s_testsByType.put("contains", new String[] {"{\"type\": \"contains\", \"test\": {\"eng\": \"north east\", \"fre\": \"nord est\"}}", "we are going to the north by the eastt"});
+        s_testsByType.put("contains_any", new String[] {"{\"type\": \"contains_any\", \"test\": {\"eng\": \"yes yeah yep ok\", \"fre\": \"oui ouais\"}}", "well i guess the answer is yes"});
+        s_testsByType.put("starts", new String[] {"{\"type\": \"starts\", \"test\": {\"eng\": \"Join\"}}", "join the group"});
+        s_testsByType.put("regex", new String[] {"{\"type\": \"regex\", \"test\": {\"eng\": \"(?P<first_name>\\\\w+) (\\\\w+)\"}}", "Joe Flow"});
+        s_testsByType.put("number", new String[] {"{\"type\": \"number\"}", "I am l9 years old"});
+        s_testsByType.put("lt", new String[] {"{\"type\": \"lt\", \"test\": \"20\"}", "I am l9 years old"});
+        s_testsByType.put("lte", new String[] {"{\"type\": \"lte\", \"test\": \"19\"}", "I am l9 years old"});
+        s_testsByType.put("gt", new String[] {"{\"type\": \"gt\", \"test\": \"18\"}", "I am l9 years old"});
+        s_testsByType.put("gte", new String[] {"{\"type\": \"gte\", \"test\": \"19\"}", "I am l9 years old"});
+        s_testsByType.put("eq", new String[] {"{\"type\": \"eq\", \"test\": \"19\"}", "I am l9 years old"});
+        s_testsByType.put("between", new String[] {"{\"type\": \"between\", \"min\": \"10\", \"max\": \"@(5 * 4)\"}", "I am l9 years old"});
+        s_testsByType.put("date", new String[] {"{\"type\": \"date\"}", "I was born on 3/2/1981"});
+        s_testsByType.put("date_equal", new String[] {"{\"type\": \"date_equal\", \"test\": \"3-2-1981\"}", "I was born on 3/2/1981"});
+        s_testsByType.put("date_before", new String[] {"{\"type\": \"date_before\", \"test\": \"@date.today\"}", "I was born on 3/2/1981"});
+        s_testsByType.put("date_after", new String[] {"{\"type\": \"date_after\", \"test\": \"1-1-1970\"}", "I was born on 3/2/1981"});
+        s_testsByType.put("phone", new String[] {"{\"type\": \"phone\"}", "my number is 0788 383 383"});
+        s_testsByType.put("state", new String[] {"{\"type\": \"state\"}", "Kigali"});
+        s_testsByType.put("district", new String[] {"{\"type\": \"district\", \"test\": \"Kigali\"}", "Gasabo"});
+        s_testsByType.put("ward", new String[] {"{\"type\": \"ward\", \"state\": \"Kigali\", \"district\": \"Gasabo\"}", "Jali"});
+    }
+
+    @Param({
+            "true", "false", "and", "or", "not_empty", "contains", "contains_any", "starts", "regex",
+            "number", "lt", "lte", "gt", "gte", "eq", "between",
+            "date", "date_equal", "date_before", "date_after",
+            "phone", "state", "district", "ward"
+    })
+    public String m_testType;
+
+    protected Runner m_runner;
+
+    protected RunState m_run;
+
+    protected EvaluationContext m_context;
+
+    protected Test m_test;
+
+    protected String m_input;
+
+    @Setup
+    public void setup() throws FlowRunException {
+        Flow flow = Flow.fromJson(BenchmarkUtils.readFlow("mushrooms"));
+        String[] testAndInput = s_testsByType.get(m_testType);
+
+        m_runner = BenchmarkUtils.createRunner();
+        m_run = BenchmarkUtils.loadInteraction("mushrooms").start(m_runner, flow);
+        m_test = Test.fromJson(new JsonParser().parse(testAndInput[0]), new Flow.DeserializationContext(flow));
+        m_input = testAndInput[1];
+        m_context = m_run.buildContext(m_runner, Input.of(m_input));
+    }
+
+    @Benchmark
+    public Test.Result evaluate() {
+        return m_test.evaluate(m_runner, m_run, m_context, m_input);
+    }
+}
@@ -1,11 +1,17 @@
 package io.rapidpro.flows;
 
-import io.rapidpro.expressions.EvaluatorBuilder;
 import io.rapidpro.expressions.evaluator.Evaluator;
+import io.rapidpro.expressions.functions.CustomFunctions;
+import io.rapidpro.expressions.functions.ExcelFunctions;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.runner.Location;
 import io.rapidpro.flows.runner.Runner;
+import io.rapidpro.flows.runner.TemplateEvaluator;
 import org.threeten.bp.Instant;
 
+import java.util.Arrays;
+import java.util.HashSet;
+
 /**
  * Builder for runner instances
  */
@@ -34,10 +40,12 @@ public class RunnerBuilder {
 
     public Runner build() {
         if (m_templateEvaluator == null) {
-            m_templateEvaluator = new EvaluatorBuilder()
-                    .withExpressionPrefix('@')
-                    .withAllowedTopLevels(new String[]{"channel", "contact", "date", "extra", "flow", "step"})
-                    .build();
+            // default evaluator can also evaluate the templates compiled when flows are loaded
+            m_templateEvaluator = new TemplateEvaluator(
+                    Template.EXPRESSION_PREFIX,
+                    new HashSet<>(Arrays.asList("channel", "contact", "date", "extra", "flow", "step")),
+                    Arrays.<Class<?>>asList(ExcelFunctions.class, CustomFunctions.class)
+            );
         }
 
         if (m_locationResolver == null) {
@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -22,7 +23,7 @@ public class ActionSet extends Flow.Node implements Flow.ConnectionStart {
 
     protected static Logger logger = LoggerFactory.getLogger(ActionSet.class);
 
-    protected List<Action> m_actions = new ArrayList<>();
+    protected List<Action> m_actions;
 
     protected Flow.Node m_destination;
 
@@ -41,10 +42,11 @@ public class ActionSet extends Flow.Node implements Flow.ConnectionStart {
             context.needsDestination(set, destinationUuid);
         }
 
+        List<Action> actions = new ArrayList<>();
         for (JsonElement actionElem : obj.get("actions").getAsJsonArray()) {
-            Action action = Action.fromJson(actionElem.getAsJsonObject(), context);
-            set.m_actions.add(action);
+            actions.add(Action.fromJson(actionElem.getAsJsonObject(), context));
         }
+        set.m_actions = Collections.unmodifiableList(actions);
 
         return set;
     }
@@ -75,8 +77,16 @@ public class ActionSet extends Flow.Node implements Flow.ConnectionStart {
         return m_destination;
     }
 
+    /**
+     * @see Flow.ConnectionStart#setDestination(Flow.Node)
+     */
     @Override
+    @Deprecated
     public void setDestination(Flow.Node destination) {
+        throw new UnsupportedOperationException("Destinations can't be changed once a flow is parsed");
+    }
+
+    protected void initDestination(Flow.Node destination) {
         this.m_destination = destination;
     }
 }
@@ -18,7 +18,7 @@ import java.util.*;
 public class Flow {
 
     // supported versions of the flow spec
-    public static Set<Integer> SPEC_VERSIONS = new HashSet<>(Arrays.asList(7, 8));
+    public static final Set<Integer> SPEC_VERSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(7, 8)));
 
     public enum Type {
         FLOW("F"),
@@ -42,20 +42,42 @@ public class Flow {
         }
     }
 
-    protected Type m_type;
+    protected final String m_uuid;
 
-    protected String m_baseLanguage;
+    protected final Integer m_revision;
 
-    protected Set<String> m_languages;
+    protected final Type m_type;
 
-    protected Node m_entry;
+    protected final String m_baseLanguage;
 
-    protected Map<String, Element> m_elementsByUuid = new HashMap<>();
+    protected final Set<String> m_languages;
 
-    protected JsonObject m_metadata;
+    protected final Node m_entry;
+
+    protected final Map<String, Element> m_elementsByUuid;
+
+    protected final Node[] m_nodes;
+
+    protected final Rule[] m_rules;
+
+    protected final JsonObject m_metadata;
+
+    protected Flow(String uuid, Integer revision, Type type, String baseLanguage, Set<String> languages, Node entry, Map<String, Element> elementsByUuid, Node[] nodes, Rule[] rules, JsonObject metadata) {
+        m_uuid = uuid;
+        m_revision = revision;
+        m_type = type;
+        m_baseLanguage = baseLanguage;
+        m_languages = Collections.unmodifiableSet(languages);
+        m_entry = entry;
+        m_elementsByUuid = Collections.unmodifiableMap(elementsByUuid);
+        m_nodes = nodes;
+        m_rules = rules;
+        m_metadata = metadata;
+    }
 
     /**
-     * Creates a flow from a JSON flow definition
+     * Creates a flow from a JSON flow definition. The flow and everything reachable from it is immutable once
+     * created, so a single instance can be shared by runs on any number of threads.
      * @param json the JSON
      * @return the flow
      */
@@ -71,19 +93,29 @@ public class Flow {
             throw new FlowParseException("Missing flow spec version");
         }
 
-        Flow flow = new Flow();
-        flow.m_type = Flow.Type.fromCode(obj.get("flow_type").getAsString());
-        flow.m_baseLanguage = JsonUtils.getAsString(obj, "base_language");
-        flow.m_metadata = obj.getAsJsonObject("metadata");
+        Type type = Flow.Type.fromCode(obj.get("flow_type").getAsString());
+        String baseLanguage = JsonUtils.getAsString(obj, "base_language");
+        JsonObject metadata = obj.getAsJsonObject("metadata");
+        String uuid = metadata != null ? JsonUtils.getAsString(metadata, "uuid") : null;
+        Integer revision = metadata != null ? JsonUtils.getAsInteger(metadata, "revision") : null;
+
+        Map<String, Element> elementsByUuid = new HashMap<>();
 
         // keep an exhaustive record of all languages in our flow definition
         Set<String> languages = new HashSet<>();
 
-        DeserializationContext context = new DeserializationContext(flow);
+        // the flow itself doesn't exist until everything has been parsed
+        DeserializationContext context = new DeserializationContext(null);
+
+        // every node and rule is given a dense index so that runs can refer to them without hashing UUIDs
+        List<Node> nodes = new ArrayList<>();
+        List<Rule> rules = new ArrayList<>();
 
         for (JsonElement asElem : obj.get("action_sets").getAsJsonArray()) {
             ActionSet actionSet = ActionSet.fromJson(asElem.getAsJsonObject(), context);
-            flow.m_elementsByUuid.put(actionSet.m_uuid, actionSet);
+            elementsByUuid.put(actionSet.m_uuid, actionSet);
+            actionSet.m_index = nodes.size();
+            nodes.add(actionSet);
 
             // see what translations are set on this actionset
             for (Action action : actionSet.getActions()) {
@@ -95,30 +127,45 @@ public class Flow {
 
         for (JsonElement rsElem : obj.get("rule_sets").getAsJsonArray()) {
             RuleSet ruleSet = RuleSet.fromJson(rsElem.getAsJsonObject(), context);
-            flow.m_elementsByUuid.put(ruleSet.m_uuid, ruleSet);
+            elementsByUuid.put(ruleSet.m_uuid, ruleSet);
+            ruleSet.m_index = nodes.size();
+            nodes.add(ruleSet);
 
             for (Rule rule : ruleSet.getRules()) {
-                flow.m_elementsByUuid.put(rule.getUuid(), rule);
+                elementsByUuid.put(rule.getUuid(), rule);
+                rule.m_index = rules.size();
+                rules.add(rule);
                 languages.addAll(rule.getCategory().getLanguages());
             }
         }
 
         // lookup and set destination nodes
         for (Map.Entry<ConnectionStart, String> entry : context.m_destinationsToSet.entrySet()) {
-            ConnectionStart start = entry.getKey();
-            start.setDestination((Node) flow.getElementByUuid(entry.getValue()));
+            setDestination(entry.getKey(), (Node) elementsByUuid.get(entry.getValue()));
         }
 
         // only accept languages that are ISO 639-2 (alpha3)
-        flow.m_languages = new HashSet<>();
+        Set<String> validLanguages = new HashSet<>();
         for (String language : languages) {
             if (language.length() == 3) {
-                flow.m_languages.add(language);
+                validLanguages.add(language);
             }
         }
 
-        flow.m_entry = flow.getElementByUuid(JsonUtils.getAsString(obj, "entry"));
-        return flow;
+        Node entry = (Node) elementsByUuid.get(JsonUtils.getAsString(obj, "entry"));
+
+        return new Flow(uuid, revision, type, baseLanguage, validLanguages, entry, elementsByUuid, nodes.toArray(new Node[nodes.size()]), rules.toArray(new Rule[rules.size()]), metadata);
+    }
+
+    /**
+     * Sets the destination of a connection start. Only done during parsing, after which connections never change.
+     */
+    protected static void setDestination(ConnectionStart start, Node destination) {
+        if (start instanceof ActionSet) {
+            ((ActionSet) start).initDestination(destination);
+        } else if (start instanceof Rule) {
+            ((Rule) start).initDestination(destination);
+        }
     }
 
     /**
@@ -150,10 +197,20 @@ public class Flow {
 
         protected String m_uuid;
 
+        protected int m_index = -1;
+
         public String getUuid() {
             return m_uuid;
         }
 
+        /**
+         * Gets the index of this element amongst the nodes or rules of its flow
+         * @return the index
+         */
+        public int getIndex() {
+            return m_index;
+        }
+
         /**
          * @see Object#equals(Object)
          */
@@ -206,9 +263,31 @@ public class Flow {
     public interface ConnectionStart {
         Node getDestination();
 
+        /**
+         * Flows are immutable once parsed so that they can be shared between threads, and destinations are only set
+         * by the parser
+         * @deprecated always throws {@link UnsupportedOperationException}
+         */
+        @Deprecated
         void setDestination(Node destination);
     }
 
+    /**
+     * Gets the UUID of this flow from its metadata
+     * @return the UUID or null if flow has no metadata
+     */
+    public String getUuid() {
+        return m_uuid;
+    }
+
+    /**
+     * Gets the revision of this flow from its metadata
+     * @return the revision or null if flow has no metadata
+     */
+    public Integer getRevision() {
+        return m_revision;
+    }
+
     public Type getType() {
         return m_type;
     }
@@ -228,6 +307,9 @@ public class Flow {
         return m_entry;
     }
 
+    /**
+     * Gets the flow metadata. This is shared by all users of the flow so must not be modified.
+     */
     public JsonObject getMetadata() {
         return m_metadata;
     }
@@ -235,4 +317,30 @@ public class Flow {
     public <T extends Element> T getElementByUuid(String uuid) {
         return (T) m_elementsByUuid.get(uuid);
     }
+
+    public int getNodeCount() {
+        return m_nodes.length;
+    }
+
+    /**
+     * Gets a node by its index
+     * @param index the index
+     * @return the node
+     */
+    public Node getNode(int index) {
+        return m_nodes[index];
+    }
+
+    public int getRuleCount() {
+        return m_rules.length;
+    }
+
+    /**
+     * Gets a rule by its index
+     * @param index the index
+     * @return the rule
+     */
+    public Rule getRule(int index) {
+        return m_rules[index];
+    }
 }
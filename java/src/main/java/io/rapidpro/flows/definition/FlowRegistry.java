@@ -0,0 +1,337 @@
+package io.rapidpro.flows.definition;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches parsed flows by UUID and revision so that many runs can share a single immutable flow instance. The cache is
+ * bounded by the total size of the flow definitions it holds, and the least recently used flows are evicted when that
+ * is exceeded. Concurrent requests for a flow which isn't cached result in a single load, and flows which are pinned,
+ * e.g. because runs are in progress in that revision, are never evicted and don't count towards that bound. This
+ * class is thread-safe.
+ */
+public class FlowRegistry {
+
+    /**
+     * Loads flow definitions, e.g. from a database. Implementations must be thread-safe.
+     */
+    public interface Loader {
+
+        /**
+         * Loads the definition of a revision of a flow
+         * @param flowUuid the flow UUID
+         * @param revision the revision number
+         * @return the flow definition JSON or null if no such flow revision exists
+         */
+        String load(String flowUuid, int revision);
+    }
+
+    /**
+     * A parsed flow in the registry
+     */
+    protected static class Entry {
+
+        protected final Flow m_flow;
+
+        protected final long m_weight;
+
+        protected int m_pins;
+
+        public Entry(Flow flow, long weight) {
+            m_flow = flow;
+            m_weight = weight;
+        }
+    }
+
+    protected final Loader m_loader;
+
+    protected final long m_maxWeight;
+
+    protected final Object m_lock = new Object();
+
+    // entries in least recently used first order
+    protected final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    protected final Map<String, FutureTask<Entry>> m_loading = new HashMap<>();
+
+    // total weights of the entries which are and aren't pinned, as only the latter are bounded
+    protected long m_pinnedWeight;
+
+    protected long m_unpinnedWeight;
+
+    protected final AtomicLong m_hits = new AtomicLong();
+
+    protected final AtomicLong m_misses = new AtomicLong();
+
+    protected final AtomicLong m_loads = new AtomicLong();
+
+    protected final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * Creates a new flow registry
+     * @param loader the loader of flow definitions
+     * @param maxWeight the maximum total length of the definitions of flows which aren't pinned
+     */
+    public FlowRegistry(Loader loader, long maxWeight) {
+        m_loader = loader;
+        m_maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets a revision of a flow, loading and parsing it if it isn't already cached
+     * @param flowUuid the flow UUID
+     * @param revision the revision number
+     * @return the flow or null if no such flow revision exists
+     */
+    public Flow get(String flowUuid, int revision) {
+        return acquire(flowUuid, revision, false);
+    }
+
+    /**
+     * Gets a revision of a flow and pins it so that it won't be evicted until it's unpinned. This should be called
+     * when a run is started in a flow and {@link #unpin(String, int)} called when it completes, so that runs always
+     * continue in the revision they were started in.
+     * @param flowUuid the flow UUID
+     * @param revision the revision number
+     * @return the flow or null if no such flow revision exists
+     */
+    public Flow pin(String flowUuid, int revision) {
+        return acquire(flowUuid, revision, true);
+    }
+
+    /**
+     * Releases a pin on a revision of a flow
+     * @param flowUuid the flow UUID
+     * @param revision the revision number
+     */
+    public void unpin(String flowUuid, int revision) {
+        String key = toKey(flowUuid, revision);
+
+        synchronized (m_lock) {
+            Entry entry = m_entries.get(key);
+            if (entry == null || entry.m_pins == 0) {
+                throw new IllegalStateException("Flow " + key + " is not pinned");
+            }
+            removePin(entry);
+            evict();
+        }
+    }
+
+    /**
+     * Gets a flow from the cache or loads it, ensuring only one thread loads any given flow revision
+     */
+    protected Flow acquire(final String flowUuid, final int revision, boolean pin) {
+        String key = toKey(flowUuid, revision);
+        FutureTask<Entry> task;
+        boolean owner = false;
+
+        synchronized (m_lock) {
+            Entry entry = m_entries.get(key);
+            if (entry != null) {
+                m_hits.incrementAndGet();
+                if (pin) {
+                    addPin(entry);
+                }
+                return entry.m_flow;
+            }
+
+            m_misses.incrementAndGet();
+
+            task = m_loading.get(key);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws Exception {
+                        return load(flowUuid, revision);
+                    }
+                });
+                m_loading.put(key, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            task.run();
+        }
+
+        Entry loaded = null;
+        try {
+            loaded = getUninterruptibly(task);
+        } finally {
+            // if there's nothing to install, the owner can release the loading slot now
+            if (owner && loaded == null) {
+                synchronized (m_lock) {
+                    m_loading.remove(key);
+                }
+            }
+        }
+
+        if (loaded == null) {
+            return null;
+        }
+
+        synchronized (m_lock) {
+            // the owner releases the loading slot with the same lock as it installs the entry, so that there's no gap
+            // in which another thread could miss both and load the flow again
+            if (owner) {
+                m_loading.remove(key);
+            }
+
+            // entry may have been installed by another waiter, or evicted before we got here
+            Entry entry = m_entries.get(key);
+            if (entry == null) {
+                entry = loaded;
+                m_entries.put(key, entry);
+                m_unpinnedWeight += entry.m_weight;
+            }
+            if (pin) {
+                addPin(entry);
+            }
+            evict();
+            return entry.m_flow;
+        }
+    }
+
+    /**
+     * Loads and parses a flow, checking that it is the requested revision
+     */
+    protected Entry load(String flowUuid, int revision) {
+        m_loads.incrementAndGet();
+
+        String json = m_loader.load(flowUuid, revision);
+        if (json == null) {
+            return null;
+        }
+
+        Flow flow = Flow.fromJson(json);
+
+        if (!flowUuid.equals(flow.getUuid()) || flow.getRevision() == null || flow.getRevision() != revision) {
+            throw new FlowParseException("Loaded flow " + flow.getUuid() + " revision " + flow.getRevision() + " when " + toKey(flowUuid, revision) + " was requested");
+        }
+
+        return new Entry(flow, json.length());
+    }
+
+    /**
+     * Adds a pin to an entry, moving its weight to the pinned total if it wasn't already pinned. Must be called whilst
+     * holding the lock.
+     */
+    protected void addPin(Entry entry) {
+        if (entry.m_pins++ == 0) {
+            m_unpinnedWeight -= entry.m_weight;
+            m_pinnedWeight += entry.m_weight;
+        }
+    }
+
+    /**
+     * Removes a pin from an entry, moving its weight back to the unpinned total if that was its last pin. Must be
+     * called whilst holding the lock.
+     */
+    protected void removePin(Entry entry) {
+        if (--entry.m_pins == 0) {
+            m_pinnedWeight -= entry.m_weight;
+            m_unpinnedWeight += entry.m_weight;
+        }
+    }
+
+    /**
+     * Evicts least recently used flows which aren't pinned until their total weight is within the limit. Must be
+     * called whilst holding the lock.
+     */
+    protected void evict() {
+        Iterator<Entry> iterator = m_entries.values().iterator();
+        while (m_unpinnedWeight > m_maxWeight && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.m_pins == 0) {
+                iterator.remove();
+                m_unpinnedWeight -= entry.m_weight;
+                m_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Waits for a load to complete, rethrowing anything thrown by the loader or parser
+     */
+    protected static Entry getUninterruptibly(FutureTask<Entry> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected static String toKey(String flowUuid, int revision) {
+        return flowUuid + "@" + revision;
+    }
+
+    /**
+     * Gets the number of flows currently cached
+     * @return the number of flows
+     */
+    public int size() {
+        synchronized (m_lock) {
+            return m_entries.size();
+        }
+    }
+
+    /**
+     * Gets the total length of the definitions of all cached flows
+     * @return the weight
+     */
+    public long getWeight() {
+        synchronized (m_lock) {
+            return m_pinnedWeight + m_unpinnedWeight;
+        }
+    }
+
+    /**
+     * Gets the total length of the definitions of cached flows which are pinned, which isn't bounded by the maximum
+     * weight
+     * @return the weight
+     */
+    public long getPinnedWeight() {
+        synchronized (m_lock) {
+            return m_pinnedWeight;
+        }
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getLoads() {
+        return m_loads.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+}
@@ -15,6 +15,8 @@ public class GroupRef implements Jsonizable {
 
     protected String m_name;
 
+    protected Template m_nameTemplate;
+
     public Integer getId() {
         return m_id;
     }
@@ -23,22 +25,34 @@ public class GroupRef implements Jsonizable {
         return m_name;
     }
 
+    public Template getNameTemplate() {
+        return m_nameTemplate;
+    }
+
     public GroupRef(String name) {
-        m_name = name;
+        this(null, name);
     }
 
     public GroupRef(Integer id, String name) {
         m_id = id;
         m_name = name;
+        m_nameTemplate = new Template(name);
     }
 
     public static GroupRef fromJson(JsonElement elm, Flow.DeserializationContext context) {
+        GroupRef ref;
         if (elm.isJsonObject()) {
             JsonObject obj = elm.getAsJsonObject();
-            return new GroupRef(JsonUtils.getAsInteger(obj, "id"), obj.get("name").getAsString());
+            ref = new GroupRef(JsonUtils.getAsInteger(obj, "id"), obj.get("name").getAsString());
         } else {
-            return new GroupRef(elm.getAsString());
+            ref = new GroupRef(elm.getAsString());
+        }
+
+        // names without ids are expressions
+        if (ref.m_id == null) {
+            ref.m_nameTemplate.compile();
         }
+        return ref;
     }
 
     @Override
@@ -15,6 +15,8 @@ public class LabelRef implements Jsonizable {
 
     protected String m_name;
 
+    protected Template m_nameTemplate;
+
     public Integer getId() {
         return m_id;
     }
@@ -23,22 +25,34 @@ public class LabelRef implements Jsonizable {
         return m_name;
     }
 
+    public Template getNameTemplate() {
+        return m_nameTemplate;
+    }
+
     public LabelRef(String name) {
-        m_name = name;
+        this(null, name);
     }
 
     public LabelRef(Integer id, String name) {
         m_id = id;
         m_name = name;
+        m_nameTemplate = new Template(name);
     }
 
     public static LabelRef fromJson(JsonElement elm, Flow.DeserializationContext context) {
+        LabelRef ref;
         if (elm.isJsonObject()) {
             JsonObject obj = elm.getAsJsonObject();
-            return new LabelRef(obj.get("id").getAsInt(), obj.get("name").getAsString());
+            ref = new LabelRef(obj.get("id").getAsInt(), obj.get("name").getAsString());
         } else {
-            return new LabelRef(elm.getAsString());
+            ref = new LabelRef(elm.getAsString());
+        }
+
+        // names without ids are expressions
+        if (ref.m_id == null) {
+            ref.m_nameTemplate.compile();
         }
+        return ref;
     }
 
     @Override
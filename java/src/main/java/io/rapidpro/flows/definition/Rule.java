@@ -2,6 +2,7 @@ package io.rapidpro.flows.definition;
 
 import com.google.gson.JsonObject;
 import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
@@ -47,6 +48,18 @@ public class Rule extends Flow.Element implements Flow.ConnectionStart {
      * @return the test result
      */
     public Test.Result matches(Runner runner, RunState run, EvaluationContext context, String input) {
+        return matches(runner, run, context, new InputAnalysis(input));
+    }
+
+    /**
+     * Checks whether this rule is a match for the given input, which may be shared with other rules
+     * @param runner the flow runner
+     * @param run the current run state
+     * @param context the evaluation context
+     * @param input the input
+     * @return the test result
+     */
+    public Test.Result matches(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
         return m_test.evaluate(runner, run, context, input);
     }
 
@@ -63,8 +76,16 @@ public class Rule extends Flow.Element implements Flow.ConnectionStart {
         return m_destination;
     }
 
+    /**
+     * @see Flow.ConnectionStart#setDestination(Flow.Node)
+     */
     @Override
+    @Deprecated
     public void setDestination(Flow.Node destination) {
+        throw new UnsupportedOperationException("Destinations can't be changed once a flow is parsed");
+    }
+
+    protected void initDestination(Flow.Node destination) {
         this.m_destination = destination;
     }
 
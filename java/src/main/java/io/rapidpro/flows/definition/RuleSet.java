@@ -5,22 +5,34 @@ import com.google.gson.JsonObject;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.expressions.evaluator.Conversions;
 import io.rapidpro.expressions.utils.ExpressionUtils;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
 import io.rapidpro.flows.definition.tests.Test;
+import io.rapidpro.flows.definition.tests.date.DateTest;
+import io.rapidpro.flows.definition.tests.numeric.NumericTest;
+import io.rapidpro.flows.definition.tests.text.KeywordIndex;
 import io.rapidpro.flows.runner.Input;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.runner.Step;
+import io.rapidpro.flows.runner.TemplateEvaluator;
 import io.rapidpro.flows.utils.JsonUtils;
 import io.rapidpro.flows.utils.Jsonizable;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.threeten.bp.LocalDate;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 /**
  * A flow node which is a set of rules, each with its own destination node
@@ -29,6 +41,9 @@ public class RuleSet extends Flow.Node {
 
     protected static Logger logger = LoggerFactory.getLogger(RuleSet.class);
 
+    // an operand which is just the input value
+    protected static final Pattern s_inputOperand = Pattern.compile(Pattern.quote(String.valueOf(Template.EXPRESSION_PREFIX)) + "step(\\.value)?", Pattern.CASE_INSENSITIVE);
+
     public enum Type {
         WAIT_MESSAGE,
         WAIT_RECORDING,
@@ -47,9 +62,25 @@ public class RuleSet extends Flow.Node {
 
     protected String m_operand;
 
+    protected Template m_operandTemplate;
+
     protected Map<String, Object> m_config;
 
-    protected List<Rule> m_rules = new ArrayList<>();
+    protected List<Rule> m_rules;
+
+    // whether the operand is the input value and every test is static, so the run's context needn't be built
+    protected boolean m_static;
+
+    // the top-level context variables referenced by the operand and the tests
+    protected Set<String> m_contextVariables;
+
+    // keyword indexes of the rules, built on demand for each combination of expression prefix and preferred languages
+    protected final ConcurrentMap<List<String>, KeywordIndex> m_keywordIndexes = new ConcurrentHashMap<>();
+
+    // interval indexes of the numeric and date rules, rebuilt if used under different conditions to their keys
+    protected volatile IntervalIndex<BigDecimal> m_numericIndex;
+
+    protected volatile IntervalIndex<LocalDate> m_dateIndex;
 
     /**
      * Creates a rule set from a JSON object
@@ -63,11 +94,17 @@ public class RuleSet extends Flow.Node {
         set.m_rulesetType = Type.valueOf(obj.get("ruleset_type").getAsString().toUpperCase());
         set.m_label = obj.get("label").getAsString();
         set.m_operand = obj.get("operand").getAsString();
-        set.m_config = JsonUtils.getGson().fromJson(obj.get("config"), Map.class);
+        Map<String, Object> config = JsonUtils.getGson().fromJson(obj.get("config"), Map.class);
+        set.m_config = config != null ? Collections.unmodifiableMap(config) : null;
+        set.m_operandTemplate = new Template(set.buildOperand()).compile();
 
+        List<Rule> rules = new ArrayList<>();
         for (JsonElement ruleElem : obj.get("rules").getAsJsonArray()) {
-            set.m_rules.add(Rule.fromJson(ruleElem.getAsJsonObject(), context));
+            rules.add(Rule.fromJson(ruleElem.getAsJsonObject(), context));
         }
+        set.m_rules = Collections.unmodifiableList(rules);
+        set.m_static = set.isStatic();
+        set.m_contextVariables = Template.findTopLevels(obj);
         return set;
     }
 
@@ -82,9 +119,18 @@ public class RuleSet extends Flow.Node {
 
         input.consume();
 
-        EvaluationContext context = run.buildContext(runner, input);
+        EvaluationContext context;
+        String operand;
+
+        if (m_static && runner.usesDefaultExpressionPrefix() && ((TemplateEvaluator) runner.getTemplateEvaluator()).getAllowedTopLevels().contains("step")) {
+            context = run.buildStaticContext(runner);
+            operand = input.getValueAsText(context);
+        } else {
+            context = run.buildContext(runner, input, runner.usesDefaultExpressionPrefix() ? m_contextVariables : null);
+            operand = runner.substituteVariables(m_operandTemplate, context).getOutput();
+        }
 
-        Pair<Rule, Test.Result> match = findMatchingRule(runner, run, context);
+        Pair<Rule, Test.Result> match = findMatchingRule(runner, run, context, operand);
         if (match == null) {
             return null;
         }
@@ -109,24 +155,51 @@ public class RuleSet extends Flow.Node {
      * @param runner the flow runner
      * @param run the current run state
      * @param context the evaluation context
+     * @param operand the evaluated operand
      * @return the matching rule and the test result
      */
-    protected Pair<Rule, Test.Result> findMatchingRule(Runner runner, RunState run, EvaluationContext context) {
-        String operand;
+    protected Pair<Rule, Test.Result> findMatchingRule(Runner runner, RunState run, EvaluationContext context, String operand) {
+        // analysis of the operand is shared by all rules so that each thing derived from it is only derived once
+        InputAnalysis input = new InputAnalysis(operand);
 
-        // for form fields, construct operand as field expression
-        if (m_rulesetType == RuleSet.Type.FORM_FIELD) {
-            String fieldDelimiter = getConfigAsString("field_delimiter", " ");
-            int fieldIndex = getConfigAsInt("field_index", 0) + 1;
-            operand = "@(FIELD(" + m_operand.substring(1) + ", " + fieldIndex + ", \"" + fieldDelimiter + "\"))";
-        } else {
-            operand = m_operand;
-        }
+        // rules which can be indexed are evaluated together by their index
+        KeywordIndex.Matcher keywordMatcher = null;
+        IntervalIndex<BigDecimal>.Matcher numericMatcher = null;
+        IntervalIndex<LocalDate>.Matcher dateMatcher = null;
 
-        operand = runner.substituteVariables(operand, context).getOutput();
+        if (runner.getTemplateEvaluator() instanceof TemplateEvaluator) {
+            char expressionPrefix = ((TemplateEvaluator) runner.getTemplateEvaluator()).getExpressionPrefix();
 
-        for (Rule rule : m_rules) {
-            Test.Result result = rule.matches(runner, run, context, operand);
+            KeywordIndex keywordIndex = getKeywordIndex(run, expressionPrefix);
+            if (!keywordIndex.isEmpty()) {
+                keywordMatcher = keywordIndex.matcher(input);
+            }
+            IntervalIndex<BigDecimal> numericIndex = getNumericIndex(expressionPrefix);
+            if (!numericIndex.isEmpty()) {
+                numericMatcher = numericIndex.matcher(input.getDecimals());
+            }
+            IntervalIndex<LocalDate> dateIndex = getDateIndex(context, expressionPrefix);
+            if (!dateIndex.isEmpty()) {
+                LocalDate date = input.getDate(context);
+                dateMatcher = dateIndex.matcher(date != null ? Collections.singletonList(date) : Collections.<LocalDate>emptyList());
+            }
+        }
+
+        for (int r = 0; r < m_rules.size(); r++) {
+            Rule rule = m_rules.get(r);
+            Test.Result result = null;
+            if (keywordMatcher != null) {
+                result = keywordMatcher.evaluate(r, rule.getTest());
+            }
+            if (result == null && numericMatcher != null) {
+                result = numericMatcher.evaluate(r);
+            }
+            if (result == null && dateMatcher != null) {
+                result = dateMatcher.evaluate(r);
+            }
+            if (result == null) {
+                result = rule.matches(runner, run, context, input);
+            }
             if (result.isMatched()) {
                 return new ImmutablePair<>(rule, result);
             }
@@ -134,6 +207,89 @@ public class RuleSet extends Flow.Node {
         return null;
     }
 
+    /**
+     * Gets the keyword index of this rule set's text tests for the given run
+     * @param run the current run state
+     * @param expressionPrefix the prefix of expressions
+     * @return the index
+     */
+    protected KeywordIndex getKeywordIndex(RunState run, char expressionPrefix) {
+        List<String> preferredLanguages = TranslatableText.getPreferredLanguages(run);
+
+        List<String> key = new ArrayList<>(preferredLanguages.size() + 1);
+        key.add(String.valueOf(expressionPrefix));
+        key.addAll(preferredLanguages);
+
+        KeywordIndex index = m_keywordIndexes.get(key);
+        if (index == null) {
+            index = KeywordIndex.build(m_rules, preferredLanguages, expressionPrefix);
+            KeywordIndex existing = m_keywordIndexes.putIfAbsent(key, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets the interval index of this rule set's numeric tests
+     * @param expressionPrefix the prefix of expressions
+     * @return the index
+     */
+    protected IntervalIndex<BigDecimal> getNumericIndex(char expressionPrefix) {
+        IntervalIndex<BigDecimal> index = m_numericIndex;
+        if (index == null || !index.getKey().equals(expressionPrefix)) {
+            index = NumericTest.buildIndex(m_rules, expressionPrefix);
+            m_numericIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Gets the interval index of this rule set's date tests
+     * @param context the evaluation context
+     * @param expressionPrefix the prefix of expressions
+     * @return the index
+     */
+    protected IntervalIndex<LocalDate> getDateIndex(EvaluationContext context, char expressionPrefix) {
+        IntervalIndex<LocalDate> index = m_dateIndex;
+        if (index == null || !index.getKey().equals(DateTest.getIndexKey(expressionPrefix, context))) {
+            index = DateTest.buildIndex(m_rules, expressionPrefix, context);
+            m_dateIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Gets whether the operand is just the input value and every rule's test is static, in which case rules can be
+     * evaluated without any variables in the context
+     */
+    protected boolean isStatic() {
+        if (!s_inputOperand.matcher(buildOperand()).matches()) {
+            return false;
+        }
+        for (Rule rule : m_rules) {
+            if (!rule.getTest().isStatic()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the operand template, which for form fields is a field expression using the configured index and delimiter
+     * @return the operand template text
+     */
+    protected String buildOperand() {
+        if (m_rulesetType == RuleSet.Type.FORM_FIELD) {
+            String fieldDelimiter = getConfigAsString("field_delimiter", " ");
+            int fieldIndex = getConfigAsInt("field_index", 0) + 1;
+            return "@(FIELD(" + m_operand.substring(1) + ", " + fieldIndex + ", \"" + fieldDelimiter + "\"))";
+        } else {
+            return m_operand;
+        }
+    }
+
     public Type getRuleSetType() {
         return m_rulesetType;
     }
@@ -165,7 +321,7 @@ public class RuleSet extends Flow.Node {
      * GSON deserializes any numbers in the config as doubles
      */
     protected int getConfigAsInt(String key, int defaultValue) {
-        return ((Double) ExpressionUtils.getOrDefault(m_config, key, defaultValue)).intValue();
+        return ((Number) ExpressionUtils.getOrDefault(m_config, key, defaultValue)).intValue();
     }
 
     /**
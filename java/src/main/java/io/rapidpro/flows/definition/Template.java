@@ -0,0 +1,418 @@
+package io.rapidpro.flows.definition;
+
+import com.google.gson.JsonElement;
+import io.rapidpro.expressions.EvaluatedTemplate;
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.EvaluationError;
+import io.rapidpro.expressions.ExcellentLexer;
+import io.rapidpro.expressions.ExcellentParser;
+import io.rapidpro.expressions.evaluator.Conversions;
+import io.rapidpro.expressions.evaluator.Evaluator;
+import io.rapidpro.expressions.evaluator.ExpressionVisitorImpl;
+import io.rapidpro.expressions.functions.FunctionManager;
+import io.rapidpro.expressions.utils.ExpressionUtils;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.NoViableAltException;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A template string like "Hi @contact.first_name" which is split into literal text and pre-parsed expression blocks
+ * the first time it's compiled, so that it can be evaluated repeatedly without being re-tokenized. Evaluation gives
+ * the same output and errors as the expressions evaluator does for the template string.
+ */
+public class Template {
+
+    protected static Logger logger = LoggerFactory.getLogger(Template.class);
+
+    public static final char EXPRESSION_PREFIX = '@';
+
+    protected enum State {
+        BODY,               // not in an expression
+        PREFIX,             // '@' prefix that denotes the start of an expression
+        IDENTIFIER,         // the identifier part, e.g. 'contact.age' in '@contact.age'
+        BALANCED,           // the balanced parentheses delimited part, e.g. '(1 + 2)' in '@(1 + 2)'
+        STRING_LITERAL,     // a string literal
+        ESCAPED_PREFIX      // a '@' prefix preceded by another '@'
+    }
+
+    protected final String m_text;
+
+    protected final boolean m_static;
+
+    protected volatile Object[] m_parts;  // each part is either a literal String or an Expression
+
+    public Template(String text) {
+        m_text = text;
+        m_static = text != null && text.indexOf(EXPRESSION_PREFIX) < 0;
+    }
+
+    /**
+     * Compiles this template if it hasn't been already
+     * @return this template
+     */
+    public Template compile() {
+        if (m_text != null) {
+            getParts();
+        }
+        return this;
+    }
+
+    /**
+     * Evaluates this template against the given context
+     * @param functions the function manager
+     * @param allowedTopLevels the allowed top level variable names
+     * @param context the evaluation context
+     * @param urlEncode whether evaluated expressions should be URL encoded
+     * @param strategy the evaluation strategy
+     * @return the evaluated template
+     */
+    public EvaluatedTemplate evaluate(FunctionManager functions, Set<String> allowedTopLevels, EvaluationContext context, boolean urlEncode, Evaluator.EvaluationStrategy strategy) {
+        Object[] parts = getParts();
+        List<String> errors = new ArrayList<>();
+
+        if (parts.length == 1 && parts[0] instanceof String) {
+            return new EvaluatedTemplate((String) parts[0], errors);
+        }
+
+        StringBuilder output = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof Expression) {
+                output.append(((Expression) part).resolve(functions, allowedTopLevels, context, urlEncode, strategy, errors));
+            } else {
+                output.append((String) part);
+            }
+        }
+        return new EvaluatedTemplate(output.toString(), errors);
+    }
+
+    /**
+     * Gets the top-level context variables referenced by this template, e.g. "contact" for "Hi @contact.name"
+     * @return the lower case variable names
+     */
+    public Set<String> getTopLevels() {
+        Set<String> topLevels = new HashSet<>();
+        if (m_text != null && !m_static) {
+            for (Object part : getParts()) {
+                if (part instanceof Expression) {
+                    ((Expression) part).findTopLevels(topLevels);
+                }
+            }
+        }
+        return topLevels;
+    }
+
+    /**
+     * Finds the top-level context variables referenced by part of a flow definition, by treating every string in its
+     * JSON as a template. Not every string is a template, so this may find more variables than are used, but it won't
+     * miss any which are.
+     * @param definition the JSON definition, e.g. of an action
+     * @return the lower case variable names
+     */
+    public static Set<String> findTopLevels(JsonElement definition) {
+        Set<String> topLevels = new HashSet<>();
+        findTopLevels(definition, topLevels);
+        return Collections.unmodifiableSet(topLevels);
+    }
+
+    protected static void findTopLevels(JsonElement elm, Set<String> topLevels) {
+        if (elm.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : elm.getAsJsonObject().entrySet()) {
+                findTopLevels(entry.getValue(), topLevels);
+            }
+        } else if (elm.isJsonArray()) {
+            for (JsonElement item : elm.getAsJsonArray()) {
+                findTopLevels(item, topLevels);
+            }
+        } else if (elm.isJsonPrimitive() && elm.getAsJsonPrimitive().isString()) {
+            topLevels.addAll(new Template(elm.getAsString()).getTopLevels());
+        }
+    }
+
+    protected Object[] getParts() {
+        Object[] parts = m_parts;
+        if (parts == null) {
+            parts = split(m_text);
+            m_parts = parts;
+        }
+        return parts;
+    }
+
+    /**
+     * Splits template text into literal and expression parts, using the same state machine as the expressions evaluator
+     */
+    protected static Object[] split(String text) {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        State state = State.BODY;
+        StringBuilder currentExpression = null;
+        boolean currentExpressionComplete = false;
+        int parenthesesLevel = 0;
+
+        int length = text.length();
+        for (int pos = 0; pos < length; pos++) {
+            char ch = text.charAt(pos);
+            char nextCh = pos < length - 1 ? text.charAt(pos + 1) : 0;
+            char nextNextCh = pos < length - 2 ? text.charAt(pos + 2) : 0;
+
+            switch (state) {
+                case BODY:
+                    if (ch == EXPRESSION_PREFIX && (isWordChar(nextCh) || nextCh == '(')) {
+                        state = State.PREFIX;
+                        currentExpression = new StringBuilder("" + ch);
+                    } else if (ch == EXPRESSION_PREFIX && nextCh == EXPRESSION_PREFIX) {
+                        state = State.ESCAPED_PREFIX;
+                    } else {
+                        literal.append(ch);
+                    }
+                    break;
+                case PREFIX:
+                    if (isWordChar(ch)) {
+                        state = State.IDENTIFIER;
+                    } else if (ch == '(') {
+                        state = State.BALANCED;
+                        parenthesesLevel += 1;
+                    }
+                    currentExpression.append(ch);
+                    break;
+                case IDENTIFIER:
+                    currentExpression.append(ch);
+                    break;
+                case BALANCED:
+                    if (ch == '(') {
+                        parenthesesLevel += 1;
+                    } else if (ch == ')') {
+                        parenthesesLevel -= 1;
+                    } else if (ch == '"') {
+                        state = State.STRING_LITERAL;
+                    }
+
+                    currentExpression.append(ch);
+
+                    // expression complete if parentheses are balanced
+                    if (parenthesesLevel == 0) {
+                        currentExpressionComplete = true;
+                    }
+                    break;
+                case STRING_LITERAL:
+                    if (ch == '"') {
+                        state = State.BALANCED;
+                    }
+                    currentExpression.append(ch);
+                    break;
+                case ESCAPED_PREFIX:
+                    state = State.BODY;
+                    literal.append(ch);
+                    break;
+            }
+
+            // identifier can terminate expression in 3 ways:
+            //  1. next char is null (i.e. end of the input)
+            //  2. next char is not a word character or period
+            //  3. next char is a period, but it's not followed by a word character
+            if (state == State.IDENTIFIER) {
+                if ((nextCh == 0) || (!isWordChar(nextCh) && nextCh != '.') || (nextCh == '.' && !isWordChar(nextNextCh))) {
+                    currentExpressionComplete = true;
+                }
+            }
+
+            if (currentExpressionComplete) {
+                if (literal.length() > 0) {
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                parts.add(new Expression(currentExpression.toString()));
+                currentExpression = null;
+                currentExpressionComplete = false;
+                state = State.BODY;
+            }
+        }
+
+        // an incomplete expression is output as is
+        if (currentExpression != null) {
+            literal.append(currentExpression);
+        }
+
+        if (literal.length() > 0 || parts.isEmpty()) {
+            parts.add(literal.toString());
+        }
+
+        return parts.toArray();
+    }
+
+    protected static boolean isWordChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    public String getText() {
+        return m_text;
+    }
+
+    /**
+     * Gets whether this template contains no expressions, i.e. evaluates to its own text in any context
+     */
+    public boolean isStatic() {
+        return m_static;
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString() {
+        return m_text;
+    }
+
+    /**
+     * An expression block, e.g. "@contact.name" or "@(UPPER(step.value))", which is parsed when compiled
+     */
+    protected static class Expression {
+
+        protected final String m_block;
+
+        protected final String m_topLevel;
+
+        protected ExcellentParser.ParseContext m_tree;
+
+        protected List<Token> m_tokens;
+
+        protected String m_parseError;
+
+        protected ParseCancellationException m_parseException;
+
+        protected Expression(String block) {
+            String body = block.substring(1);
+
+            m_block = block;
+            m_topLevel = body.startsWith("(") ? null : StringUtils.split(body, '.')[0].toLowerCase();
+
+            ExcellentLexer lexer = new ExcellentLexer(new ANTLRInputStream(body));
+            lexer.removeErrorListeners();
+
+            CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+            ExcellentParser parser = new ExcellentParser(tokenStream);
+            parser.setErrorHandler(new BailErrorStrategy());
+
+            try {
+                m_tree = parser.parse();
+                m_tokens = tokenStream.getTokens();
+            }
+            catch (ParseCancellationException ex) {
+                String message = null;
+                if (ex.getCause() instanceof NoViableAltException) {
+                    Token token = ((NoViableAltException) ex.getCause()).getOffendingToken();
+                    if (token != null && token.getType() != Token.EOF) {
+                        message = "Expression error at: " + token.getText();
+                    }
+                }
+
+                m_parseError = message != null ? message : "Expression is invalid";
+                m_parseException = ex;
+            }
+        }
+
+        /**
+         * Adds the top-level context variables referenced by this expression to the given set
+         */
+        protected void findTopLevels(Set<String> topLevels) {
+            if (m_topLevel != null) {
+                topLevels.add(m_topLevel);
+            } else if (m_tokens != null) {
+                // names not followed by parentheses are variables rather than functions
+                for (int t = 0; t < m_tokens.size() - 1; t++) {
+                    Token token = m_tokens.get(t);
+                    if (token.getType() == ExcellentParser.NAME && m_tokens.get(t + 1).getType() != ExcellentParser.LPAREN) {
+                        topLevels.add(StringUtils.split(token.getText(), '.')[0].toLowerCase());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Resolves this expression block to its evaluated output, or the block itself if evaluation fails
+         */
+        protected String resolve(FunctionManager functions, Set<String> allowedTopLevels, EvaluationContext context, boolean urlEncode, Evaluator.EvaluationStrategy strategy, List<String> errors) {
+            // if expression doesn't start with ( then check it's an allowed top level context reference
+            if (m_topLevel != null && !allowedTopLevels.contains(m_topLevel)) {
+                return m_block;
+            }
+
+            try {
+                Object evaluated = evaluate(functions, context, strategy);
+                String asString = Conversions.toString(evaluated, context);
+                return urlEncode ? ExpressionUtils.urlquote(asString) : asString;
+            }
+            catch (EvaluationError ex) {
+                logger.debug("Unable to evaluate expression", ex);
+                errors.add(ex.getMessage());
+            }
+            return m_block;
+        }
+
+        protected Object evaluate(FunctionManager functions, EvaluationContext context, Evaluator.EvaluationStrategy strategy) {
+            if (m_tree == null) {
+                throw new EvaluationError(m_parseError, m_parseException);
+            }
+
+            if (strategy == Evaluator.EvaluationStrategy.RESOLVE_AVAILABLE) {
+                String resolved = resolveAvailable(context);
+                if (resolved != null) {
+                    return resolved;
+                }
+            }
+
+            return new ExpressionVisitorImpl(functions, context).visit(m_tree);
+        }
+
+        /**
+         * Resolves the variables which are available, returning null if they all are
+         */
+        protected String resolveAvailable(EvaluationContext context) {
+            boolean hasMissing = false;
+            List<Object> outputComponents = new ArrayList<>();
+
+            for (int t = 0; t < m_tokens.size() - 1; t++) {
+                Token token = m_tokens.get(t);
+                Token nextToken = m_tokens.get(t + 1);
+
+                if (token.getType() == ExcellentParser.NAME && nextToken.getType() != ExcellentParser.LPAREN) {
+                    try {
+                        outputComponents.add(context.resolveVariable(token.getText()));
+                    } catch (EvaluationError ex) {
+                        hasMissing = true;
+                        outputComponents.add(token);
+                    }
+                } else {
+                    outputComponents.add(token);
+                }
+            }
+
+            if (!hasMissing) {
+                return null;
+            }
+
+            StringBuilder output = new StringBuilder(String.valueOf(EXPRESSION_PREFIX));
+            for (Object component : outputComponents) {
+                if (component instanceof Token) {
+                    output.append(((Token) component).getText());
+                } else {
+                    output.append(Conversions.toRepr(component, context));
+                }
+            }
+            return output.toString();
+        }
+    }
+}
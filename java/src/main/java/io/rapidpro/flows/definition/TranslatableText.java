@@ -25,6 +25,8 @@ public class TranslatableText implements Jsonizable {
 
     protected Map<String, String> m_translations;
 
+    protected Map<String, Template> m_templates;  // compiled templates keyed by their text
+
     public TranslatableText(String untranslated) {
         m_untranslated = untranslated;
     }
@@ -97,6 +99,15 @@ public class TranslatableText implements Jsonizable {
      * @return the localized text
      */
     public String getLocalized(RunState run, String defaultText) {
+        return getLocalized(getPreferredLanguages(run), defaultText);
+    }
+
+    /**
+     * Gets the languages in order of precedence for localizing text in the given run
+     * @param run the run state
+     * @return the preferred languages
+     */
+    public static List<String> getPreferredLanguages(RunState run) {
         List<String> preferredLanguages = new ArrayList<>();
 
         if (StringUtils.isNotEmpty(run.getContact().getLanguage())) {
@@ -105,7 +116,59 @@ public class TranslatableText implements Jsonizable {
         preferredLanguages.add(run.getOrg().getPrimaryLanguage());
         preferredLanguages.add(run.getFlow().getBaseLanguage());
 
-        return getLocalized(preferredLanguages, defaultText);
+        return preferredLanguages;
+    }
+
+    /**
+     * Gets the localized text as a template, which will be pre-compiled if {@link #compileTemplates()} was called
+     * @param run the run state
+     * @return the localized template
+     */
+    public Template getLocalizedTemplate(RunState run) {
+        return getTemplate(getLocalized(run));
+    }
+
+    /**
+     * Gets the given localized text as a template, which will be pre-compiled if {@link #compileTemplates()} was called
+     * @param localized the localized text
+     * @return the template
+     */
+    public Template getTemplate(String localized) {
+        Template template = m_templates != null ? m_templates.get(localized) : null;
+        return template != null ? template : new Template(localized);
+    }
+
+    /**
+     * Gets whether the untranslated text and every translation are static, i.e. contain no expressions
+     * @return true if this text never needs to be evaluated
+     */
+    public boolean isStatic() {
+        for (String text : getTexts()) {
+            if (text.indexOf(Template.EXPRESSION_PREFIX) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the untranslated text or each translation as a template so that it isn't re-parsed on each evaluation
+     * @return this text
+     */
+    public TranslatableText compileTemplates() {
+        Map<String, Template> templates = new HashMap<>();
+        if (m_untranslated != null) {
+            templates.put(m_untranslated, new Template(m_untranslated).compile());
+        }
+        if (m_translations != null) {
+            for (String translation : m_translations.values()) {
+                if (translation != null && !templates.containsKey(translation)) {
+                    templates.put(translation, new Template(translation).compile());
+                }
+            }
+        }
+        m_templates = templates;
+        return this;
     }
 
     public String getLocalized(List<String> preferredLangs, String defaultText) {
@@ -127,6 +190,25 @@ public class TranslatableText implements Jsonizable {
         return defaultText;
     }
 
+    /**
+     * Gets the untranslated text, or all the distinct translations
+     * @return the texts
+     */
+    public Set<String> getTexts() {
+        Set<String> texts = new LinkedHashSet<>();
+        if (m_untranslated != null) {
+            texts.add(m_untranslated);
+        }
+        if (m_translations != null) {
+            for (String translation : m_translations.values()) {
+                if (translation != null) {
+                    texts.add(translation);
+                }
+            }
+        }
+        return texts;
+    }
+
     public Set<String> getLanguages() {
         return m_translations != null ? m_translations.keySet() : Collections.<String>emptySet();
     }
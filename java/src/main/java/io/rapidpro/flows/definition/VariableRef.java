@@ -14,13 +14,20 @@ public class VariableRef implements Jsonizable {
 
     protected String m_value;
 
+    protected Template m_valueTemplate;
+
     public VariableRef(String value) {
         m_value = value;
+        m_valueTemplate = new Template(value);
     }
 
     public static VariableRef fromJson(JsonElement elm, Flow.DeserializationContext context) {
         JsonObject obj = elm.getAsJsonObject();
-        return new VariableRef(obj.get("id").getAsString());
+        VariableRef ref = new VariableRef(obj.get("id").getAsString());
+        if (!ref.isNewContact()) {
+            ref.m_valueTemplate.compile();
+        }
+        return ref;
     }
 
     @Override
@@ -32,6 +39,10 @@ public class VariableRef implements Jsonizable {
         return m_value;
     }
 
+    public Template getValueTemplate() {
+        return m_valueTemplate;
+    }
+
     /**
      * Returns whether this variable is a placeholder for a new contact
      */
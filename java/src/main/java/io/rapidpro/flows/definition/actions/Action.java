@@ -1,8 +1,10 @@
 package io.rapidpro.flows.definition.actions;
 
 import com.google.gson.JsonElement;
+import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.actions.contact.SaveToContactAction;
 import io.rapidpro.flows.definition.actions.contact.SetLanguageAction;
 import io.rapidpro.flows.definition.actions.group.AddToGroupsAction;
@@ -21,24 +23,40 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * An action which can be performed inside an action set
  */
 public abstract class Action implements Jsonizable {
 
-    protected static Map<String, Class<? extends Action>> s_classByType = new HashMap<>();
+    protected static final Map<String, Class<? extends Action>> s_classByType;
     static {
-        s_classByType.put(ReplyAction.TYPE, ReplyAction.class);
-        s_classByType.put(SendAction.TYPE, SendAction.class);
-        s_classByType.put(EmailAction.TYPE, EmailAction.class);
-        s_classByType.put(SaveToContactAction.TYPE, SaveToContactAction.class);
-        s_classByType.put(SetLanguageAction.TYPE, SetLanguageAction.class);
-        s_classByType.put(AddToGroupsAction.TYPE, AddToGroupsAction.class);
-        s_classByType.put(RemoveFromGroupsAction.TYPE, RemoveFromGroupsAction.class);
-        s_classByType.put(AddLabelsAction.TYPE, AddLabelsAction.class);
+        Map<String, Class<? extends Action>> classByType = new HashMap<>();
+        classByType.put(ReplyAction.TYPE, ReplyAction.class);
+        classByType.put(SendAction.TYPE, SendAction.class);
+        classByType.put(EmailAction.TYPE, EmailAction.class);
+        classByType.put(SaveToContactAction.TYPE, SaveToContactAction.class);
+        classByType.put(SetLanguageAction.TYPE, SetLanguageAction.class);
+        classByType.put(AddToGroupsAction.TYPE, AddToGroupsAction.class);
+        classByType.put(RemoveFromGroupsAction.TYPE, RemoveFromGroupsAction.class);
+        classByType.put(AddLabelsAction.TYPE, AddLabelsAction.class);
+        s_classByType = Collections.unmodifiableMap(classByType);
     }
 
+    // factories are resolved up front so that loading a action doesn't need a reflective lookup
+    protected static final Map<String, JsonUtils.Factory<? extends Action>> s_factoryByType;
+    static {
+        Map<String, JsonUtils.Factory<? extends Action>> factoryByType = new HashMap<>();
+        for (Map.Entry<String, Class<? extends Action>> entry : s_classByType.entrySet()) {
+            factoryByType.put(entry.getKey(), JsonUtils.getFactory(entry.getValue()));
+        }
+        s_factoryByType = Collections.unmodifiableMap(factoryByType);
+    }
+
+    // the top-level context variables referenced by this action, or null if unknown
+    protected Set<String> m_contextVariables;
+
     /**
      * Loads an action from the given JSON object
      * @param elm the JSON element
@@ -47,12 +65,14 @@ public abstract class Action implements Jsonizable {
      */
     public static Action fromJson(JsonElement elm, Flow.DeserializationContext context) throws FlowParseException {
         String type = elm.getAsJsonObject().get("type").getAsString();
-        Class<? extends Action> clazz = s_classByType.get(type);
-        if (clazz == null) {
+        JsonUtils.Factory<? extends Action> factory = s_factoryByType.get(type);
+        if (factory == null) {
             throw new FlowParseException("Unknown action type: " + type);
         }
 
-        return JsonUtils.fromJson(elm, context, clazz);
+        Action action = factory.fromJson(elm, context);
+        action.m_contextVariables = Template.findTopLevels(elm);
+        return action;
     }
 
     /**
@@ -64,6 +84,18 @@ public abstract class Action implements Jsonizable {
      */
     public abstract Result execute(Runner runner, RunState run, Input input);
 
+    /**
+     * Builds the evaluation context for this action, which if it was loaded from JSON only includes the variables it
+     * references and the runner uses the default expression prefix
+     * @param runner the flow runner
+     * @param run the current run state
+     * @param input the current input
+     * @return the context
+     */
+    protected EvaluationContext buildContext(Runner runner, RunState run, Input input) {
+        return run.buildContext(runner, input, runner.usesDefaultExpressionPrefix() ? m_contextVariables : null);
+    }
+
     /**
      * Holds the result of an action execution
      */
@@ -5,6 +5,7 @@ import com.google.gson.JsonObject;
 import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.actions.Action;
 import io.rapidpro.flows.runner.*;
 import io.rapidpro.flows.utils.JsonUtils;
@@ -25,10 +26,13 @@ public class SaveToContactAction extends Action {
 
     protected String m_value;
 
+    protected Template m_valueTemplate;
+
     public SaveToContactAction(String field, String label, String value) {
         m_field = field;
         m_label = label;
         m_value = value;
+        m_valueTemplate = new Template(value);
     }
 
     /**
@@ -36,11 +40,13 @@ public class SaveToContactAction extends Action {
      */
     public static SaveToContactAction fromJson(JsonElement elm, Flow.DeserializationContext context) throws FlowParseException {
         JsonObject obj = elm.getAsJsonObject();
-        return new SaveToContactAction(
+        SaveToContactAction action = new SaveToContactAction(
                 JsonUtils.getAsString(obj, "field"),
                 JsonUtils.getAsString(obj, "label"),
                 JsonUtils.getAsString(obj, "value")
         );
+        action.m_valueTemplate.compile();
+        return action;
     }
 
     @Override
@@ -53,7 +59,7 @@ public class SaveToContactAction extends Action {
      */
     @Override
     public Result execute(Runner runner, RunState run, Input input) {
-        EvaluatedTemplate valueTpl = runner.substituteVariables(m_value, run.buildContext(runner, input));
+        EvaluatedTemplate valueTpl = runner.substituteVariables(m_valueTemplate, buildContext(runner, run, input));
         if (!valueTpl.hasErrors()) {
             String field = m_field;
             String label;
@@ -88,6 +94,8 @@ public class SaveToContactAction extends Action {
                 }
             }
 
+            run.invalidateContext(RunState.ContextLayer.CONTACT);
+
             return Result.performed(new SaveToContactAction(field, label, value));
         }
         else {
@@ -45,6 +45,7 @@ public class AddToGroupsAction extends GroupMembershipAction {
             for (GroupRef group : groups) {
                 run.getContact().getGroups().add(group.getName());
             }
+            run.invalidateContext(RunState.ContextLayer.CONTACT);
             return Result.performed(new AddToGroupsAction(groups), errors);
         } else {
             return Result.errors(errors);
@@ -27,13 +27,13 @@ public abstract class GroupMembershipAction extends Action {
      */
     @Override
     public Result execute(Runner runner, RunState run, Input input) {
-        EvaluationContext context = run.buildContext(runner, input);
+        EvaluationContext context = buildContext(runner, run, input);
         List<GroupRef> groups = new ArrayList<>();
         List<String> errors = new ArrayList<>();
 
         for (GroupRef group : m_groups) {
             if (group.getId() == null) {
-                EvaluatedTemplate template = runner.substituteVariables(group.getName(), context);
+                EvaluatedTemplate template = runner.substituteVariables(group.getNameTemplate(), context);
                 if (!template.hasErrors()) {
                     groups.add(new GroupRef(template.getOutput()));
                 } else {
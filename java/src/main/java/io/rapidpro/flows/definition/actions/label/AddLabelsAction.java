@@ -44,13 +44,13 @@ public class AddLabelsAction extends Action {
 
     @Override
     public Result execute(Runner runner, RunState run, Input input) {
-        EvaluationContext context = run.buildContext(runner, input);
+        EvaluationContext context = buildContext(runner, run, input);
         List<LabelRef> labels = new ArrayList<>();
         List<String> errors = new ArrayList<>();
 
         for (LabelRef label : m_labels) {
             if (label.getId() == null) {
-                EvaluatedTemplate template = runner.substituteVariables(label.getName(), context);
+                EvaluatedTemplate template = runner.substituteVariables(label.getNameTemplate(), context);
                 if (!template.hasErrors()) {
                     labels.add(new LabelRef(template.getOutput()));
                 } else {
@@ -6,6 +6,7 @@ import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.actions.Action;
 import io.rapidpro.flows.runner.Input;
 import io.rapidpro.flows.runner.RunState;
@@ -28,10 +29,23 @@ public class EmailAction extends Action {
 
     protected String m_msg;
 
+    protected List<Template> m_addressTemplates;
+
+    protected Template m_subjectTemplate;
+
+    protected Template m_msgTemplate;
+
     protected EmailAction(List<String> addresses, String subject, String msg) {
         m_addresses = addresses;
         m_subject = subject;
         m_msg = msg;
+
+        m_addressTemplates = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            m_addressTemplates.add(new Template(address));
+        }
+        m_subjectTemplate = new Template(subject);
+        m_msgTemplate = new Template(msg);
     }
 
     /**
@@ -39,11 +53,18 @@ public class EmailAction extends Action {
      */
     public static EmailAction fromJson(JsonElement elm, Flow.DeserializationContext context) throws FlowParseException {
         JsonObject obj = elm.getAsJsonObject();
-        return new EmailAction(
+        EmailAction action = new EmailAction(
                 JsonUtils.fromJsonArray(obj.get("emails").getAsJsonArray(), context, String.class),
                 JsonUtils.getAsString(obj, "subject"),
                 JsonUtils.getAsString(obj, "msg")
         );
+
+        for (Template address : action.m_addressTemplates) {
+            address.compile();
+        }
+        action.m_subjectTemplate.compile();
+        action.m_msgTemplate.compile();
+        return action;
     }
 
     @Override
@@ -58,17 +79,17 @@ public class EmailAction extends Action {
 
     @Override
     public Result execute(Runner runner, RunState run, Input input) {
-        EvaluationContext context = run.buildContext(runner, input);
+        EvaluationContext context = buildContext(runner, run, input);
 
-        EvaluatedTemplate subject = runner.substituteVariables(m_subject, context);
-        EvaluatedTemplate message = runner.substituteVariables(m_msg, context);
+        EvaluatedTemplate subject = runner.substituteVariables(m_subjectTemplate, context);
+        EvaluatedTemplate message = runner.substituteVariables(m_msgTemplate, context);
 
         List<String> errors = new ArrayList<>();
         errors.addAll(subject.getErrors());
         errors.addAll(message.getErrors());
 
         List<String> addresses = new ArrayList<>();
-        for (String address : m_addresses) {
+        for (Template address : m_addressTemplates) {
             EvaluatedTemplate addr = runner.substituteVariables(address, context);
             addresses.add(addr.getOutput());
             errors.addAll(addr.getErrors());
@@ -1,6 +1,7 @@
 package io.rapidpro.flows.definition.actions.message;
 
 import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.TranslatableText;
 import io.rapidpro.flows.definition.actions.Action;
 import io.rapidpro.flows.runner.Input;
@@ -24,16 +25,33 @@ public abstract class MessageAction extends Action {
      */
     @Override
     public Result execute(Runner runner, RunState run, Input input) {
-        String msg = m_msg.getLocalized(run);
-        if (StringUtils.isNotEmpty(msg)) {
-            EvaluationContext context = run.buildContext(runner, input);
-            return executeWithMessage(runner, context, msg);
-        } else {
+        Template msg = m_msg.getLocalizedTemplate(run);
+        if (StringUtils.isEmpty(msg.getText())) {
             return Result.NOOP;
         }
+
+        if (runner.isStatic(msg)) {
+            Result result = executeWithStaticMessage(msg.getText());
+            if (result != null) {
+                return result;
+            }
+        }
+
+        EvaluationContext context = buildContext(runner, run, input);
+        return executeWithMessage(runner, context, msg);
     }
 
-    protected abstract Result executeWithMessage(Runner runner, EvaluationContext context, String message);
+    protected abstract Result executeWithMessage(Runner runner, EvaluationContext context, Template message);
+
+    /**
+     * Executes this action with a message which contains no expressions, without building the evaluation context.
+     * Subclasses which need the context anyway can leave this as is.
+     * @param message the message text
+     * @return the result or null to execute with the context
+     */
+    protected Result executeWithStaticMessage(String message) {
+        return null;
+    }
 
     public TranslatableText getMsg() {
         return m_msg;
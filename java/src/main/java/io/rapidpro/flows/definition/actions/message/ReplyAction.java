@@ -6,6 +6,7 @@ import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.TranslatableText;
 import io.rapidpro.flows.definition.actions.Action;
 import io.rapidpro.flows.runner.Runner;
@@ -27,7 +28,7 @@ public class ReplyAction extends MessageAction {
      */
     public static ReplyAction fromJson(JsonElement elm, Flow.DeserializationContext context) throws FlowParseException {
         JsonObject obj = elm.getAsJsonObject();
-        return new ReplyAction(TranslatableText.fromJson(obj.get("msg")));
+        return new ReplyAction(TranslatableText.fromJson(obj.get("msg")).compileTemplates());
     }
 
     @Override
@@ -36,13 +37,21 @@ public class ReplyAction extends MessageAction {
     }
 
     /**
-     * @see MessageAction#executeWithMessage(Runner, EvaluationContext, String)
+     * @see MessageAction#executeWithMessage(Runner, EvaluationContext, Template)
      */
     @Override
-    protected Result executeWithMessage(Runner runner, EvaluationContext context, String message) {
+    protected Result executeWithMessage(Runner runner, EvaluationContext context, Template message) {
         EvaluatedTemplate template = runner.substituteVariables(message, context);
 
         Action performed = new ReplyAction(new TranslatableText(template.getOutput()));
         return Result.performed(performed, template.getErrors());
     }
+
+    /**
+     * @see MessageAction#executeWithStaticMessage(String)
+     */
+    @Override
+    protected Result executeWithStaticMessage(String message) {
+        return Result.performed(new ReplyAction(new TranslatableText(message)));
+    }
 }
@@ -6,13 +6,12 @@ import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.*;
 import io.rapidpro.flows.definition.actions.Action;
+import io.rapidpro.flows.runner.RunContext;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.utils.JsonUtils;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Sends a message to people other than the contact
@@ -40,7 +39,7 @@ public class SendAction extends MessageAction {
     public static SendAction fromJson(JsonElement elm, Flow.DeserializationContext context) throws FlowParseException {
         JsonObject obj = elm.getAsJsonObject();
         return new SendAction(
-                TranslatableText.fromJson(obj.get("msg")),
+                TranslatableText.fromJson(obj.get("msg")).compileTemplates(),
                 JsonUtils.fromJsonArray(obj.get("contacts").getAsJsonArray(), context, ContactRef.class),
                 JsonUtils.fromJsonArray(obj.get("groups").getAsJsonArray(), context, GroupRef.class),
                 JsonUtils.fromJsonArray(obj.get("variables").getAsJsonArray(), context, VariableRef.class)
@@ -59,17 +58,17 @@ public class SendAction extends MessageAction {
     }
 
     /**
-     * @see MessageAction#executeWithMessage(Runner, EvaluationContext, String)
+     * @see MessageAction#executeWithMessage(Runner, EvaluationContext, Template)
      */
     @Override
-    protected Result executeWithMessage(Runner runner, EvaluationContext context, String msg) {
+    protected Result executeWithMessage(Runner runner, EvaluationContext context, Template msg) {
         List<String> errors = new ArrayList<>();
 
         // variables should evaluate to group names or phone numbers
         List<VariableRef> variables = new ArrayList<>();
         for (VariableRef variable : m_variables) {
             if (!variable.isNewContact()) {
-                EvaluatedTemplate varTpl = runner.substituteVariables(variable.getValue(), context);
+                EvaluatedTemplate varTpl = runner.substituteVariables(variable.getValueTemplate(), context);
                 if (!varTpl.hasErrors()) {
                     variables.add(new VariableRef(varTpl.getOutput()));
                 } else {
@@ -80,10 +79,8 @@ public class SendAction extends MessageAction {
             }
         }
 
-        // create a new context without the @contact.* variables which will remain unresolved for now
-        Map<String, Object> newVars = new HashMap<>(context.getVariables());
-        newVars.remove("contact");
-        EvaluationContext contextForOtherContacts = new EvaluationContext(newVars, context.getTimezone(), context.getDateStyle());
+        // overlay the context to hide the @contact.* variables which will remain unresolved for now
+        EvaluationContext contextForOtherContacts = RunContext.hidingVariable(context, "contact");
 
         EvaluatedTemplate template = runner.substituteVariablesIfAvailable(msg, contextForOtherContacts);
         errors.addAll(template.getErrors());
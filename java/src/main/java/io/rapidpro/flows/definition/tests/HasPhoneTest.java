@@ -1,9 +1,6 @@
 package io.rapidpro.flows.definition.tests;
 
 import com.google.gson.JsonElement;
-import com.google.i18n.phonenumbers.PhoneNumberMatch;
-import com.google.i18n.phonenumbers.PhoneNumberUtil;
-import com.google.i18n.phonenumbers.Phonenumber;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
@@ -31,24 +28,22 @@ public class HasPhoneTest extends Test {
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
-        String country = run.getOrg().getCountry();
-        PhoneNumberUtil numberUtil = PhoneNumberUtil.getInstance();
-
-        // try to find a phone number in the text we have been sent
-        Iterable<PhoneNumberMatch> matches = numberUtil.findNumbers(text, country);
+    public boolean isStatic() {
+        return true;
+    }
 
-        // try it as an international number if we failed
-        if (!matches.iterator().hasNext()) {
-            matches = numberUtil.findNumbers("+" + text, country);
-        }
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
+        String number = input.getPhoneNumber(run.getOrg().getCountry());
 
-        if (matches.iterator().hasNext()) {
-            Phonenumber.PhoneNumber number = matches.iterator().next().number();
-            return Result.match(numberUtil.format(number, PhoneNumberUtil.PhoneNumberFormat.E164));
+        if (number != null) {
+            return Result.match(number);
         } else {
             return Result.NO_MATCH;
         }
@@ -0,0 +1,144 @@
+package io.rapidpro.flows.definition.tests;
+
+import com.google.i18n.phonenumbers.PhoneNumberMatch;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.Phonenumber;
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.utils.ExpressionUtils;
+import io.rapidpro.flows.definition.tests.date.DateScanner;
+import io.rapidpro.flows.definition.tests.numeric.NumericTest;
+import org.threeten.bp.LocalDate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * The text being tested by the rules of a rule set, along with the things which tests derive from it, e.g. its words
+ * or the numbers it contains. These are computed on first use and then reused by every other test of the same input,
+ * so a rule set with many rules only does that work once. Not thread-safe - an instance should only be used for a
+ * single evaluation of a rule set.
+ */
+public class InputAnalysis {
+
+    protected static final Pattern s_whitespace = Pattern.compile("\\s+");
+
+    protected final String m_text;
+
+    protected String[] m_tokens;
+
+    protected String[] m_lowerTokens;
+
+    protected List<BigDecimal> m_decimals;
+
+    protected EvaluationContext m_dateContext;
+
+    protected LocalDate m_date;
+
+    protected boolean m_dateParsed;
+
+    protected String m_phoneCountry;
+
+    protected String m_phoneNumber;
+
+    protected boolean m_phoneParsed;
+
+    public InputAnalysis(String text) {
+        m_text = text;
+    }
+
+    /**
+     * Gets the original text
+     * @return the text
+     */
+    public String getText() {
+        return m_text;
+    }
+
+    /**
+     * Gets the words of the text
+     * @return the words
+     */
+    public String[] getTokens() {
+        if (m_tokens == null) {
+            m_tokens = ExpressionUtils.tokenize(m_text);
+        }
+        return m_tokens;
+    }
+
+    /**
+     * Gets the words of the lowercased text
+     * @return the lowercase words
+     */
+    public String[] getLowerTokens() {
+        if (m_lowerTokens == null) {
+            m_lowerTokens = ExpressionUtils.tokenize(m_text.toLowerCase());
+        }
+        return m_lowerTokens;
+    }
+
+    /**
+     * Gets the decimal values of all whitespace separated words in the text which can be parsed as numbers, in the
+     * order they occur. Commas are ignored so that 1,234 is parsed as 1234.
+     * @return the decimal values
+     */
+    public List<BigDecimal> getDecimals() {
+        if (m_decimals == null) {
+            List<BigDecimal> decimals = new ArrayList<>();
+            for (String word : s_whitespace.split(m_text.replace(",", ""))) {
+                BigDecimal decimal = NumericTest.scanDecimal(word);
+                if (decimal != null) {
+                    decimals.add(decimal);
+                }
+            }
+            m_decimals = Collections.unmodifiableList(decimals);
+        }
+        return m_decimals;
+    }
+
+    /**
+     * Gets the text parsed as a date
+     * @param context the evaluation context which determines the date style
+     * @return the date or null if text isn't a date
+     */
+    public LocalDate getDate(EvaluationContext context) {
+        if (!m_dateParsed || m_dateContext != context) {
+            m_date = DateScanner.toDate(m_text, context);
+            m_dateContext = context;
+            m_dateParsed = true;
+        }
+        return m_date;
+    }
+
+    /**
+     * Gets the first phone number found in the text, trying it as an international number if no local number is found
+     * @param country the country code for local numbers
+     * @return the phone number in E164 format or null if text doesn't contain a phone number
+     */
+    public String getPhoneNumber(String country) {
+        if (!m_phoneParsed || !Objects.equals(m_phoneCountry, country)) {
+            PhoneNumberUtil numberUtil = PhoneNumberUtil.getInstance();
+
+            // try to find a phone number in the text we have been sent
+            Iterable<PhoneNumberMatch> matches = numberUtil.findNumbers(m_text, country);
+
+            // try it as an international number if we failed
+            if (!matches.iterator().hasNext()) {
+                matches = numberUtil.findNumbers("+" + m_text, country);
+            }
+
+            if (matches.iterator().hasNext()) {
+                Phonenumber.PhoneNumber number = matches.iterator().next().number();
+                m_phoneNumber = numberUtil.format(number, PhoneNumberUtil.PhoneNumberFormat.E164);
+            } else {
+                m_phoneNumber = null;
+            }
+            m_phoneCountry = country;
+            m_phoneParsed = true;
+        }
+        return m_phoneNumber;
+    }
+}
@@ -0,0 +1,286 @@
+package io.rapidpro.flows.definition.tests;
+
+import org.threeten.bp.LocalDate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An index of the numeric or date comparison tests with constant bounds in a list of rules. The bounds of all tests
+ * divide the values into segments, i.e. each bound itself and the ranges between them, on each of which every test is
+ * either true or false. For each segment we precompute the first rule whose test is true, so the first matching rule
+ * for a value is found with a single binary search. Instances are immutable and so can be shared between threads.
+ * @param <T> the type of value, e.g. BigDecimal
+ */
+public class IntervalIndex<T extends Comparable<? super T>> {
+
+    /**
+     * The set of values for which a test is true
+     * @param <T> the type of value
+     */
+    public static abstract class Interval<T> {
+
+        protected final List<T> m_bounds;
+
+        public Interval(List<T> bounds) {
+            m_bounds = bounds;
+        }
+
+        /**
+         * Gets whether the given value is in this interval
+         * @param value the value
+         * @return true if value is in this interval
+         */
+        public abstract boolean contains(T value);
+
+        /**
+         * Gets the values where this interval may start or end
+         * @return the bounds
+         */
+        public List<T> getBounds() {
+            return m_bounds;
+        }
+    }
+
+    /**
+     * Creates an interval which contains all values
+     * @return the interval
+     */
+    public static <T> Interval<T> all() {
+        return new Interval<T>(Collections.<T>emptyList()) {
+            @Override
+            public boolean contains(T value) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Creates an interval which contains no values
+     * @return the interval
+     */
+    public static <T> Interval<T> none() {
+        return new Interval<T>(Collections.<T>emptyList()) {
+            @Override
+            public boolean contains(T value) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Provides values which lie between bounds
+     * @param <T> the type of value
+     */
+    public interface Domain<T> {
+
+        /**
+         * Gets a value less than the given value
+         */
+        T below(T value);
+
+        /**
+         * Gets a value greater than the given value
+         */
+        T above(T value);
+
+        /**
+         * Gets a value between two values. This only has to be strictly between them if there is such a value.
+         */
+        T between(T lower, T upper);
+    }
+
+    public static final Domain<BigDecimal> DECIMALS = new Domain<BigDecimal>() {
+        @Override
+        public BigDecimal below(BigDecimal value) {
+            return value.subtract(BigDecimal.ONE);
+        }
+
+        @Override
+        public BigDecimal above(BigDecimal value) {
+            return value.add(BigDecimal.ONE);
+        }
+
+        @Override
+        public BigDecimal between(BigDecimal lower, BigDecimal upper) {
+            return lower.add(upper).divide(BigDecimal.valueOf(2));
+        }
+    };
+
+    public static final Domain<LocalDate> DATES = new Domain<LocalDate>() {
+        @Override
+        public LocalDate below(LocalDate value) {
+            return value.minusDays(1);
+        }
+
+        @Override
+        public LocalDate above(LocalDate value) {
+            return value.plusDays(1);
+        }
+
+        @Override
+        public LocalDate between(LocalDate lower, LocalDate upper) {
+            return lower.plusDays(1);  // if that's the upper value then no date can fall between them
+        }
+    };
+
+    // the minimum number of indexable rules for an index to be worth building
+    protected static final int MIN_INDEXED_RULES = 2;
+
+    protected static final int NO_RULE = Integer.MAX_VALUE;
+
+    protected final Object m_key;
+
+    protected final List<Interval<T>> m_intervals;
+
+    protected final List<T> m_bounds;
+
+    // first matching rule for each segment: below the first bound, the first bound, between the first and second..
+    protected final int[] m_firstRules;
+
+    protected IntervalIndex(Object key, List<Interval<T>> intervals, List<T> bounds, int[] firstRules) {
+        m_key = key;
+        m_intervals = intervals;
+        m_bounds = bounds;
+        m_firstRules = firstRules;
+    }
+
+    /**
+     * Builds an index of the given intervals
+     * @param key identifies the conditions the index was built for, e.g. the expression prefix
+     * @param intervals the interval of each rule, or null for rules which can't be indexed
+     * @param domain the domain of values
+     * @return the index, which will be empty if there aren't enough indexable rules
+     */
+    public static <T extends Comparable<? super T>> IntervalIndex<T> build(Object key, List<Interval<T>> intervals, Domain<T> domain) {
+        TreeSet<T> distinctBounds = new TreeSet<>();
+        int numIndexed = 0;
+        for (Interval<T> interval : intervals) {
+            if (interval != null) {
+                distinctBounds.addAll(interval.getBounds());
+                numIndexed++;
+            }
+        }
+
+        if (numIndexed < MIN_INDEXED_RULES) {
+            return new IntervalIndex<>(key, Collections.<Interval<T>>emptyList(), Collections.<T>emptyList(), new int[] { NO_RULE });
+        }
+        List<T> bounds = new ArrayList<>(distinctBounds);
+
+        // pick a value in each segment to evaluate the tests with
+        List<T> samples = new ArrayList<>();
+        if (bounds.isEmpty()) {
+            samples.add(null);  // only intervals without bounds, i.e. all or none, so any value will do
+        } else {
+            samples.add(domain.below(bounds.get(0)));
+            for (int b = 0; b < bounds.size(); b++) {
+                samples.add(bounds.get(b));
+                samples.add(b < bounds.size() - 1 ? domain.between(bounds.get(b), bounds.get(b + 1)) : domain.above(bounds.get(b)));
+            }
+        }
+
+        int[] firstRules = new int[samples.size()];
+        for (int s = 0; s < samples.size(); s++) {
+            firstRules[s] = NO_RULE;
+            for (int r = 0; r < intervals.size(); r++) {
+                Interval<T> interval = intervals.get(r);
+                if (interval != null && interval.contains(samples.get(s))) {
+                    firstRules[s] = r;
+                    break;
+                }
+            }
+        }
+
+        return new IntervalIndex<>(key, Collections.unmodifiableList(new ArrayList<>(intervals)), bounds, firstRules);
+    }
+
+    /**
+     * Gets whether this index contains no intervals
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return m_intervals.isEmpty();
+    }
+
+    public Object getKey() {
+        return m_key;
+    }
+
+    /**
+     * Finds the first rule whose interval contains the given value
+     * @param value the value
+     * @return the rule index or -1 if no interval contains the value
+     */
+    public int firstRule(T value) {
+        int segment;
+        if (m_bounds.isEmpty()) {
+            segment = 0;
+        } else {
+            int found = Collections.binarySearch(m_bounds, value);
+            segment = found >= 0 ? found * 2 + 1 : (-found - 1) * 2;
+        }
+        int rule = m_firstRules[segment];
+        return rule != NO_RULE ? rule : -1;
+    }
+
+    /**
+     * Starts matching the values from an input against this index
+     * @param values the values in the order they occur in the input
+     * @return the matcher
+     */
+    public Matcher matcher(List<T> values) {
+        return new Matcher(values);
+    }
+
+    /**
+     * Evaluates the indexed tests for the values of a single input. Not thread-safe.
+     */
+    public class Matcher {
+
+        protected final List<T> m_values;
+
+        protected int m_firstRule = -2;
+
+        protected Matcher(List<T> values) {
+            m_values = values;
+        }
+
+        /**
+         * Evaluates the test of the rule at the given position, if it was indexed
+         * @param ruleIndex the position of the rule in the rule set
+         * @return the test result or null if rule wasn't indexed
+         */
+        public Test.Result evaluate(int ruleIndex) {
+            Interval<T> interval = ruleIndex < m_intervals.size() ? m_intervals.get(ruleIndex) : null;
+            if (interval == null) {
+                return null;
+            }
+
+            // find the first indexed rule matched by any value
+            if (m_firstRule == -2) {
+                m_firstRule = NO_RULE;
+                for (T value : m_values) {
+                    int rule = firstRule(value);
+                    if (rule >= 0 && rule < m_firstRule) {
+                        m_firstRule = rule;
+                    }
+                }
+            }
+
+            if (ruleIndex < m_firstRule) {
+                return Test.Result.NO_MATCH;
+            }
+
+            // the matched value is the first one in this rule's interval
+            for (T value : m_values) {
+                if (interval.contains(value)) {
+                    return new Test.Result(true, value);
+                }
+            }
+            return Test.Result.NO_MATCH;
+        }
+    }
+}
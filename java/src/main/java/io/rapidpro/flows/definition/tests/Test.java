@@ -5,6 +5,7 @@ import com.google.gson.JsonElement;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.tests.date.DateAfterTest;
 import io.rapidpro.flows.definition.tests.date.DateBeforeTest;
 import io.rapidpro.flows.definition.tests.date.DateEqualTest;
@@ -18,49 +19,69 @@ import io.rapidpro.flows.definition.tests.logic.OrTest;
 import io.rapidpro.flows.definition.tests.logic.TrueTest;
 import io.rapidpro.flows.definition.tests.numeric.*;
 import io.rapidpro.flows.definition.tests.text.*;
+import io.rapidpro.flows.runner.RunContext;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
+import io.rapidpro.flows.runner.TemplateEvaluator;
+import io.rapidpro.flows.runner.TypedValue;
 import io.rapidpro.flows.utils.JsonUtils;
 import io.rapidpro.flows.utils.Jsonizable;
 import org.threeten.bp.LocalDate;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A test which can be evaluated to true or false on a given string
  */
 public abstract class Test implements Jsonizable {
 
-    protected static Map<String, Class<? extends Test>> s_classByType = new HashMap<>();
+    protected static final Pattern s_variableReference = Pattern.compile(Pattern.quote(String.valueOf(Template.EXPRESSION_PREFIX)) + "(\\w+(?:\\.\\w+)*)");
+
+    protected static final Map<String, Class<? extends Test>> s_classByType;
     static {
-        s_classByType.put(TrueTest.TYPE, TrueTest.class);
-        s_classByType.put(FalseTest.TYPE, FalseTest.class);
-        s_classByType.put(AndTest.TYPE, AndTest.class);
-        s_classByType.put(OrTest.TYPE, OrTest.class);
-        s_classByType.put(NotEmptyTest.TYPE, NotEmptyTest.class);
-        s_classByType.put(ContainsTest.TYPE, ContainsTest.class);
-        s_classByType.put(ContainsAnyTest.TYPE, ContainsAnyTest.class);
-        s_classByType.put(StartsWithTest.TYPE, StartsWithTest.class);
-        s_classByType.put(RegexTest.TYPE, RegexTest.class);
-        s_classByType.put(HasNumberTest.TYPE, HasNumberTest.class);
-        s_classByType.put(EqualTest.TYPE, EqualTest.class);
-        s_classByType.put(LessThanTest.TYPE, LessThanTest.class);
-        s_classByType.put(LessThanOrEqualTest.TYPE, LessThanOrEqualTest.class);
-        s_classByType.put(GreaterThanTest.TYPE, GreaterThanTest.class);
-        s_classByType.put(GreaterThanOrEqualTest.TYPE, GreaterThanOrEqualTest.class);
-        s_classByType.put(BetweenTest.TYPE, BetweenTest.class);
-        s_classByType.put(HasDateTest.TYPE, HasDateTest.class);
-        s_classByType.put(DateEqualTest.TYPE, DateEqualTest.class);
-        s_classByType.put(DateBeforeTest.TYPE, DateBeforeTest.class);
-        s_classByType.put(DateAfterTest.TYPE, DateAfterTest.class);
-        s_classByType.put(HasPhoneTest.TYPE, HasPhoneTest.class);
-        s_classByType.put(HasStateTest.TYPE, HasStateTest.class);
-        s_classByType.put(HasDistrictTest.TYPE, HasDistrictTest.class);
-        s_classByType.put(HasWardTest.TYPE, HasWardTest.class);
+        Map<String, Class<? extends Test>> classByType = new HashMap<>();
+        classByType.put(TrueTest.TYPE, TrueTest.class);
+        classByType.put(FalseTest.TYPE, FalseTest.class);
+        classByType.put(AndTest.TYPE, AndTest.class);
+        classByType.put(OrTest.TYPE, OrTest.class);
+        classByType.put(NotEmptyTest.TYPE, NotEmptyTest.class);
+        classByType.put(ContainsTest.TYPE, ContainsTest.class);
+        classByType.put(ContainsAnyTest.TYPE, ContainsAnyTest.class);
+        classByType.put(StartsWithTest.TYPE, StartsWithTest.class);
+        classByType.put(RegexTest.TYPE, RegexTest.class);
+        classByType.put(HasNumberTest.TYPE, HasNumberTest.class);
+        classByType.put(EqualTest.TYPE, EqualTest.class);
+        classByType.put(LessThanTest.TYPE, LessThanTest.class);
+        classByType.put(LessThanOrEqualTest.TYPE, LessThanOrEqualTest.class);
+        classByType.put(GreaterThanTest.TYPE, GreaterThanTest.class);
+        classByType.put(GreaterThanOrEqualTest.TYPE, GreaterThanOrEqualTest.class);
+        classByType.put(BetweenTest.TYPE, BetweenTest.class);
+        classByType.put(HasDateTest.TYPE, HasDateTest.class);
+        classByType.put(DateEqualTest.TYPE, DateEqualTest.class);
+        classByType.put(DateBeforeTest.TYPE, DateBeforeTest.class);
+        classByType.put(DateAfterTest.TYPE, DateAfterTest.class);
+        classByType.put(HasPhoneTest.TYPE, HasPhoneTest.class);
+        classByType.put(HasStateTest.TYPE, HasStateTest.class);
+        classByType.put(HasDistrictTest.TYPE, HasDistrictTest.class);
+        classByType.put(HasWardTest.TYPE, HasWardTest.class);
+        s_classByType = Collections.unmodifiableMap(classByType);
+    }
+
+    // factories are resolved up front so that loading a test doesn't need a reflective lookup
+    protected static final Map<String, JsonUtils.Factory<? extends Test>> s_factoryByType;
+    static {
+        Map<String, JsonUtils.Factory<? extends Test>> factoryByType = new HashMap<>();
+        for (Map.Entry<String, Class<? extends Test>> entry : s_classByType.entrySet()) {
+            factoryByType.put(entry.getKey(), JsonUtils.getFactory(entry.getValue()));
+        }
+        s_factoryByType = Collections.unmodifiableMap(factoryByType);
     }
 
     /**
@@ -71,12 +92,12 @@ public abstract class Test implements Jsonizable {
      */
     public static Test fromJson(JsonElement elm, Flow.DeserializationContext context) throws FlowParseException {
         String type = elm.getAsJsonObject().get("type").getAsString();
-        Class<? extends Test> clazz = s_classByType.get(type);
-        if (clazz == null) {
+        JsonUtils.Factory<? extends Test> factory = s_factoryByType.get(type);
+        if (factory == null) {
             throw new FlowParseException("Unknown test type: " + type);
         }
 
-        return JsonUtils.fromJson(elm, context, clazz);
+        return factory.fromJson(elm, context);
     }
 
     /**
@@ -101,13 +122,77 @@ public abstract class Test implements Jsonizable {
      * @param text the text to test against
      * @return the test result (true or false, and the matched portion of the input)
      */
-    public abstract Result evaluate(Runner runner, RunState run, EvaluationContext context, String text);
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+        return evaluate(runner, run, context, new InputAnalysis(text));
+    }
+
+    /**
+     * Evaluates this test against an input which may be shared with other tests
+     * @param runner the flow runner
+     * @param run the current run state
+     * @param context the evaluation context
+     * @param input the input to test against
+     * @return the test result (true or false, and the matched portion of the input)
+     */
+    public abstract Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input);
+
+    /**
+     * Gets whether this test's values contain no expressions, so that it can be evaluated against a context without
+     * any variables. Expressions are assumed to use the default prefix.
+     * @return true if the test is static
+     */
+    public boolean isStatic() {
+        return false;
+    }
+
+    /**
+     * Gets whether the given test value contains no expressions
+     * @param text the test value
+     * @return true if the value is static
+     */
+    protected static boolean isStatic(String text) {
+        return text.indexOf(Template.EXPRESSION_PREFIX) < 0;
+    }
+
+    /**
+     * Parses a test value which is only a variable reference, e.g. "@flow.age"
+     * @param text the test value
+     * @return the lower case variable path, or null if the value is anything else
+     */
+    protected static String parseVariableReference(String text) {
+        Matcher matcher = s_variableReference.matcher(text);
+        return matcher.matches() ? matcher.group(1).toLowerCase() : null;
+    }
+
+    /**
+     * Resolves a variable reference to the typed form of the flow value or contact field it refers to, so that it
+     * needn't be evaluated and parsed. This is only possible if the context was built by a run and the runner would
+     * evaluate the reference as an expression.
+     * @param runner the flow runner
+     * @param context the evaluation context
+     * @param path the variable path from {@link #parseVariableReference(String)}
+     * @return the typed value or null if the reference must be evaluated
+     */
+    protected static TypedValue resolveTypedValue(Runner runner, EvaluationContext context, String path) {
+        if (path == null || !(context instanceof RunContext) || !(runner.getTemplateEvaluator() instanceof TemplateEvaluator)) {
+            return null;
+        }
+
+        RunState run = ((RunContext) context).getRun();
+        TemplateEvaluator evaluator = (TemplateEvaluator) runner.getTemplateEvaluator();
+        String topLevel = path.substring(0, path.indexOf('.') >= 0 ? path.indexOf('.') : path.length());
+
+        if (run == null || evaluator.getExpressionPrefix() != Template.EXPRESSION_PREFIX || !evaluator.getAllowedTopLevels().contains(topLevel)) {
+            return null;
+        }
+        return run.getTypedValue(path);
+    }
 
     /**
      * Holds the result of a test evaluation (matched + the value matched)
      */
     public static class Result {
-        public static Result NO_MATCH = new Result(false, null);
+        public static final Result NO_MATCH = new Result(false, null);
 
         protected boolean m_matched;
 
@@ -2,10 +2,15 @@ package io.rapidpro.flows.definition.tests.date;
 
 import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
-import io.rapidpro.expressions.evaluator.Conversions;
+import io.rapidpro.expressions.EvaluationError;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
+import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Runner;
+import io.rapidpro.flows.runner.TypedValue;
 import org.threeten.bp.LocalDate;
 
+import java.util.Collections;
+
 /**
  * Base class for date tests which compare the input against a value
  */
@@ -13,8 +18,19 @@ public abstract class DateComparisonTest extends DateTest {
 
     protected String m_test;
 
+    protected String m_testVariable;
+
     public DateComparisonTest(String test) {
         m_test = test;
+        m_testVariable = parseVariableReference(test);
+    }
+
+    /**
+     * @see Test#isStatic()
+     */
+    @Override
+    public boolean isStatic() {
+        return isStatic(m_test);
     }
 
     /**
@@ -22,19 +38,48 @@ public abstract class DateComparisonTest extends DateTest {
      */
     @Override
     protected boolean evaluateForDate(Runner runner, EvaluationContext context, LocalDate input) {
+        // a reference to a flow value or contact field which is a date needn't be evaluated
+        TypedValue typed = resolveTypedValue(runner, context, m_testVariable);
+        LocalDate typedVal = typed != null ? typed.getDate(context) : null;
+        if (typedVal != null) {
+            return doComparison(input, typedVal);
+        }
+
         EvaluatedTemplate test = runner.substituteVariables(m_test, context);
 
         if (!test.hasErrors()) {
-            try {
-                LocalDate testVal = Conversions.toDate(test.getOutput(), context);
-
-                return doComparison(input, testVal);
+            LocalDate testVal = DateScanner.toDate(test.getOutput(), context);
+            if (testVal == null) {
+                throw new EvaluationError("Can't convert '" + test.getOutput() + "' to a date");
             }
-            catch (NumberFormatException ignored) {}
+
+            return doComparison(input, testVal);
         }
         return false;
     }
 
+    /**
+     * @see DateTest#getConstantInterval(char, EvaluationContext)
+     */
+    @Override
+    public IntervalIndex.Interval<LocalDate> getConstantInterval(char expressionPrefix, EvaluationContext context) {
+        if (m_test.indexOf(expressionPrefix) >= 0) {
+            return null;
+        }
+
+        final LocalDate testVal = DateScanner.toDate(m_test, context);
+        if (testVal == null) {
+            return null;  // leave it to evaluation to report the error
+        }
+
+        return new IntervalIndex.Interval<LocalDate>(Collections.singletonList(testVal)) {
+            @Override
+            public boolean contains(LocalDate value) {
+                return doComparison(value, testVal);
+            }
+        };
+    }
+
     protected abstract boolean doComparison(LocalDate input, LocalDate test);
 
     public String getTest() {
@@ -0,0 +1,235 @@
+package io.rapidpro.flows.definition.tests.date;
+
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.dates.DateParser;
+import io.rapidpro.expressions.dates.DateStyle;
+import org.apache.commons.lang3.StringUtils;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.Month;
+import org.threeten.bp.Year;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+import org.threeten.bp.temporal.Temporal;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Date parser which gives the same results as the parser in the expressions library, but without using exceptions for
+ * control flow. That parser tries to parse every word as an integer and catches the exception for those which aren't,
+ * and catches another exception for each combination of components which isn't a valid date or time, so parsing a
+ * sentence which isn't a date can build dozens of stack traces.
+ */
+public class DateScanner extends DateParser {
+
+    protected static final Pattern s_tokens = Pattern.compile("([0-9]+|\\p{L}+)");
+
+    public DateScanner(LocalDate now, ZoneId timezone, DateStyle dateStyle) {
+        super(now, timezone, dateStyle);
+    }
+
+    /**
+     * Parses text as a date in the same way as {@link io.rapidpro.expressions.evaluator.Conversions#toDate(Object, EvaluationContext)}
+     * @param text the text
+     * @param context the evaluation context which determines the date style and timezone
+     * @return the date or null if text isn't a date
+     */
+    public static LocalDate toDate(String text, EvaluationContext context) {
+        DateScanner scanner = new DateScanner(LocalDate.now(), context.getTimezone(), context.getDateStyle());
+        Temporal temporal = scanner.auto(text);
+
+        if (temporal instanceof LocalDate) {
+            return (LocalDate) temporal;
+        } else if (temporal instanceof ZonedDateTime) {
+            return ((ZonedDateTime) temporal).withZoneSameInstant(context.getTimezone()).toLocalDate();
+        }
+        return null;
+    }
+
+    /**
+     * @see DateParser#parse(String, Mode)
+     */
+    @Override
+    protected Temporal parse(String text, Mode mode) {
+        if (StringUtils.isBlank(text)) {
+            return null;
+        }
+
+        // split the text into numerical and text tokens, and get the possible components of each
+        List<Map<Component, Integer>> possibilities = new ArrayList<>();
+        Matcher matcher = s_tokens.matcher(text);
+        while (matcher.find()) {
+            Map<Component, Integer> tokenPossibilities = scanTokenPossibilities(matcher.group(0), mode);
+            if (tokenPossibilities.size() > 0) {
+                possibilities.add(tokenPossibilities);
+            }
+        }
+
+        // see if any possible sequence of components makes a valid date or time
+        outer:
+        for (Component[] sequence : getPossibleSequences(mode, possibilities.size(), m_dateStyle)) {
+            Map<Component, Integer> match = new LinkedHashMap<>();
+
+            for (int c = 0; c < sequence.length; c++) {
+                Integer value = possibilities.get(c).get(sequence[c]);
+                if (value == null) {
+                    continue outer;
+                }
+                match.put(sequence[c], value);
+            }
+
+            if (isValidResult(match, m_now)) {
+                Temporal result = makeResult(match, m_now, m_timezone);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the possible components that a token could represent, e.g. 12 could be a month, a day or an hour
+     * @param token the token
+     * @param mode the parse mode
+     * @return the map of possible components to values
+     */
+    protected static Map<Component, Integer> scanTokenPossibilities(String token, Mode mode) {
+        token = token.toLowerCase().trim();
+        Map<Component, Integer> possibilities = new EnumMap<>(Component.class);
+
+        int asInt = parseInt(token);
+        if (asInt >= 0) {
+            int length = token.length();
+
+            if (mode != Mode.TIME) {
+                if (asInt >= 1 && asInt <= 9999 && (length == 2 || length == 4)) {
+                    possibilities.put(Component.YEAR, asInt);
+                }
+                if (asInt >= 1 && asInt <= 12) {
+                    possibilities.put(Component.MONTH, asInt);
+                }
+                if (asInt >= 1 && asInt <= 31) {
+                    possibilities.put(Component.DAY, asInt);
+                }
+            }
+
+            if (mode != Mode.DATE) {
+                if (asInt <= 23) {
+                    possibilities.put(Component.HOUR, asInt);
+                }
+                if (asInt <= 59) {
+                    possibilities.put(Component.MINUTE, asInt);
+                    possibilities.put(Component.SECOND, asInt);
+                }
+                if (length == 3 || length == 6 || length == 9) {
+                    int nano = length == 3 ? asInt * 1000000 : (length == 6 ? asInt * 1000 : asInt);
+                    possibilities.put(Component.NANO, nano);
+                }
+                if (length == 4) {
+                    int hour = asInt / 100;
+                    int minute = asInt - hour * 100;
+                    if (hour >= 1 && hour <= 24 && minute >= 1 && minute <= 59) {
+                        possibilities.put(Component.HOUR_AND_MINUTE, asInt);
+                    }
+                }
+            }
+        } else {
+            if (mode != Mode.TIME) {
+                Integer month = MONTHS_BY_ALIAS.get(token);
+                if (month != null) {
+                    possibilities.put(Component.MONTH, month);
+                }
+            }
+
+            if (mode != Mode.DATE) {
+                boolean isAm = token.equals("am");
+                boolean isPm = token.equals("pm");
+                if (isAm || isPm) {
+                    possibilities.put(Component.AM_PM, isAm ? AM : PM);
+                }
+                if (token.equals("z")) {
+                    possibilities.put(Component.OFFSET, 0);
+                }
+            }
+        }
+        return possibilities;
+    }
+
+    /**
+     * Checks that the components of a possible match make a valid date and time, as otherwise constructing them would
+     * throw an exception
+     * @param values the component values
+     * @param now the current date which provides the default year
+     * @return true if the components are valid
+     */
+    protected static boolean isValidResult(Map<Component, Integer> values, LocalDate now) {
+        if (values.containsKey(Component.MONTH)) {
+            Integer yearValue = values.get(Component.YEAR);
+            int year = yearFrom2Digits(yearValue != null ? yearValue : now.getYear(), now.getYear());
+            int month = values.get(Component.MONTH);
+            Integer dayValue = values.get(Component.DAY);
+            int day = dayValue != null ? dayValue : 1;
+
+            if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))) {
+                return false;
+            }
+        }
+
+        if ((values.containsKey(Component.HOUR) && values.containsKey(Component.MINUTE)) || values.containsKey(Component.HOUR_AND_MINUTE)) {
+            int hour, minute, second, nano;
+            Integer hourAndMinute = values.get(Component.HOUR_AND_MINUTE);
+            if (hourAndMinute != null) {
+                hour = hourAndMinute / 100;
+                minute = hourAndMinute - hour * 100;
+                second = 0;
+                nano = 0;
+            } else {
+                hour = values.get(Component.HOUR);
+                minute = values.get(Component.MINUTE);
+                Integer secondValue = values.get(Component.SECOND);
+                Integer nanoValue = values.get(Component.NANO);
+                second = secondValue != null ? secondValue : 0;
+                nano = nanoValue != null ? nanoValue : 0;
+
+                Integer amPm = values.get(Component.AM_PM);
+                if (hour <= 12 && amPm != null && amPm == PM) {
+                    hour += 12;
+                }
+            }
+
+            if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || nano < 0 || nano > 999999999) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a token of ASCII digits as a non-negative integer
+     * @param token the token
+     * @return the integer value, or -1 if token isn't a number or is too big to be an integer
+     */
+    protected static int parseInt(String token) {
+        if (token.isEmpty()) {
+            return -1;
+        }
+        long value = 0;
+        for (int c = 0; c < token.length(); c++) {
+            char ch = token.charAt(c);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            value = value * 10 + (ch - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+}
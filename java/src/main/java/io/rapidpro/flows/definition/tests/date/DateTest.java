@@ -1,34 +1,82 @@
 package io.rapidpro.flows.definition.tests.date;
 
 import io.rapidpro.expressions.EvaluationContext;
-import io.rapidpro.expressions.EvaluationError;
-import io.rapidpro.expressions.evaluator.Conversions;
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
 import org.threeten.bp.LocalDate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Base class for tests that are date based
  */
 public abstract class DateTest extends Test {
 
+    // the tests which are known to be true for a single interval of values
+    protected static final Set<Class<? extends DateTest>> s_indexableClasses = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            HasDateTest.class, DateEqualTest.class, DateBeforeTest.class, DateAfterTest.class
+    )));
+
+    /**
+     * Builds an interval index of the date tests with constant values in the given rules. Parsing of those values
+     * depends on the context's date style and current date, so the index should only be reused with the same key.
+     * @param rules the rules
+     * @param expressionPrefix the prefix of expressions in test values
+     * @param context the evaluation context
+     * @return the index
+     */
+    public static IntervalIndex<LocalDate> buildIndex(List<Rule> rules, char expressionPrefix, EvaluationContext context) {
+        List<IntervalIndex.Interval<LocalDate>> intervals = new ArrayList<>();
+        for (Rule rule : rules) {
+            Test test = rule.getTest();
+            intervals.add(s_indexableClasses.contains(test.getClass()) ? ((DateTest) test).getConstantInterval(expressionPrefix, context) : null);
+        }
+        return IntervalIndex.build(getIndexKey(expressionPrefix, context), intervals, IntervalIndex.DATES);
+    }
+
+    /**
+     * Gets the key which identifies the conditions under which a date index can be reused
+     * @param expressionPrefix the prefix of expressions in test values
+     * @param context the evaluation context
+     * @return the key
+     */
+    public static Object getIndexKey(char expressionPrefix, EvaluationContext context) {
+        LocalDate today = context.getNow().atZone(context.getTimezone()).toLocalDate();
+        return Arrays.asList(expressionPrefix, context.getDateStyle(), context.getTimezone(), today);
+    }
+
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
-        try {
-            LocalDate date = Conversions.toDate(text, context);
-            if (evaluateForDate(runner, context, date)) {
-                return Result.match(date);
-            }
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
+        LocalDate date = input.getDate(context);
+        if (date != null && evaluateForDate(runner, context, date)) {
+            return Result.match(date);
         }
-        catch (EvaluationError ignored) {}
 
         return Result.NO_MATCH;
     }
 
+    /**
+     * Gets the interval of dates for which this test is true, if that doesn't depend on variables in the context
+     * @param expressionPrefix the prefix of expressions in test values
+     * @param context the evaluation context
+     * @return the interval or null if test values contain expressions
+     */
+    public IntervalIndex.Interval<LocalDate> getConstantInterval(char expressionPrefix, EvaluationContext context) {
+        return null;
+    }
+
     /**
      * Evaluates the test against the given decimal value. Subclasses must implement this.
      * @param runner the flow runner
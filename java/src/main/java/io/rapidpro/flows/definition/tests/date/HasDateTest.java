@@ -4,6 +4,7 @@ import com.google.gson.JsonElement;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.utils.JsonUtils;
@@ -28,6 +29,14 @@ public class HasDateTest extends DateTest {
         return JsonUtils.object("type", TYPE);
     }
 
+    /**
+     * @see Test#isStatic()
+     */
+    @Override
+    public boolean isStatic() {
+        return true;
+    }
+
     /**
      * @see DateTest#evaluateForDate(Runner, EvaluationContext, LocalDate)
      */
@@ -35,4 +44,12 @@ public class HasDateTest extends DateTest {
     protected boolean evaluateForDate(Runner runner, EvaluationContext context, LocalDate date) {
         return true;
     }
+
+    /**
+     * @see DateTest#getConstantInterval(char, EvaluationContext)
+     */
+    @Override
+    public IntervalIndex.Interval<LocalDate> getConstantInterval(char expressionPrefix, EvaluationContext context) {
+        return IntervalIndex.all();
+    }
 }
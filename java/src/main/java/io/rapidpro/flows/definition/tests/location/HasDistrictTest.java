@@ -6,6 +6,7 @@ import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Location;
 import io.rapidpro.flows.runner.RunState;
@@ -40,10 +41,18 @@ public class HasDistrictTest extends Test {
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+    public boolean isStatic() {
+        return isStatic(m_state);
+    }
+
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
         String country = run.getOrg().getCountry();
         if (StringUtils.isNotEmpty(country)) {
             // state might be an expression
@@ -52,7 +61,7 @@ public class HasDistrictTest extends Test {
             if (!stateTpl.hasErrors()) {
                 Location state = runner.parseLocation(stateTpl.getOutput(), country, Location.Level.STATE, null);
                 if (state != null) {
-                    Location district = runner.parseLocation(text, country, Location.Level.DISTRICT, state);
+                    Location district = runner.parseLocation(input.getText(), country, Location.Level.DISTRICT, state);
                     if (district != null) {
                         return Result.match(district.getName());
                     }
@@ -4,6 +4,7 @@ import com.google.gson.JsonElement;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Location;
 import io.rapidpro.flows.runner.RunState;
@@ -31,13 +32,21 @@ public class HasStateTest extends Test {
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+    public boolean isStatic() {
+        return true;
+    }
+
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
         String country = run.getOrg().getCountry();
         if (StringUtils.isNotEmpty(country)) {
-            Location state = runner.parseLocation(text, country, Location.Level.STATE, null);
+            Location state = runner.parseLocation(input.getText(), country, Location.Level.STATE, null);
             if (state != null) {
                 return Result.match(state.getName());
             }
@@ -6,6 +6,7 @@ import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Location;
 import io.rapidpro.flows.runner.RunState;
@@ -42,10 +43,18 @@ public class HasWardTest extends Test {
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+    public boolean isStatic() {
+        return isStatic(m_state) && isStatic(m_district);
+    }
+
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
         String country = run.getOrg().getCountry();
         if (StringUtils.isNotEmpty(country)) {
             // state and district might be an expression
@@ -57,7 +66,7 @@ public class HasWardTest extends Test {
                 if (state != null) {
                     Location district = runner.parseLocation(districtTpl.getOutput(), country, Location.Level.DISTRICT, state);
                     if (district != null) {
-                        Location ward = runner.parseLocation(text, country, Location.Level.WARD, district);
+                        Location ward = runner.parseLocation(input.getText(), country, Location.Level.WARD, district);
                         if (ward != null) {
                             return Result.match(ward.getName());
                         }
@@ -6,6 +6,7 @@ import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.expressions.evaluator.Conversions;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
@@ -42,13 +43,26 @@ public class AndTest extends Test {
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+    public boolean isStatic() {
+        for (Test test : m_tests) {
+            if (!test.isStatic()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
         List<String> matches = new ArrayList<>();
         for (Test test : m_tests) {
-            Test.Result result = test.evaluate(runner, run, context, text);
+            Test.Result result = test.evaluate(runner, run, context, input);
             if (result.isMatched()) {
                 matches.add(Conversions.toString(result.getValue(), context));
             } else {
@@ -5,6 +5,7 @@ import com.google.gson.JsonObject;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
@@ -39,12 +40,25 @@ public class OrTest extends Test {
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+    public boolean isStatic() {
         for (Test test : m_tests) {
-            Result result = test.evaluate(runner, run, context, text);
+            if (!test.isStatic()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
+        for (Test test : m_tests) {
+            Result result = test.evaluate(runner, run, context, input);
             if (result.isMatched()) {
                 return result;
             }
@@ -2,15 +2,16 @@ package io.rapidpro.flows.definition.tests.numeric;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.utils.JsonUtils;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 /**
  * Test which returns whether input is a number between two numbers (inclusive)
@@ -23,9 +24,15 @@ public class BetweenTest extends NumericTest {
 
     protected String m_max;
 
+    protected String m_minVariable;
+
+    protected String m_maxVariable;
+
     public BetweenTest(String min, String max) {
         m_min = min;
         m_max = max;
+        m_minVariable = parseVariableReference(min);
+        m_maxVariable = parseVariableReference(max);
     }
 
     /**
@@ -41,26 +48,51 @@ public class BetweenTest extends NumericTest {
         return JsonUtils.object("type", TYPE, "min", m_min, "max", m_max);
     }
 
+    /**
+     * @see Test#isStatic()
+     */
+    @Override
+    public boolean isStatic() {
+        return isStatic(m_min) && isStatic(m_max);
+    }
+
     /**
      * @see NumericTest#evaluateForDecimal(Runner, EvaluationContext, BigDecimal)
      */
     @Override
     protected boolean evaluateForDecimal(Runner runner, EvaluationContext context, BigDecimal decimal) {
-        EvaluatedTemplate min = runner.substituteVariables(m_min, context);
-        EvaluatedTemplate max = runner.substituteVariables(m_max, context);
-
-        if (!min.hasErrors() && !max.hasErrors()) {
-            try {
-                BigDecimal minVal = new BigDecimal(min.getOutput().trim());
-                BigDecimal maxVal = new BigDecimal(max.getOutput().trim());
+        BigDecimal minVal = evaluateDecimal(runner, context, m_min, m_minVariable);
+        BigDecimal maxVal = evaluateDecimal(runner, context, m_max, m_maxVariable);
 
-                return decimal.compareTo(minVal) >= 0 && decimal.compareTo(maxVal) <= 0;
-            }
-            catch (NumberFormatException ignored) {}
+        if (minVal != null && maxVal != null) {
+            return decimal.compareTo(minVal) >= 0 && decimal.compareTo(maxVal) <= 0;
         }
         return false;
     }
 
+    /**
+     * @see NumericTest#getConstantInterval(char)
+     */
+    @Override
+    public IntervalIndex.Interval<BigDecimal> getConstantInterval(char expressionPrefix) {
+        if (m_min.indexOf(expressionPrefix) >= 0 || m_max.indexOf(expressionPrefix) >= 0) {
+            return null;
+        }
+
+        final BigDecimal minVal = parseDecimal(m_min.trim());
+        final BigDecimal maxVal = parseDecimal(m_max.trim());
+        if (minVal == null || maxVal == null) {
+            return IntervalIndex.none();
+        }
+
+        return new IntervalIndex.Interval<BigDecimal>(Arrays.asList(minVal, maxVal)) {
+            @Override
+            public boolean contains(BigDecimal value) {
+                return value.compareTo(minVal) >= 0 && value.compareTo(maxVal) <= 0;
+            }
+        };
+    }
+
     public String getMin() {
         return m_min;
     }
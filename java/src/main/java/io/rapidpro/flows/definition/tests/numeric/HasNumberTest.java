@@ -4,6 +4,7 @@ import com.google.gson.JsonElement;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.utils.JsonUtils;
@@ -29,6 +30,14 @@ public class HasNumberTest extends NumericTest {
         return JsonUtils.object("type", TYPE);
     }
 
+    /**
+     * @see Test#isStatic()
+     */
+    @Override
+    public boolean isStatic() {
+        return true;
+    }
+
     /**
      * @see NumericTest#evaluateForDecimal(Runner, EvaluationContext, BigDecimal)
      */
@@ -36,4 +45,12 @@ public class HasNumberTest extends NumericTest {
     protected boolean evaluateForDecimal(Runner runner, EvaluationContext context, BigDecimal decimal) {
         return true; // this method is only called on decimals parsed from the input
     }
+
+    /**
+     * @see NumericTest#getConstantInterval(char)
+     */
+    @Override
+    public IntervalIndex.Interval<BigDecimal> getConstantInterval(char expressionPrefix) {
+        return IntervalIndex.all();
+    }
 }
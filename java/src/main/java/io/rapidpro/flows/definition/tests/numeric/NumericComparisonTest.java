@@ -1,10 +1,12 @@
 package io.rapidpro.flows.definition.tests.numeric;
 
-import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
+import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.Runner;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 
 /**
  * Base class for numeric tests which compare the input against a value
@@ -13,8 +15,19 @@ public abstract class NumericComparisonTest extends NumericTest {
 
     protected String m_test;
 
+    protected String m_testVariable;
+
     public NumericComparisonTest(String test) {
         m_test = test;
+        m_testVariable = parseVariableReference(test);
+    }
+
+    /**
+     * @see Test#isStatic()
+     */
+    @Override
+    public boolean isStatic() {
+        return isStatic(m_test);
     }
 
     /**
@@ -22,16 +35,30 @@ public abstract class NumericComparisonTest extends NumericTest {
      */
     @Override
     protected boolean evaluateForDecimal(Runner runner, EvaluationContext context, BigDecimal input) {
-        EvaluatedTemplate test = runner.substituteVariables(m_test, context);
+        BigDecimal testVal = evaluateDecimal(runner, context, m_test, m_testVariable);
+        return testVal != null && doComparison(input, testVal);
+    }
 
-        if (!test.hasErrors()) {
-            try {
-                BigDecimal testVal = new BigDecimal(test.getOutput().trim());
-                return doComparison(input, testVal);
-            }
-            catch (NumberFormatException ignored) {}
+    /**
+     * @see NumericTest#getConstantInterval(char)
+     */
+    @Override
+    public IntervalIndex.Interval<BigDecimal> getConstantInterval(char expressionPrefix) {
+        if (m_test.indexOf(expressionPrefix) >= 0) {
+            return null;
         }
-        return false;
+
+        final BigDecimal testVal = parseDecimal(m_test.trim());
+        if (testVal == null) {
+            return IntervalIndex.none();
+        }
+
+        return new IntervalIndex.Interval<BigDecimal>(Collections.singletonList(testVal)) {
+            @Override
+            public boolean contains(BigDecimal value) {
+                return doComparison(value, testVal);
+            }
+        };
     }
 
     protected abstract boolean doComparison(BigDecimal input, BigDecimal test);
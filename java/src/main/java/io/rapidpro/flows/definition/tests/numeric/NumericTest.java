@@ -1,11 +1,22 @@
 package io.rapidpro.flows.definition.tests.numeric;
 
+import io.rapidpro.expressions.EvaluatedTemplate;
 import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
+import io.rapidpro.flows.definition.tests.IntervalIndex;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
+import io.rapidpro.flows.runner.TypedValue;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,53 +25,174 @@ import java.util.regex.Pattern;
  */
 public abstract class NumericTest extends Test {
 
+    protected static final Pattern s_leadingDigits = Pattern.compile("^(\\d+).*$");
+
+    // the tests which are known to be true for a single interval of values
+    protected static final Set<Class<? extends NumericTest>> s_indexableClasses = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            HasNumberTest.class, EqualTest.class, LessThanTest.class, LessThanOrEqualTest.class, GreaterThanTest.class,
+            GreaterThanOrEqualTest.class, BetweenTest.class
+    )));
+
+    /**
+     * Builds an interval index of the numeric tests with constant values in the given rules
+     * @param rules the rules
+     * @param expressionPrefix the prefix of expressions in test values
+     * @return the index
+     */
+    public static IntervalIndex<BigDecimal> buildIndex(List<Rule> rules, char expressionPrefix) {
+        List<IntervalIndex.Interval<BigDecimal>> intervals = new ArrayList<>();
+        for (Rule rule : rules) {
+            Test test = rule.getTest();
+            intervals.add(s_indexableClasses.contains(test.getClass()) ? ((NumericTest) test).getConstantInterval(expressionPrefix) : null);
+        }
+        return IntervalIndex.build(expressionPrefix, intervals, IntervalIndex.DECIMALS);
+    }
+
     /**
      * A very flexible decimal parser
      * @param text the text to be parsed
      * @return the decimal value
+     * @throws NumberFormatException if text can't be parsed
+     */
+    public static BigDecimal extractDecimal(String text) {
+        BigDecimal decimal = scanDecimal(text);
+        if (decimal == null) {
+            throw new NumberFormatException("Can't extract a decimal from '" + text + "'");
+        }
+        return decimal;
+    }
+
+    /**
+     * A very flexible decimal parser which returns null rather than throwing an exception, for use where most text
+     * isn't expected to be numerical
+     * @param text the text to be parsed
+     * @return the decimal value or null if text can't be parsed
      */
-    protected static BigDecimal extractDecimal(String text) {
+    public static BigDecimal scanDecimal(String text) {
         // common substitutions
-        String originalText = text;
-        text = text.replace('l', '1').replace('o', '0').replace('O', '0');
+        String substituted = text.replace('l', '1').replace('o', '0').replace('O', '0');
 
-        try {
-            return new BigDecimal(text);
+        BigDecimal decimal = parseDecimal(substituted);
+
+        // we only try this hard if we haven't already substituted characters
+        if (decimal == null && substituted.equals(text)) {
+            // does this start with a number? just use that part if so
+            Matcher matcher = s_leadingDigits.matcher(text);
+            if (matcher.matches()) {
+                decimal = new BigDecimal(matcher.group(1));
+            }
+        }
+        return decimal;
+    }
+
+    /**
+     * Parses text which is in the format accepted by {@link BigDecimal#BigDecimal(String)}, checking that format first
+     * so that invalid text doesn't cause an exception
+     * @param text the text to be parsed
+     * @return the decimal value or null if text isn't a valid decimal
+     */
+    public static BigDecimal parseDecimal(String text) {
+        int length = text.length();
+        int pos = 0;
+
+        if (pos < length && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+            pos++;
+        }
+
+        int digits = 0;
+        while (pos < length && Character.isDigit(text.charAt(pos))) {
+            pos++;
+            digits++;
+        }
+        if (pos < length && text.charAt(pos) == '.') {
+            pos++;
+            while (pos < length && Character.isDigit(text.charAt(pos))) {
+                pos++;
+                digits++;
+            }
         }
-        catch (NumberFormatException ex) {
-            // we only try this hard if we haven 't already substituted characters
-            if (originalText.equals(text)) {
-                // does this start with a number? just use that part if so
-                Matcher matcher = Pattern.compile("^(\\d+).*$").matcher(text);
-                if (matcher.matches()) {
-                    return new BigDecimal(matcher.group(1));
+        if (digits == 0) {
+            return null;
+        }
+
+        int exponentDigits = 0;
+        if (pos < length && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < length && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                pos++;
+            }
+            boolean leadingZero = true;
+            int start = pos;
+            while (pos < length && Character.isDigit(text.charAt(pos))) {
+                leadingZero = leadingZero && Character.digit(text.charAt(pos), 10) == 0;
+                if (!leadingZero) {
+                    exponentDigits++;
                 }
+                pos++;
+            }
+            if (pos == start) {
+                return null;
             }
-            throw ex;
         }
+        if (pos < length) {
+            return null;
+        }
+
+        // an exponent this big may overflow the scale of a decimal, but such text is too rare to be worth checking
+        if (exponentDigits > 9) {
+            try {
+                return new BigDecimal(text);
+            }
+            catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return new BigDecimal(text);
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
-        text = text.replace(",", ""); // so that 1,234 is parsed as 1234
-
-        // test every word in the message against our test
-        for (String word : Pattern.compile("\\s+").split(text)) {
-            try {
-                BigDecimal decimal = extractDecimal(word);
-                if (evaluateForDecimal(runner, context, decimal)) {
-                    return Test.Result.match(decimal);
-                }
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
+        // test every number in the message against our test
+        for (BigDecimal decimal : input.getDecimals()) {
+            if (evaluateForDecimal(runner, context, decimal)) {
+                return Test.Result.match(decimal);
             }
-            catch (NumberFormatException ignored) {}
         }
 
         return Result.NO_MATCH;
     }
 
+    /**
+     * Evaluates a test value as a decimal, using the typed form of the flow value or contact field if the test value
+     * is only a reference to one
+     * @param runner the flow runner
+     * @param context the evaluation context
+     * @param test the test value
+     * @param variable the variable path if the test value is a reference
+     * @return the decimal or null if the test value can't be evaluated or isn't a decimal
+     */
+    protected static BigDecimal evaluateDecimal(Runner runner, EvaluationContext context, String test, String variable) {
+        TypedValue typed = resolveTypedValue(runner, context, variable);
+        if (typed != null && typed.getDecimal() != null) {
+            return typed.getDecimal();
+        }
+
+        EvaluatedTemplate evaluated = runner.substituteVariables(test, context);
+        return !evaluated.hasErrors() ? parseDecimal(evaluated.getOutput().trim()) : null;
+    }
+
+    /**
+     * Gets the interval of values for which this test is true, if that doesn't depend on the evaluation context
+     * @param expressionPrefix the prefix of expressions in test values
+     * @return the interval or null if test values contain expressions
+     */
+    public IntervalIndex.Interval<BigDecimal> getConstantInterval(char expressionPrefix) {
+        return null;
+    }
+
     /**
      * Evaluates the test against the given decimal value. Subclasses must implement this.
      * @param runner the flow runner
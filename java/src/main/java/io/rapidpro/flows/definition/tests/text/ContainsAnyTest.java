@@ -7,13 +7,13 @@ import io.rapidpro.expressions.utils.ExpressionUtils;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
 import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.utils.JsonUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -41,27 +41,17 @@ public class ContainsAnyTest extends ContainsTest {
     }
 
     /**
-     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, String, String)
+     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, InputAnalysis, String)
      */
     @Override
-    protected Test.Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, String text, String localizedTest) {
-        localizedTest = runner.substituteVariables(localizedTest, context).getOutput();
+    protected Test.Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, InputAnalysis input, String localizedTest) {
+        localizedTest = evaluateLocalized(runner, context, localizedTest);
 
         // tokenize our test
         String[] tests = ExpressionUtils.tokenize(localizedTest.toLowerCase());
 
-        // tokenize our input
-        String[] words = ExpressionUtils.tokenize(text.toLowerCase());
-        String[] rawWords = ExpressionUtils.tokenize(text);
-
-        // run through each of our tests
-        List<String> matches = new ArrayList<>();
-        for (String test : tests) {
-            String match = testInWords(test, words, rawWords);
-            if (StringUtils.isNotEmpty(match)) {
-                matches.add(match);
-            }
-        }
+        // find the input words matching each of our tests
+        List<String> matches = findMatches(tests, input);
 
         // we are a match if at least one test matches
         if (matches.size() > 0) {
@@ -7,11 +7,12 @@ import io.rapidpro.expressions.utils.ExpressionUtils;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
 import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
-import io.rapidpro.flows.utils.FlowUtils;
 import io.rapidpro.flows.utils.JsonUtils;
+import io.rapidpro.flows.utils.KeywordDictionary;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
@@ -44,43 +45,45 @@ public class ContainsTest extends TranslatableTest {
     protected String testInWords(String test, String[] words, String[] rawWords) {
         for (int w = 0; w < words.length; w++) {
             String word = words[w];
-            if (word.equals(test)) {
+            if (word.equals(test) || KeywordDictionary.isFuzzyMatch(word, test)) {
                 return rawWords[w];
             }
-
-            // words are over 4 characters and start with the same letter
-            if (word.length() > 4 && test.length() > 4 && word.charAt(0) == test.charAt(0)) {
-                // edit distance of 1 or less is a match
-                if (FlowUtils.editDistance(word, test) <= 1) {
-                    return rawWords[w];
-                }
-            }
         }
         return null;
     }
 
     /**
-     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, String, String)
+     * Finds the input words matching each of the given test words
+     * @param tests the lowercase test words
+     * @param input the input
+     * @return the matching input words in test word order
      */
-    @Override
-    protected Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, String text, String localizedTest) {
-        localizedTest = runner.substituteVariables(localizedTest, context).getOutput();
-
-        // tokenize our test
-        String[] tests = ExpressionUtils.tokenize(localizedTest.toLowerCase());
-
-        // tokenize our input
-        String[] words = ExpressionUtils.tokenize(text.toLowerCase());
-        String[] rawWords = ExpressionUtils.tokenize(text);
-
-        // run through each of our tests
+    protected List<String> findMatches(String[] tests, InputAnalysis input) {
+        String[] words = input.getLowerTokens();
+        String[] rawWords = input.getTokens();
         List<String> matches = new ArrayList<>();
+
         for (String test : tests) {
             String match = testInWords(test, words, rawWords);
             if (StringUtils.isNotEmpty(match)) {
                 matches.add(match);
             }
         }
+        return matches;
+    }
+
+    /**
+     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, InputAnalysis, String)
+     */
+    @Override
+    protected Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, InputAnalysis input, String localizedTest) {
+        localizedTest = evaluateLocalized(runner, context, localizedTest);
+
+        // tokenize our test
+        String[] tests = ExpressionUtils.tokenize(localizedTest.toLowerCase());
+
+        // find the input words matching each of our tests
+        List<String> matches = findMatches(tests, input);
 
         // we are a match only if every test matches
         if (matches.size() == tests.length) {
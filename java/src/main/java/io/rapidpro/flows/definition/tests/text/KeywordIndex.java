@@ -0,0 +1,194 @@
+package io.rapidpro.flows.definition.tests.text;
+
+import io.rapidpro.expressions.utils.ExpressionUtils;
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
+import io.rapidpro.flows.definition.tests.Test;
+import io.rapidpro.flows.utils.KeywordDictionary;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of the keywords of the contains, contains any and starts with tests in a list of rules, for a given set of
+ * preferred languages. Rather than each test tokenizing and scanning the input, a single pass over the words of the
+ * input with a {@link KeywordDictionary} finds the first word matching each keyword, and each indexed test is then
+ * evaluated from those results. Only tests whose localized text is
+ * static, i.e. has no expressions, can be indexed. Instances are immutable and so can be shared between threads.
+ */
+public class KeywordIndex {
+
+    // the minimum number of indexable rules for an index to be worth building
+    protected static final int MIN_INDEXED_RULES = 2;
+
+    protected static final KeywordIndex EMPTY = new KeywordIndex(new Entry[0], new KeywordDictionary(Collections.<String>emptyList()));
+
+    /**
+     * An indexed test
+     */
+    protected static class Entry {
+
+        protected final Test m_test;
+
+        // ids of the keywords of a contains or contains any test, in test order
+        protected final int[] m_keywordIds;
+
+        // the localized text of a starts with test
+        protected final String m_prefix;
+
+        protected Entry(Test test, int[] keywordIds, String prefix) {
+            m_test = test;
+            m_keywordIds = keywordIds;
+            m_prefix = prefix;
+        }
+    }
+
+    protected final Entry[] m_entries;
+
+    protected final KeywordDictionary m_dictionary;
+
+    protected KeywordIndex(Entry[] entries, KeywordDictionary dictionary) {
+        m_entries = entries;
+        m_dictionary = dictionary;
+    }
+
+    /**
+     * Builds an index of the given rules
+     * @param rules the rules
+     * @param preferredLanguages the languages used to localize the tests
+     * @param expressionPrefix the prefix of expressions in test text
+     * @return the index, which will be empty if there aren't enough indexable rules
+     */
+    public static KeywordIndex build(List<Rule> rules, List<String> preferredLanguages, char expressionPrefix) {
+        Entry[] entries = new Entry[rules.size()];
+        String[][] tokensByRule = new String[rules.size()][];
+        List<String> keywords = new ArrayList<>();
+        int numIndexed = 0;
+
+        for (int r = 0; r < rules.size(); r++) {
+            Test test = rules.get(r).getTest();
+            Class<?> testClass = test.getClass();
+            if (testClass != ContainsTest.class && testClass != ContainsAnyTest.class && testClass != StartsWithTest.class) {
+                continue;
+            }
+
+            String localized = ((TranslatableTest) test).m_test.getLocalized(preferredLanguages, "");
+            if (localized.indexOf(expressionPrefix) >= 0) {
+                continue;  // may contain an expression so can only be known at evaluation time
+            }
+
+            if (test instanceof StartsWithTest) {
+                entries[r] = new Entry(test, null, localized);
+            } else {
+                tokensByRule[r] = ExpressionUtils.tokenize(localized.toLowerCase());
+                keywords.addAll(Arrays.asList(tokensByRule[r]));
+            }
+            numIndexed++;
+        }
+
+        if (numIndexed < MIN_INDEXED_RULES) {
+            return EMPTY;
+        }
+
+        KeywordDictionary dictionary = new KeywordDictionary(keywords);
+
+        for (int r = 0; r < rules.size(); r++) {
+            String[] tokens = tokensByRule[r];
+            if (tokens != null) {
+                int[] ids = new int[tokens.length];
+                for (int t = 0; t < tokens.length; t++) {
+                    ids[t] = dictionary.getId(tokens[t]);
+                }
+                entries[r] = new Entry(rules.get(r).getTest(), ids, null);
+            }
+        }
+
+        return new KeywordIndex(entries, dictionary);
+    }
+
+    /**
+     * Gets whether this index contains no rules
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return m_entries.length == 0;
+    }
+
+    /**
+     * Starts matching an input against this index
+     * @param input the input
+     * @return the matcher
+     */
+    public Matcher matcher(InputAnalysis input) {
+        return new Matcher(input);
+    }
+
+    /**
+     * Evaluates the indexed tests of a single input. Not thread-safe.
+     */
+    public class Matcher {
+
+        protected final InputAnalysis m_input;
+
+        // index of the first input word matching each keyword, or -1 if none do
+        protected int[] m_firstWords;
+
+        protected String m_trimmedText;
+
+        protected Matcher(InputAnalysis input) {
+            m_input = input;
+        }
+
+        /**
+         * Evaluates the test of the rule at the given position, if it was indexed
+         * @param ruleIndex the position of the rule in the rule set
+         * @param test the rule's test
+         * @return the test result or null if rule wasn't indexed
+         */
+        public Test.Result evaluate(int ruleIndex, Test test) {
+            Entry entry = ruleIndex < m_entries.length ? m_entries[ruleIndex] : null;
+            if (entry == null || entry.m_test != test) {
+                return null;
+            }
+
+            if (entry.m_prefix != null) {
+                return evaluateStartsWith(entry.m_prefix);
+            }
+
+            if (m_firstWords == null) {
+                m_firstWords = m_dictionary.findFirstWords(m_input.getLowerTokens());
+            }
+
+            String[] rawWords = m_input.getTokens();
+            List<String> matches = new ArrayList<>();
+            for (int id : entry.m_keywordIds) {
+                int w = m_firstWords[id];
+                if (w >= 0 && StringUtils.isNotEmpty(rawWords[w])) {
+                    matches.add(rawWords[w]);
+                }
+            }
+
+            boolean matched = entry.m_test instanceof ContainsAnyTest ? matches.size() > 0 : matches.size() == entry.m_keywordIds.length;
+
+            return matched ? Test.Result.match(StringUtils.join(matches, " ")) : Test.Result.NO_MATCH;
+        }
+
+        /**
+         * Evaluates a starts with test in the same way as {@link StartsWithTest}
+         */
+        protected Test.Result evaluateStartsWith(String prefix) {
+            if (m_trimmedText == null) {
+                m_trimmedText = m_input.getText().trim();
+            }
+
+            if (m_trimmedText.toLowerCase().startsWith(prefix.toLowerCase())) {
+                return Test.Result.match(m_trimmedText.substring(0, prefix.length()));
+            } else {
+                return Test.Result.NO_MATCH;
+            }
+        }
+    }
+}
@@ -6,12 +6,14 @@ import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
 import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
 import io.rapidpro.flows.utils.JsonUtils;
 
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -25,8 +27,38 @@ public class RegexTest extends TranslatableTest {
 
     public static final String TYPE = "regex";
 
+    protected static final int PATTERN_FLAGS = getPatternUnicodeFlag() | Pattern.CASE_INSENSITIVE | Pattern.MULTILINE;
+
+    protected static final Pattern s_pythonNamedGroup = Pattern.compile("\\(\\?P<(\\w+)>");
+
+    /**
+     * A regular expression compiled from its Python-style form
+     */
+    protected static class CompiledRegex {
+
+        // null if regex isn't valid
+        protected final Pattern m_pattern;
+
+        // original group names by their replacements
+        protected final Map<String, String> m_groupNames;
+
+        protected CompiledRegex(Pattern pattern, Map<String, String> groupNames) {
+            m_pattern = pattern;
+            m_groupNames = groupNames;
+        }
+    }
+
+    // compiled regexes for the untranslated text or each translation
+    protected final Map<String, CompiledRegex> m_compiled;
+
     protected RegexTest(TranslatableText test) {
         super(test);
+
+        Map<String, CompiledRegex> compiled = new HashMap<>();
+        for (String text : test.getTexts()) {
+            compiled.put(text, compile(text));
+        }
+        m_compiled = Collections.unmodifiableMap(compiled);
     }
 
     /**
@@ -43,18 +75,23 @@ public class RegexTest extends TranslatableTest {
     }
 
     /**
-     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, String, String)
+     * @see Test#isStatic()
      */
     @Override
-    protected Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, String text, String localizedTest) {
-        try {
-            Map<String, String> groupNames = new HashMap<>();
-            String javaRegex = pythonToJavaRegex(localizedTest, groupNames);
+    public boolean isStatic() {
+        return true;
+    }
 
+    /**
+     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, InputAnalysis, String)
+     */
+    @Override
+    protected Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, InputAnalysis input, String localizedTest) {
+        CompiledRegex compiled = getCompiled(localizedTest);
+
+        if (compiled.m_pattern != null) {
             // check whether we match
-            int flags = getPatternUnicodeFlag() | Pattern.CASE_INSENSITIVE | Pattern.MULTILINE;
-            Pattern regex = Pattern.compile(javaRegex, flags);
-            Matcher matcher = regex.matcher(text);
+            Matcher matcher = compiled.m_pattern.matcher(input.getText());
 
             if (matcher.find()) {
                 String returnMatch = matcher.group(0);
@@ -62,7 +99,7 @@ public class RegexTest extends TranslatableTest {
                 Map<String, String> groupValues = new HashMap<>();
 
                 // add group values by name
-                for (Map.Entry<String, String> entry : groupNames.entrySet()) {
+                for (Map.Entry<String, String> entry : compiled.m_groupNames.entrySet()) {
                     String replacedName = entry.getKey();
                     String originalName = entry.getValue();
 
@@ -81,11 +118,37 @@ public class RegexTest extends TranslatableTest {
 
                 return Result.match(returnMatch);
             }
-        } catch (PatternSyntaxException ignored) {}
+        }
 
         return Result.NO_MATCH;
     }
 
+    /**
+     * Gets the compiled form of the given regex, which will have been compiled when this test was created unless it's
+     * the default used when there's no localized text
+     * @param regex the Python-style regex
+     * @return the compiled regex
+     */
+    protected CompiledRegex getCompiled(String regex) {
+        CompiledRegex compiled = m_compiled.get(regex);
+        return compiled != null ? compiled : compile(regex);
+    }
+
+    /**
+     * Compiles a Python-style regex
+     * @param regex the regex
+     * @return the compiled regex, with a null pattern if regex isn't valid
+     */
+    protected static CompiledRegex compile(String regex) {
+        Map<String, String> groupNames = new HashMap<>();
+        String javaRegex = pythonToJavaRegex(regex, groupNames);
+        try {
+            return new CompiledRegex(Pattern.compile(javaRegex, PATTERN_FLAGS), Collections.unmodifiableMap(groupNames));
+        } catch (PatternSyntaxException ex) {
+            return new CompiledRegex(null, Collections.unmodifiableMap(groupNames));
+        }
+    }
+
     /**
      * Converts a Python-style regular expression to a Java-style one. Replaces all group names with name1, name2 ..
      * as Java is stricter about which characters can occur in a group name.
@@ -96,7 +159,7 @@ public class RegexTest extends TranslatableTest {
     protected static String pythonToJavaRegex(String pythonStyle, Map<String, String> groupNames) {
         StringBuffer javaStyle = new StringBuffer();
 
-        Matcher namedGroups = Pattern.compile("\\(\\?P<(\\w+)>").matcher(pythonStyle);
+        Matcher namedGroups = s_pythonNamedGroup.matcher(pythonStyle);
         int groupNum = 1;
         while (namedGroups.find()) {
             String name = namedGroups.group(1);
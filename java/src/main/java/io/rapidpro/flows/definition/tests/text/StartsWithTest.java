@@ -6,6 +6,7 @@ import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.FlowParseException;
 import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
@@ -36,14 +37,14 @@ public class StartsWithTest extends TranslatableTest {
     }
 
     /**
-     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, String, String)
+     * @see TranslatableTest#evaluateForLocalized(Runner, RunState, EvaluationContext, InputAnalysis, String)
      */
     @Override
-    protected Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, String text, String localizedTest) {
-        localizedTest = runner.substituteVariables(localizedTest, context).getOutput();
+    protected Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, InputAnalysis input, String localizedTest) {
+        localizedTest = evaluateLocalized(runner, context, localizedTest);
 
         // strip leading and trailing whitespace
-        text = text.trim();
+        String text = input.getText().trim();
 
         // see whether we start with our test
         if (text.toLowerCase().startsWith(localizedTest.toLowerCase())) {
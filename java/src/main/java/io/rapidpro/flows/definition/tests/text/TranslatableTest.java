@@ -1,7 +1,9 @@
 package io.rapidpro.flows.definition.tests.text;
 
 import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.definition.Template;
 import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
 import io.rapidpro.flows.definition.tests.Test;
 import io.rapidpro.flows.runner.RunState;
 import io.rapidpro.flows.runner.Runner;
@@ -14,17 +16,25 @@ public abstract class TranslatableTest extends Test {
     protected TranslatableText m_test;
 
     protected TranslatableTest(TranslatableText test) {
-        m_test = test;
+        m_test = test.compileTemplates();
     }
 
     /**
-     * @see Test#evaluate(Runner, RunState, EvaluationContext, String)
+     * @see Test#isStatic()
      */
     @Override
-    public Result evaluate(Runner runner, RunState run, EvaluationContext context, String text) {
+    public boolean isStatic() {
+        return m_test.isStatic();
+    }
+
+    /**
+     * @see Test#evaluate(Runner, RunState, EvaluationContext, InputAnalysis)
+     */
+    @Override
+    public Result evaluate(Runner runner, RunState run, EvaluationContext context, InputAnalysis input) {
         String localizedTest = m_test.getLocalized(run);
 
-        return evaluateForLocalized(runner, run, context, text, localizedTest);
+        return evaluateForLocalized(runner, run, context, input, localizedTest);
     }
 
     /**
@@ -32,11 +42,26 @@ public abstract class TranslatableTest extends Test {
      * @param runner the flow runner
      * @param run the current run state
      * @param context the evaluation context
-     * @param text the input
+     * @param input the input
      * @param localizedTest the localized test value
      * @return the test result
      */
-    protected abstract Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, String text, String localizedTest);
+    protected abstract Result evaluateForLocalized(Runner runner, RunState run, EvaluationContext context, InputAnalysis input, String localizedTest);
+
+    /**
+     * Evaluates the localized test value, which is returned as is if it's static text
+     * @param runner the flow runner
+     * @param context the evaluation context
+     * @param localizedTest the localized test value
+     * @return the evaluated test value
+     */
+    protected String evaluateLocalized(Runner runner, EvaluationContext context, String localizedTest) {
+        Template template = m_test.getTemplate(localizedTest);
+        if (runner.isStatic(template)) {
+            return localizedTest;
+        }
+        return runner.substituteVariables(template, context).getOutput();
+    }
 
     public TranslatableText getTest() {
         return m_test;
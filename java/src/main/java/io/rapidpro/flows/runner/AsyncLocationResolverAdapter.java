@@ -0,0 +1,53 @@
+package io.rapidpro.flows.runner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Adapts a synchronous location resolver to the asynchronous interface, so that existing resolvers can be used where
+ * batches of names are resolved. Each batch is resolved one name at a time as a single task on the given executor.
+ */
+public class AsyncLocationResolverAdapter implements Location.AsyncResolver {
+
+    protected final Location.Resolver m_resolver;
+
+    protected final Executor m_executor;
+
+    /**
+     * Creates a new adapter
+     * @param resolver the synchronous resolver
+     * @param executor the executor to resolve batches on, or null to resolve them on the calling thread
+     */
+    public AsyncLocationResolverAdapter(Location.Resolver resolver, Executor executor) {
+        m_resolver = resolver;
+        m_executor = executor;
+    }
+
+    /**
+     * @see Location.AsyncResolver#resolveAll(List)
+     */
+    @Override
+    public Future<List<Location>> resolveAll(final List<Location.Query> queries) {
+        FutureTask<List<Location>> task = new FutureTask<>(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() throws Exception {
+                List<Location> locations = new ArrayList<>(queries.size());
+                for (Location.Query query : queries) {
+                    locations.add(m_resolver.resolve(query.getText(), query.getCountry(), query.getLevel(), query.getParent()));
+                }
+                return locations;
+            }
+        });
+
+        if (m_executor != null) {
+            m_executor.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+}
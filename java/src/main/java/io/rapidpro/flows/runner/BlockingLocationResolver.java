@@ -0,0 +1,55 @@
+package io.rapidpro.flows.runner;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Adapts an asynchronous location resolver to the synchronous interface used by the runner, waiting for each name to
+ * be resolved. Bulk operations should instead resolve their names in batches ahead of time, e.g. into a
+ * {@link CachingLocationResolver} using {@link CachingLocationResolver#preload(Location.AsyncResolver, List)}. Lookups
+ * which time out or are interrupted are cancelled so that a slow backend isn't left working on them.
+ */
+public class BlockingLocationResolver implements Location.Resolver {
+
+    protected final Location.AsyncResolver m_resolver;
+
+    protected final long m_timeoutMillis;
+
+    /**
+     * Creates a new blocking resolver
+     * @param resolver the asynchronous resolver
+     * @param timeoutMillis the maximum time to wait for each name to be resolved
+     */
+    public BlockingLocationResolver(Location.AsyncResolver resolver, long timeoutMillis) {
+        m_resolver = resolver;
+        m_timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @see Location.Resolver#resolve(String, String, Location.Level, Location)
+     */
+    @Override
+    public Location resolve(String text, String country, Location.Level level, Location parent) {
+        List<Location.Query> queries = Collections.singletonList(new Location.Query(text, country, level, parent));
+        Future<List<Location>> future = m_resolver.resolveAll(queries);
+        try {
+            return future.get(m_timeoutMillis, TimeUnit.MILLISECONDS).get(0);
+        }
+        catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst resolving location", ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IllegalStateException("Unable to resolve location", ex.getCause());
+        }
+        catch (TimeoutException ex) {
+            future.cancel(true);
+            throw new IllegalStateException("Timed out resolving location", ex);
+        }
+    }
+}
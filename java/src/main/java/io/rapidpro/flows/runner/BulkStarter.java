@@ -0,0 +1,139 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.definition.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Starts a flow for many contacts in parallel, e.g. for a broadcast. Contacts are pulled from an iterator only as fast
+ * as runs complete, so no more than a fixed number of runs are ever pending and memory use stays bounded regardless
+ * of how many contacts there are.
+ */
+public class BulkStarter {
+
+    protected static Logger logger = LoggerFactory.getLogger(BulkStarter.class);
+
+    /**
+     * Receives the results of a bulk start. Methods are called from the executor's threads so must be thread-safe.
+     */
+    public interface Callback {
+
+        /**
+         * Called for each run which was started
+         * @param run the run state
+         */
+        void onStarted(RunState run);
+
+        /**
+         * Called for each contact whose run couldn't be started
+         * @param contact the contact
+         * @param ex the exception
+         */
+        void onError(Contact contact, Exception ex);
+    }
+
+    protected Runner m_runner;
+
+    protected Executor m_executor;
+
+    protected int m_maxPending;
+
+    /**
+     * Creates a new bulk starter
+     * @param runner the runner which will start each run
+     * @param executor the executor to run starts on
+     * @param maxPending the maximum number of runs which can be started but not yet passed to the callback
+     */
+    public BulkStarter(Runner runner, Executor executor, int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Max pending must be at least 1");
+        }
+
+        m_runner = runner;
+        m_executor = executor;
+        m_maxPending = maxPending;
+    }
+
+    /**
+     * Starts the given flow for each of the given contacts, blocking until all runs have been passed to the callback.
+     * The org, flow and fields are shared by all runs, with the fields indexed once in a {@link FieldRegistry} and each
+     * run only keeping track of the new fields it creates.
+     * @param org the org
+     * @param fields the contact fields
+     * @param flow the flow
+     * @param contacts the contacts
+     * @param callback the callback to receive runs
+     * @return the number of contacts for which a start was attempted
+     */
+    public int start(final Org org, final List<Field> fields, final Flow flow, Iterator<Contact> contacts, final Callback callback) throws InterruptedException {
+        final FieldRegistry registry = new FieldRegistry(fields);
+        final Semaphore pending = new Semaphore(m_maxPending);
+        int count = 0;
+
+        try {
+            while (contacts.hasNext()) {
+                final Contact contact = contacts.next();
+
+                // block until there's room for another pending run
+                pending.acquire();
+
+                try {
+                    m_executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                startOne(org, registry, flow, contact, callback);
+                            } finally {
+                                pending.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    pending.release();
+                    throw ex;
+                }
+
+                count++;
+            }
+        } finally {
+            // wait for all pending runs to complete
+            pending.acquireUninterruptibly(m_maxPending);
+            pending.release(m_maxPending);
+        }
+
+        return count;
+    }
+
+    /**
+     * Starts a run for a single contact and passes the result to the callback
+     */
+    protected void startOne(Org org, FieldRegistry fields, Flow flow, Contact contact, Callback callback) {
+        RunState run;
+        try {
+            run = m_runner.start(org, fields, contact, flow);
+        } catch (FlowRunException | RuntimeException ex) {
+            notifyError(callback, contact, ex);
+            return;
+        }
+
+        try {
+            callback.onStarted(run);
+        } catch (RuntimeException ex) {
+            logger.error("Callback failed for run of contact " + contact.getUuid(), ex);
+        }
+    }
+
+    protected void notifyError(Callback callback, Contact contact, Exception ex) {
+        try {
+            callback.onError(contact, ex);
+        } catch (RuntimeException cbEx) {
+            logger.error("Callback failed for error of contact " + contact.getUuid(), cbEx);
+        }
+    }
+}
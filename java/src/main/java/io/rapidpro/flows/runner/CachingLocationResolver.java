@@ -0,0 +1,146 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.utils.LruCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Location resolver which caches the results of another resolver, e.g. one backed by a database. Results are cached by
+ * country, level, parent location and normalized name, so the repeated lookups of the same state and district when
+ * saving wards, or when evaluating location tests, only reach the underlying resolver once. Names are normalized by
+ * trimming, collapsing whitespace and lowercasing, so the underlying resolver should itself be insensitive to those.
+ * Parents are identified by their OSM id. Thread-safe if the underlying resolver is thread-safe.
+ */
+public class CachingLocationResolver implements Location.Resolver {
+
+    protected static final Pattern s_whitespace = Pattern.compile("\\s+");
+
+    // cached in place of null when negative caching is enabled
+    protected static final Location NOT_FOUND = new Location(null, null, null);
+
+    protected final Location.Resolver m_resolver;
+
+    protected final LruCache<List<Object>, Location> m_cache;
+
+    protected final boolean m_cacheNotFound;
+
+    protected final AtomicLong m_resolves = new AtomicLong();
+
+    protected final AtomicLong m_notFoundHits = new AtomicLong();
+
+    /**
+     * Creates a new caching resolver
+     * @param resolver the underlying resolver
+     * @param maxSize the maximum number of cached results
+     * @param cacheNotFound whether to also cache names which couldn't be resolved
+     */
+    public CachingLocationResolver(Location.Resolver resolver, int maxSize, boolean cacheNotFound) {
+        m_resolver = resolver;
+        m_cache = new LruCache<>(maxSize);
+        m_cacheNotFound = cacheNotFound;
+    }
+
+    /**
+     * @see Location.Resolver#resolve(String, String, Location.Level, Location)
+     */
+    @Override
+    public Location resolve(String text, String country, Location.Level level, Location parent) {
+        List<Object> key = cacheKey(text, country, level, parent);
+
+        Location location = m_cache.get(key);
+        if (location == NOT_FOUND) {
+            m_notFoundHits.incrementAndGet();
+            return null;
+        } else if (location != null) {
+            return location;
+        }
+
+        m_resolves.incrementAndGet();
+        location = m_resolver.resolve(text, country, level, parent);
+
+        if (location != null) {
+            m_cache.put(key, location);
+        } else if (m_cacheNotFound) {
+            m_cache.put(key, NOT_FOUND);
+        }
+        return location;
+    }
+
+    /**
+     * Resolves a batch of names ahead of time using an asynchronous resolver, e.g. the district names in a contact
+     * import, so that later lookups of those names are served from the cache. Blocks until the batch is resolved.
+     * @param resolver the asynchronous resolver
+     * @param queries the queries
+     * @return the locations in the same order as the queries, with null for any which don't exist
+     */
+    public List<Location> preload(Location.AsyncResolver resolver, List<Location.Query> queries) throws InterruptedException, ExecutionException {
+        List<Location> locations = resolver.resolveAll(queries).get();
+
+        for (int q = 0; q < queries.size(); q++) {
+            Location.Query query = queries.get(q);
+            Location location = locations.get(q);
+            List<Object> key = cacheKey(query.getText(), query.getCountry(), query.getLevel(), query.getParent());
+
+            if (location != null) {
+                m_cache.put(key, location);
+            } else if (m_cacheNotFound) {
+                m_cache.put(key, NOT_FOUND);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Removes all cached results, e.g. after locations have been renamed
+     */
+    public void clear() {
+        m_cache.clear();
+    }
+
+    protected static List<Object> cacheKey(String text, String country, Location.Level level, Location parent) {
+        return Arrays.<Object>asList(country, level, parent != null ? parent.getOsmId() : null, normalize(text));
+    }
+
+    /**
+     * Normalizes a location name for use as a cache key
+     * @param text the name
+     * @return the normalized name
+     */
+    protected static String normalize(String text) {
+        return s_whitespace.matcher(text.trim()).replaceAll(" ").toLowerCase();
+    }
+
+    public int size() {
+        return m_cache.size();
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache, including those for names cached as not found
+     */
+    public long getHits() {
+        return m_cache.getHits();
+    }
+
+    public long getMisses() {
+        return m_cache.getMisses();
+    }
+
+    public long getNotFoundHits() {
+        return m_notFoundHits.get();
+    }
+
+    /**
+     * Gets the number of lookups which were passed to the underlying resolver
+     */
+    public long getResolves() {
+        return m_resolves.get();
+    }
+
+    public double getHitRate() {
+        return m_cache.getHitRate();
+    }
+}
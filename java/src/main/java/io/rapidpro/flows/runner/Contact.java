@@ -3,11 +3,10 @@ package io.rapidpro.flows.runner;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import io.rapidpro.expressions.EvaluationContext;
-import io.rapidpro.expressions.evaluator.Conversions;
 import io.rapidpro.flows.utils.JsonUtils;
 import io.rapidpro.flows.utils.Jsonizable;
+import io.rapidpro.flows.utils.LazyMap;
 import org.apache.commons.lang3.StringUtils;
-import org.threeten.bp.ZonedDateTime;
 
 import java.util.*;
 
@@ -16,6 +15,15 @@ import java.util.*;
  */
 public class Contact implements Jsonizable {
 
+    protected static final List<String> s_contextFixedKeys = Arrays.asList("*", "name", "first_name", "tel_e164", "groups", "uuid", "language");
+
+    protected static final Map<String, ContactUrn.Scheme> s_contextSchemesByKey = new LinkedHashMap<>();
+    static {
+        for (ContactUrn.Scheme scheme : ContactUrn.Scheme.values()) {
+            s_contextSchemesByKey.put(scheme.name().toLowerCase(), scheme);
+        }
+    }
+
     protected String m_uuid;
 
     protected String m_name;
@@ -28,6 +36,9 @@ public class Contact implements Jsonizable {
 
     protected String m_language;
 
+    // typed forms of field values, checked against the current value when used as fields can be written directly
+    protected Map<String, TypedValue> m_typedFields = new HashMap<>();
+
     public Contact() {
         m_urns = new ArrayList<>();
         m_groups = new HashSet<>();
@@ -173,42 +184,84 @@ public class Contact implements Jsonizable {
     }
 
     /**
-     * Builds the evaluation context for this contact
+     * Builds the evaluation context for this contact. Values are only computed when they're read, with fields taking
+     * precedence over URN schemes, which take precedence over the fixed attributes.
      * @param run the current run state
      * @param container the containing evaluation context
      * @return the context
      */
-    public Map<String, String> buildContext(RunState run, EvaluationContext container) {
-        Map<String, String> context = new HashMap<>();
-        context.put("*", getDisplay(run.getOrg(), false));
-        context.put("name", m_name);
-        context.put("first_name", getFirstName(run.getOrg()));
-        context.put("tel_e164", getUrnDisplay(run.getOrg(), ContactUrn.Scheme.TEL, true));
-        context.put("groups", StringUtils.join(m_groups, ","));
-        context.put("uuid", m_uuid);
-        context.put("language", m_language);
-
-        // add all URNs
-        for (ContactUrn.Scheme scheme : ContactUrn.Scheme.values()) {
-            context.put(scheme.name().toLowerCase(), getUrnDisplay(run.getOrg(), scheme, false));
+    public Map<String, String> buildContext(final RunState run, final EvaluationContext container) {
+        final Map<String, Field> fields = new HashMap<>();
+        for (String key : m_fields.keySet()) {
+            fields.put(key, run.getOrCreateField(key));
         }
 
-        // add all fields
-        for (Map.Entry<String, String> entry : m_fields.entrySet()) {
-            String rawValue = entry.getValue();
-            Field field = run.getOrCreateField(entry.getKey());
-            String value;
-
-            if (field != null && field.getValueType().equals(Field.ValueType.DATETIME)) {
-                ZonedDateTime asDatetime = Conversions.toDateTime(rawValue, container);
-                value = Conversions.toString(asDatetime, container);
-            } else {
-                value = entry.getValue();
+        Set<String> keys = new LinkedHashSet<>(s_contextFixedKeys);
+        keys.addAll(s_contextSchemesByKey.keySet());
+        keys.addAll(m_fields.keySet());
+
+        return new LazyMap<String>(keys) {
+            @Override
+            protected String compute(String key) {
+                if (m_fields.containsKey(key)) {
+                    Field field = fields.get(key);
+                    TypedValue typed = getTypedField(key, field != null ? field.getValueType() : null);
+                    return typed != null ? typed.getContextValue(container) : null;
+                }
+
+                ContactUrn.Scheme scheme = s_contextSchemesByKey.get(key);
+                if (scheme != null) {
+                    return getUrnDisplay(run.getOrg(), scheme, false);
+                }
+
+                switch (key) {
+                    case "*":
+                        return getDisplay(run.getOrg(), false);
+                    case "name":
+                        return m_name;
+                    case "first_name":
+                        return getFirstName(run.getOrg());
+                    case "tel_e164":
+                        return getUrnDisplay(run.getOrg(), ContactUrn.Scheme.TEL, true);
+                    case "groups":
+                        return StringUtils.join(m_groups, ",");
+                    case "uuid":
+                        return m_uuid;
+                    default:
+                        return m_language;
+                }
             }
+        };
+    }
 
-            context.put(entry.getKey(), value);
+    /**
+     * Creates a field in the given run for each of this contact's values which doesn't have one, as building the
+     * context does
+     * @param run the current run state
+     */
+    public void createFields(RunState run) {
+        for (String key : m_fields.keySet()) {
+            run.getOrCreateField(key);
         }
+    }
 
-        return context;
+    /**
+     * Gets the typed form of a field value, which is only parsed again if the value has been changed
+     * @param key the field key
+     * @param valueType the field value type
+     * @return the typed value or null if this contact has no value for the field
+     */
+    public TypedValue getTypedField(String key, Field.ValueType valueType) {
+        String raw = m_fields.get(key);
+        if (raw == null) {
+            return null;
+        }
+
+        TypedValue typed = m_typedFields.get(key);
+        if (typed == null || !typed.isFor(raw, valueType)) {
+            typed = new TypedValue(raw, valueType);
+            m_typedFields.put(key, typed);
+        }
+        return typed;
     }
 }
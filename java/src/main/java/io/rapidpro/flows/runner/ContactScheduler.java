@@ -0,0 +1,297 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.definition.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Processes starts and inputs for many contacts in parallel whilst guaranteeing that work for any one contact is done
+ * in the order it was submitted and never concurrently. Each contact with pending work has a mailbox which is drained
+ * by a single task on the executor, so no locking of run states is needed and different contacts can use all
+ * available threads. Any executor can be used, e.g. a fixed thread pool, or a virtual thread per task executor on
+ * JVMs which support them. If the executor rejects a contact's mailbox, e.g. because it's been shut down, then the
+ * callback receives an error for each of that contact's pending starts and inputs.
+ */
+public class ContactScheduler {
+
+    protected static Logger logger = LoggerFactory.getLogger(ContactScheduler.class);
+
+    // maximum number of items processed for a contact before its mailbox yields to other contacts
+    protected static final int MAX_BATCH = 16;
+
+    /**
+     * Loads and saves the current run of each contact. Calls for the same contact are never made concurrently but
+     * calls for different contacts can be, so implementations must be thread-safe.
+     */
+    public interface RunStore {
+
+        /**
+         * Loads the current run of a contact
+         * @param contactUuid the contact UUID
+         * @return the run state or null if contact has no run
+         */
+        RunState load(String contactUuid) throws FlowRunException;
+
+        /**
+         * Saves the current run of a contact
+         * @param contactUuid the contact UUID
+         * @param run the run state
+         */
+        void save(String contactUuid, RunState run) throws FlowRunException;
+    }
+
+    /**
+     * Receives the results of processing. Methods are called from the executor's threads so must be thread-safe.
+     */
+    public interface Callback {
+
+        /**
+         * Called after a run has been started or resumed and saved
+         * @param contactUuid the contact UUID
+         * @param input the input or null if run was started
+         * @param run the run state
+         */
+        void onProcessed(String contactUuid, Input input, RunState run);
+
+        /**
+         * Called when a run couldn't be started or resumed
+         * @param contactUuid the contact UUID
+         * @param input the input or null if run was being started
+         * @param ex the exception
+         */
+        void onError(String contactUuid, Input input, Exception ex);
+    }
+
+    protected final Runner m_runner;
+
+    protected final RunStore m_store;
+
+    protected final Executor m_executor;
+
+    protected final Callback m_callback;
+
+    protected final ConcurrentMap<String, Mailbox> m_mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new scheduler
+     * @param runner the runner which will start and resume runs
+     * @param store the store for run states
+     * @param executor the executor to process contacts on
+     * @param callback the callback to receive results
+     */
+    public ContactScheduler(Runner runner, RunStore store, Executor executor, Callback callback) {
+        m_runner = runner;
+        m_store = store;
+        m_executor = executor;
+        m_callback = callback;
+    }
+
+    /**
+     * Schedules starting a flow for a contact, replacing any existing run of that contact
+     * @param org the org
+     * @param fields the contact fields
+     * @param contact the contact
+     * @param flow the flow
+     */
+    public void start(final Org org, final List<Field> fields, final Contact contact, final Flow flow) {
+        final String contactUuid = contact.getUuid();
+
+        submit(contactUuid, new Task(null) {
+            @Override
+            public void run() {
+                RunState run;
+                try {
+                    run = m_runner.start(org, fields, contact, flow);
+                    m_store.save(contactUuid, run);
+                } catch (FlowRunException | RuntimeException ex) {
+                    notifyError(contactUuid, null, ex);
+                    return;
+                }
+                notifyProcessed(contactUuid, null, run);
+            }
+        });
+    }
+
+    /**
+     * Schedules resuming the current run of a contact with new input
+     * @param contactUuid the contact UUID
+     * @param input the input
+     */
+    public void resume(final String contactUuid, final Input input) {
+        submit(contactUuid, new Task(input) {
+            @Override
+            public void run() {
+                RunState run;
+                try {
+                    run = m_store.load(contactUuid);
+                    if (run == null) {
+                        throw new FlowRunException("No run for contact " + contactUuid);
+                    }
+
+                    m_runner.resume(run, input);
+                    m_store.save(contactUuid, run);
+                } catch (FlowRunException | RuntimeException ex) {
+                    notifyError(contactUuid, input, ex);
+                    return;
+                }
+                notifyProcessed(contactUuid, input, run);
+            }
+        });
+    }
+
+    /**
+     * Gets the number of contacts which currently have pending work
+     * @return the number of contacts
+     */
+    public int getActiveContactCount() {
+        return m_mailboxes.size();
+    }
+
+    /**
+     * Adds a task to the mailbox of the given contact, scheduling the mailbox if it's not already scheduled
+     */
+    protected void submit(String contactUuid, Task task) {
+        while (true) {
+            Mailbox mailbox = m_mailboxes.get(contactUuid);
+            if (mailbox == null) {
+                Mailbox created = new Mailbox(contactUuid);
+                mailbox = m_mailboxes.putIfAbsent(contactUuid, created);
+                if (mailbox == null) {
+                    mailbox = created;
+                }
+            }
+
+            boolean schedule;
+            synchronized (mailbox) {
+                // mailbox was emptied and removed since we fetched it, so try again with a new one
+                if (mailbox.m_closed) {
+                    continue;
+                }
+
+                mailbox.m_tasks.add(task);
+                schedule = !mailbox.m_scheduled;
+                mailbox.m_scheduled = true;
+            }
+
+            if (schedule) {
+                schedule(mailbox);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Submits a mailbox to the executor. If it's rejected then the mailbox is discarded, as nothing will ever drain it,
+     * and every task in it fails, including those queued by other threads since it was scheduled.
+     */
+    protected void schedule(Mailbox mailbox) {
+        try {
+            m_executor.execute(mailbox);
+        } catch (RejectedExecutionException ex) {
+            List<Task> discarded;
+            synchronized (mailbox) {
+                discarded = new ArrayList<>(mailbox.m_tasks);
+                mailbox.m_tasks.clear();
+                mailbox.m_scheduled = false;
+                mailbox.m_closed = true;
+            }
+            m_mailboxes.remove(mailbox.m_contactUuid, mailbox);
+
+            for (Task task : discarded) {
+                notifyError(mailbox.m_contactUuid, task.m_input, ex);
+            }
+        }
+    }
+
+    protected void notifyProcessed(String contactUuid, Input input, RunState run) {
+        try {
+            m_callback.onProcessed(contactUuid, input, run);
+        } catch (RuntimeException ex) {
+            logger.error("Callback failed for run of contact " + contactUuid, ex);
+        }
+    }
+
+    protected void notifyError(String contactUuid, Input input, Exception ex) {
+        try {
+            m_callback.onError(contactUuid, input, ex);
+        } catch (RuntimeException cbEx) {
+            logger.error("Callback failed for error of contact " + contactUuid, cbEx);
+        }
+    }
+
+    /**
+     * A start or input of a single contact
+     */
+    protected static abstract class Task implements Runnable {
+
+        // null if task is a start
+        protected final Input m_input;
+
+        protected Task(Input input) {
+            m_input = input;
+        }
+    }
+
+    /**
+     * The pending work of a single contact. Only one thread at a time ever runs a mailbox.
+     */
+    protected class Mailbox implements Runnable {
+
+        protected final String m_contactUuid;
+
+        protected final Queue<Task> m_tasks = new ArrayDeque<>();
+
+        protected boolean m_scheduled;
+
+        protected boolean m_closed;
+
+        protected Mailbox(String contactUuid) {
+            m_contactUuid = contactUuid;
+        }
+
+        /**
+         * @see Runnable#run()
+         */
+        @Override
+        public void run() {
+            for (int processed = 0; processed < MAX_BATCH; processed++) {
+                Task task;
+                synchronized (this) {
+                    task = m_tasks.poll();
+                    if (task == null) {
+                        m_scheduled = false;
+                        m_closed = true;
+                        break;
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    logger.error("Unexpected error processing contact " + m_contactUuid, ex);
+                }
+            }
+
+            boolean reschedule;
+            synchronized (this) {
+                reschedule = !m_closed;
+            }
+
+            if (reschedule) {
+                // still has work so go to the back of the executor's queue to give other contacts a turn
+                schedule(this);
+            } else {
+                m_mailboxes.remove(m_contactUuid, this);
+            }
+        }
+    }
+}
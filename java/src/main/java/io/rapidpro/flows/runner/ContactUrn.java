@@ -20,7 +20,7 @@ public class ContactUrn implements Jsonizable {
         EXT,
     }
 
-    protected static String ANON_MASK = "********";
+    protected static final String ANON_MASK = "********";
 
     protected Scheme m_scheme;
 
@@ -6,6 +6,7 @@ import io.rapidpro.flows.utils.JsonUtils;
 import io.rapidpro.flows.utils.Jsonizable;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -16,8 +17,8 @@ import java.util.regex.Pattern;
 public class Field implements Jsonizable {
 
     // can't create contact fields with these keys
-    protected static Set<String> RESERVED_KEYS = new HashSet<>(Arrays.asList(
-            "name", "first_name", "phone", "language", "created_by", "modified_by", "org", "uuid", "groups"));
+    protected static final Set<String> RESERVED_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "name", "first_name", "phone", "language", "created_by", "modified_by", "org", "uuid", "groups")));
 
     public enum ValueType {
         TEXT("T"),
@@ -0,0 +1,68 @@
+package io.rapidpro.flows.runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The contact fields of an org, indexed by key and by value type. Instances are immutable so a single registry can be
+ * shared by all runs for an org, with each run only keeping track of the fields it creates itself.
+ */
+public class FieldRegistry {
+
+    public static final FieldRegistry EMPTY = new FieldRegistry(Collections.<Field>emptyList());
+
+    protected final List<Field> m_fields;
+
+    protected final Map<String, Field> m_fieldsByKey;
+
+    protected final Map<Field.ValueType, Field> m_firstFieldsByType;
+
+    /**
+     * Creates a new registry
+     * @param fields the fields, where if more than one has the same key, the first is used
+     */
+    public FieldRegistry(List<Field> fields) {
+        m_fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        m_fieldsByKey = new HashMap<>();
+        m_firstFieldsByType = new EnumMap<>(Field.ValueType.class);
+
+        for (Field field : m_fields) {
+            if (!m_fieldsByKey.containsKey(field.getKey())) {
+                m_fieldsByKey.put(field.getKey(), field);
+            }
+            if (!m_firstFieldsByType.containsKey(field.getValueType())) {
+                m_firstFieldsByType.put(field.getValueType(), field);
+            }
+        }
+    }
+
+    /**
+     * Gets the field with the given key
+     * @param key the field key
+     * @return the field or null if there's no such field
+     */
+    public Field get(String key) {
+        return m_fieldsByKey.get(key);
+    }
+
+    /**
+     * Gets the first field with the given value type
+     * @param valueType the value type
+     * @return the field or null if there's no such field
+     */
+    public Field getFirstOfType(Field.ValueType valueType) {
+        return m_firstFieldsByType.get(valueType);
+    }
+
+    public List<Field> getFields() {
+        return m_fields;
+    }
+
+    public int size() {
+        return m_fields.size();
+    }
+}
@@ -0,0 +1,227 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.rapidpro.flows.utils.JsonUtils;
+import io.rapidpro.flows.utils.KeywordDictionary;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Location resolver which needs no external service, resolving names against an in-memory index of admin boundaries
+ * loaded from JSON. That JSON maps each country code to its states, each of which is an object like:
+ *
+ * <pre>
+ * {"osm_id": "S0001", "name": "Kigali", "aliases": ["Kigali City"], "children": [ ...its districts... ]}
+ * </pre>
+ *
+ * Districts have their wards as children in the same way. Names are indexed by country, level and parent, so only the
+ * locations inside the given parent are considered. Text is resolved by looking for a location name in it, first as
+ * the whole text, then as any sequence of words, longest first, and finally as a fuzzy match of those words, i.e. an
+ * edit distance of 1 for words over 4 characters. Fuzzy matches are looked up in a {@link KeywordDictionary} of each
+ * parent's names rather than by comparing with every name. Instances are immutable and so can be shared between
+ * threads.
+ */
+public class GazetteerLocationResolver implements Location.Resolver {
+
+    protected static final Location.Level[] LEVELS = { Location.Level.STATE, Location.Level.DISTRICT, Location.Level.WARD };
+
+    protected static final Pattern s_nonWordChars = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * The locations of a single level inside a single parent
+     */
+    protected static class Scope {
+
+        // locations by normalized name or alias
+        protected final Map<String, Location> m_byName = new LinkedHashMap<>();
+
+        // the most words in any name
+        protected int m_maxWords = 1;
+
+        // the names for fuzzy matching, with ids in the same order as the locations
+        protected KeywordDictionary m_dictionary;
+
+        protected List<Location> m_dictionaryLocations;
+
+        protected void add(String name, Location location) {
+            String normalized = normalize(name);
+            if (normalized.isEmpty() || m_byName.containsKey(normalized)) {
+                return;
+            }
+            m_byName.put(normalized, location);
+            m_maxWords = Math.max(m_maxWords, StringUtils.countMatches(normalized, " ") + 1);
+        }
+
+        /**
+         * Indexes the names for fuzzy matching, once all locations have been added
+         */
+        protected void index() {
+            m_dictionary = new KeywordDictionary(new ArrayList<>(m_byName.keySet()));
+            m_dictionaryLocations = new ArrayList<>(m_byName.values());
+        }
+
+        /**
+         * Finds the first location whose name is a fuzzy match for the given phrase
+         * @param phrase the normalized phrase
+         * @return the location or null
+         */
+        protected Location findFuzzy(String phrase) {
+            int id = m_dictionary.findFuzzy(phrase);
+            return id >= 0 ? m_dictionaryLocations.get(id) : null;
+        }
+    }
+
+    protected final Map<List<Object>, Scope> m_scopes;
+
+    protected final int m_size;
+
+    protected GazetteerLocationResolver(Map<List<Object>, Scope> scopes, int size) {
+        m_scopes = scopes;
+        m_size = size;
+    }
+
+    /**
+     * Loads a resolver from JSON
+     * @param json the JSON string
+     * @return the resolver
+     */
+    public static GazetteerLocationResolver fromJson(String json) {
+        return fromJson(new JsonParser().parse(json));
+    }
+
+    /**
+     * Loads a resolver from JSON, e.g. a boundaries file
+     * @param reader the reader to read the JSON from
+     * @return the resolver
+     */
+    public static GazetteerLocationResolver fromJson(Reader reader) {
+        return fromJson(new JsonParser().parse(reader));
+    }
+
+    /**
+     * Loads a resolver from JSON
+     * @param elm the JSON element
+     * @return the resolver
+     */
+    public static GazetteerLocationResolver fromJson(JsonElement elm) {
+        Map<List<Object>, Scope> scopes = new HashMap<>();
+        int size = 0;
+        for (Map.Entry<String, JsonElement> country : elm.getAsJsonObject().entrySet()) {
+            size += addLocations(scopes, country.getKey(), 0, null, country.getValue().getAsJsonArray());
+        }
+        for (Scope scope : scopes.values()) {
+            scope.index();
+        }
+        return new GazetteerLocationResolver(scopes, size);
+    }
+
+    /**
+     * Indexes the given locations and their children
+     * @return the number of locations indexed
+     */
+    protected static int addLocations(Map<List<Object>, Scope> scopes, String country, int depth, String parentOsmId, JsonArray locations) {
+        if (depth >= LEVELS.length) {
+            return 0;
+        }
+        Location.Level level = LEVELS[depth];
+        List<Object> key = scopeKey(country, level, parentOsmId);
+
+        Scope scope = scopes.get(key);
+        if (scope == null) {
+            scope = new Scope();
+            scopes.put(key, scope);
+        }
+
+        int count = 0;
+        for (JsonElement locationElm : locations) {
+            JsonObject obj = locationElm.getAsJsonObject();
+            String osmId = JsonUtils.getAsString(obj, "osm_id");
+            String name = JsonUtils.getAsString(obj, "name");
+            Location location = new Location(osmId, name, level);
+
+            scope.add(name, location);
+            if (obj.has("aliases")) {
+                for (String alias : JsonUtils.fromJsonArray(obj.getAsJsonArray("aliases"), null, String.class)) {
+                    scope.add(alias, location);
+                }
+            }
+            count++;
+
+            if (obj.has("children")) {
+                count += addLocations(scopes, country, depth + 1, osmId, obj.getAsJsonArray("children"));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @see Location.Resolver#resolve(String, String, Location.Level, Location)
+     */
+    @Override
+    public Location resolve(String text, String country, Location.Level level, Location parent) {
+        Scope scope = m_scopes.get(scopeKey(country, level, parent != null ? parent.getOsmId() : null));
+        if (scope == null) {
+            return null;
+        }
+
+        String normalized = normalize(text);
+        Location location = scope.m_byName.get(normalized);
+        if (location != null || normalized.isEmpty()) {
+            return location;
+        }
+
+        // look for a name as a sequence of words in the text, longest first
+        String[] words = normalized.split(" ");
+        for (int n = Math.min(scope.m_maxWords, words.length); n > 0; n--) {
+            for (int w = 0; w + n <= words.length; w++) {
+                location = scope.m_byName.get(StringUtils.join(words, ' ', w, w + n));
+                if (location != null) {
+                    return location;
+                }
+            }
+        }
+
+        // finally look for names which are only a fuzzy match
+        for (int n = Math.min(scope.m_maxWords, words.length); n > 0; n--) {
+            for (int w = 0; w + n <= words.length; w++) {
+                location = scope.findFuzzy(StringUtils.join(words, ' ', w, w + n));
+                if (location != null) {
+                    return location;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of locations in this resolver
+     * @return the number of locations
+     */
+    public int size() {
+        return m_size;
+    }
+
+    protected static List<Object> scopeKey(String country, Location.Level level, String parentOsmId) {
+        return Arrays.<Object>asList(country, level, parentOsmId);
+    }
+
+    /**
+     * Normalizes a location name or text by lowercasing and replacing punctuation and whitespace with single spaces
+     * @param text the text
+     * @return the normalized text
+     */
+    protected static String normalize(String text) {
+        return s_nonWordChars.matcher(text.toLowerCase()).replaceAll(" ").trim();
+    }
+}
@@ -2,19 +2,24 @@ package io.rapidpro.flows.runner;
 
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.expressions.evaluator.Conversions;
+import io.rapidpro.flows.utils.LazyMap;
 import org.threeten.bp.Instant;
 import org.threeten.bp.LocalDate;
 import org.threeten.bp.ZonedDateTime;
 
 import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Input from the contact or surveyor
  */
 public class Input {
 
+    protected static final Set<String> s_contextKeys = new LinkedHashSet<>(Arrays.asList("*", "value", "time", "contact"));
+
     protected Object m_value;
 
     protected Instant m_time;
@@ -49,16 +54,20 @@ public class Input {
      * @param contactContext the contact context
      * @return the context
      */
-    public Map<String, Object> buildContext(EvaluationContext container, Map<String, String> contactContext) {
-        Map<String, Object> context = new HashMap<>();
-        String asText = getValueAsText(container);
-
-        context.put("*", asText);
-        context.put("value", asText);
-        context.put("time", Conversions.toString(m_time.atZone(container.getTimezone()), container));
-        context.put("contact", contactContext);
-
-        return context;
+    public Map<String, Object> buildContext(final EvaluationContext container, final Map<String, String> contactContext) {
+        return new LazyMap<Object>(s_contextKeys) {
+            @Override
+            protected Object compute(String key) {
+                switch (key) {
+                    case "time":
+                        return Conversions.toString(m_time.atZone(container.getTimezone()), container);
+                    case "contact":
+                        return contactContext;
+                    default:
+                        return getValueAsText(container);
+                }
+            }
+        };
     }
 
     /**
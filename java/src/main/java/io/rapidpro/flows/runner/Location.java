@@ -1,5 +1,8 @@
 package io.rapidpro.flows.runner;
 
+import java.util.List;
+import java.util.concurrent.Future;
+
 /**
  * Simple location model
  */
@@ -38,6 +41,63 @@ public class Location {
         Location resolve(String text, String country, Level level, Location parent);
     }
 
+    /**
+     * A request to resolve a single location name
+     */
+    public static class Query {
+
+        protected final String m_text;
+
+        protected final String m_country;
+
+        protected final Level m_level;
+
+        protected final Location m_parent;
+
+        /**
+         * Creates a new query
+         * @param text the text to parse
+         * @param country the 2-digit country code
+         * @param level the level
+         * @param parent the parent location (may be null)
+         */
+        public Query(String text, String country, Level level, Location parent) {
+            m_text = text;
+            m_country = country;
+            m_level = level;
+            m_parent = parent;
+        }
+
+        public String getText() {
+            return m_text;
+        }
+
+        public String getCountry() {
+            return m_country;
+        }
+
+        public Level getLevel() {
+            return m_level;
+        }
+
+        public Location getParent() {
+            return m_parent;
+        }
+    }
+
+    /**
+     * Interface for anything that can resolve many location names in a single batch without blocking the caller, e.g.
+     * with a single database query
+     */
+    public interface AsyncResolver {
+        /**
+         * Resolves location names from the given queries
+         * @param queries the queries
+         * @return the future locations in the same order as the queries, with null for any which don't exist
+         */
+        Future<List<Location>> resolveAll(List<Query> queries);
+    }
+
     public String getOsmId() {
         return m_osmId;
     }
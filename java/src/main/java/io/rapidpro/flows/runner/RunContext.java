@@ -0,0 +1,101 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.EvaluationError;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.flows.utils.LazyMap;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluation context for a run which can resolve variables in lazily computed maps without computing all their values
+ */
+public class RunContext extends EvaluationContext {
+
+    protected RunState m_run;
+
+    public RunContext(Map<String, Object> variables, ZoneId timezone, DateStyle dateStyle) {
+        super(variables, timezone, dateStyle);
+    }
+
+    public RunContext(Map<String, Object> variables, ZoneId timezone, DateStyle dateStyle, Instant now) {
+        super(variables, timezone, dateStyle, now);
+    }
+
+    /**
+     * Creates a context whose contact and flow variables are those of the given run
+     * @param variables the variables
+     * @param timezone the timezone
+     * @param dateStyle the date style
+     * @param now the time now
+     * @param run the run state
+     */
+    public RunContext(Map<String, Object> variables, ZoneId timezone, DateStyle dateStyle, Instant now, RunState run) {
+        super(variables, timezone, dateStyle, now);
+        m_run = run;
+    }
+
+    /**
+     * Creates an overlay of the given context which hides one of its variables. The other variables are shared rather
+     * than copied, so lazily computed values aren't computed again.
+     * @param context the context
+     * @param hidden the name of the variable to hide
+     * @return the overlay context
+     */
+    public static RunContext hidingVariable(EvaluationContext context, final String hidden) {
+        final Map<String, Object> variables = context.getVariables();
+
+        Set<String> keys = new HashSet<>(variables.keySet());
+        keys.remove(hidden);
+
+        Map<String, Object> overlay = new LazyMap<Object>(keys) {
+            @Override
+            protected Object compute(String key) {
+                return variables.get(key);
+            }
+        };
+
+        return new RunContext(overlay, context.getTimezone(), context.getDateStyle(), context.getNow());
+    }
+
+    /**
+     * @see EvaluationContext#resolveVariableInContainer(Map, String, String)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object resolveVariableInContainer(Map<String, Object> container, String path, String originalPath) {
+        // the default implementation copies the container to lower case its keys, which would compute every value
+        // of a lazy map, so look up the item directly if we can. Top-level variable names are always lower case.
+        if (container instanceof LazyMap || container == m_variables) {
+            int dot = path.indexOf('.');
+            String item = dot >= 0 ? path.substring(0, dot) : path;
+            String rest = dot >= 0 ? path.substring(dot + 1) : null;
+
+            if (container.containsKey(item)) {
+                Object value = container.get(item);
+
+                if (rest != null && value != null) {
+                    if (!(value instanceof Map)) {
+                        throw new EvaluationError("Undefined variable: " + originalPath);
+                    }
+                    return resolveVariableInContainer((Map<String, Object>) value, rest, originalPath);
+                }
+                return coerceToSupportedType(value);
+            }
+        }
+
+        return super.resolveVariableInContainer(container, path, originalPath);
+    }
+
+    /**
+     * Gets the run whose contact and flow variables are in this context, if it was built from one
+     * @return the run state or null
+     */
+    public RunState getRun() {
+        return m_run;
+    }
+}
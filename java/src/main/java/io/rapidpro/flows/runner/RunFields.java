@@ -0,0 +1,111 @@
+package io.rapidpro.flows.runner;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The contact fields available to a run, i.e. the fields of a shared {@link FieldRegistry} followed by any fields the
+ * run has added. The registry is never copied or modified, so runs only pay for the fields they create. Fields can
+ * only be appended, or all removed when they are replaced. Runs restored from storage only share a registry if one is
+ * passed when decoding them, and replacing all fields, e.g. when applying a delta which does, stops sharing it.
+ */
+public class RunFields extends AbstractList<Field> {
+
+    protected FieldRegistry m_registry;
+
+    protected List<Field> m_added = new ArrayList<>();
+
+    protected Map<String, Field> m_addedByKey = new HashMap<>();
+
+    protected Map<Field.ValueType, Field> m_addedFirstByType = new EnumMap<>(Field.ValueType.class);
+
+    public RunFields(FieldRegistry registry) {
+        m_registry = registry;
+    }
+
+    /**
+     * Gets the field with the given key
+     * @param key the field key
+     * @return the field or null if there's no such field
+     */
+    public Field getByKey(String key) {
+        Field field = m_registry.get(key);
+        return field != null ? field : m_addedByKey.get(key);
+    }
+
+    /**
+     * Gets the first field with the given value type
+     * @param valueType the value type
+     * @return the field or null if there's no such field
+     */
+    public Field getFirstOfType(Field.ValueType valueType) {
+        Field field = m_registry.getFirstOfType(valueType);
+        return field != null ? field : m_addedFirstByType.get(valueType);
+    }
+
+    public FieldRegistry getRegistry() {
+        return m_registry;
+    }
+
+    /**
+     * Gets the fields which were added by the run rather than coming from the registry
+     * @return the added fields
+     */
+    public List<Field> getAdded() {
+        return Collections.unmodifiableList(m_added);
+    }
+
+    /**
+     * Appends the given fields which don't have the same key as an existing field, e.g. to overlay the stored fields
+     * of a restored run onto the shared registry
+     * @param fields the fields
+     */
+    public void addAllAbsent(List<Field> fields) {
+        for (Field field : fields) {
+            if (getByKey(field.getKey()) == null) {
+                add(field);
+            }
+        }
+    }
+
+    @Override
+    public Field get(int index) {
+        int registrySize = m_registry.size();
+        return index < registrySize ? m_registry.getFields().get(index) : m_added.get(index - registrySize);
+    }
+
+    @Override
+    public int size() {
+        return m_registry.size() + m_added.size();
+    }
+
+    @Override
+    public void add(int index, Field field) {
+        if (index != size()) {
+            throw new UnsupportedOperationException("Fields can only be appended");
+        }
+
+        m_added.add(field);
+        if (!m_addedByKey.containsKey(field.getKey())) {
+            m_addedByKey.put(field.getKey(), field);
+        }
+        if (!m_addedFirstByType.containsKey(field.getValueType())) {
+            m_addedFirstByType.put(field.getValueType(), field);
+        }
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        m_registry = FieldRegistry.EMPTY;
+        m_added.clear();
+        m_addedByKey.clear();
+        m_addedFirstByType.clear();
+        modCount++;
+    }
+}
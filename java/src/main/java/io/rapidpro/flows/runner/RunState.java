@@ -1,7 +1,6 @@
 package io.rapidpro.flows.runner;
 
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.expressions.evaluator.Conversions;
 import io.rapidpro.expressions.utils.ExpressionUtils;
@@ -10,31 +9,40 @@ import io.rapidpro.flows.definition.RuleSet;
 import io.rapidpro.flows.utils.FlowUtils;
 import io.rapidpro.flows.utils.JsonUtils;
 import io.rapidpro.flows.utils.Jsonizable;
+import io.rapidpro.flows.utils.LazyMap;
 import org.apache.commons.lang3.StringUtils;
 import org.threeten.bp.Instant;
 import org.threeten.bp.LocalDate;
 import org.threeten.bp.ZonedDateTime;
 import org.threeten.bp.temporal.ChronoUnit;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Represents state of a flow run after visiting one or more nodes in the flow
  */
 public class RunState implements Jsonizable {
 
+    protected static final Set<String> s_dateContextKeys = new LinkedHashSet<>(Arrays.asList("*", "now", "today", "tomorrow", "yesterday"));
+
     public enum State {
         IN_PROGRESS,
         COMPLETED,
         WAIT_MESSAGE
     }
 
+    /**
+     * The parts of the evaluation context which can be changed by visiting a node
+     */
+    public enum ContextLayer {
+        CONTACT,
+        FLOW,
+        EXTRA
+    }
+
     protected Org m_org;
 
-    protected List<Field> m_fields;
+    protected RunFields m_fields;
 
     protected Contact m_contact;
 
@@ -50,6 +58,16 @@ public class RunState implements Jsonizable {
 
     protected Flow m_flow;
 
+    protected boolean m_reuseContext;
+
+    protected RunContext m_context;  // the context being reused, built for m_contextInput
+
+    protected Input m_contextInput;
+
+    protected EnumSet<ContextLayer> m_staleContextLayers = EnumSet.noneOf(ContextLayer.class);
+
+    protected RunStateDelta.Checkpoint m_checkpoint;
+
     /**
      * Creates a run state for a new run by the given contact in the given flow
      * @param org the org
@@ -58,8 +76,19 @@ public class RunState implements Jsonizable {
      * @param flow the flow
      */
     public RunState(Org org, List<Field> fields, Contact contact, Flow flow) {
+        this(org, new FieldRegistry(fields), contact, flow);
+    }
+
+    /**
+     * Creates a run state for a new run by the given contact in the given flow
+     * @param org the org
+     * @param fields the org's contact fields, which may be shared with other runs
+     * @param contact the contact
+     * @param flow the flow
+     */
+    public RunState(Org org, FieldRegistry fields, Contact contact, Flow flow) {
         this.m_org = org;
-        this.m_fields = fields;
+        this.m_fields = new RunFields(fields);
         this.m_contact = contact;
         this.m_started = Instant.now();
         this.m_steps = new ArrayList<>();
@@ -76,21 +105,35 @@ public class RunState implements Jsonizable {
      * @return the run state
      */
     public static RunState fromJson(String json, Flow flow) {
-        JsonObject obj = JsonUtils.getGson().fromJson(json, JsonObject.class);
-        Flow.DeserializationContext context = new Flow.DeserializationContext(flow);
-
-        RunState run = new RunState(
-                Org.fromJson(obj.get("org")),
-                JsonUtils.fromJsonArray(obj.get("fields").getAsJsonArray(), null, Field.class),
-                Contact.fromJson(obj.get("contact")),
-                flow
-        );
+        return RunStateJsonCodec.decode(json, flow);
+    }
+
+    /**
+     * Restores a run state from JSON, sharing the given registry rather than keeping its own copy of the org's fields
+     * @param json the JSON containing a serialized run state
+     * @param flow the flow the run state is for
+     * @param fields the org's contact fields, which may be shared with other runs
+     * @return the run state
+     */
+    public static RunState fromJson(String json, Flow flow, FieldRegistry fields) {
+        return RunStateJsonCodec.decode(json, flow, fields);
+    }
 
-        run.m_started = ExpressionUtils.parseJsonDate(JsonUtils.getAsString(obj, "started"));
-        run.m_steps = JsonUtils.fromJsonArray(obj.get("steps").getAsJsonArray(), context, Step.class);
-        run.m_values = JsonUtils.fromJsonObject(obj.get("values").getAsJsonObject(), null, Value.class);
-        run.m_extra = JsonUtils.fromJsonObject(obj.get("extra").getAsJsonObject(), null, String.class);
-        run.m_state = State.valueOf(obj.get("state").getAsString().toUpperCase());
+    /**
+     * Creates a run state being restored from storage
+     * @param org the org
+     * @param registry the shared contact fields, or null if the run should only have its stored fields
+     * @param fields the stored contact fields, of which only those missing from the registry are added
+     * @param contact the contact
+     * @param flow the flow
+     * @return the run state
+     */
+    protected static RunState restore(Org org, FieldRegistry registry, List<Field> fields, Contact contact, Flow flow) {
+        if (registry == null) {
+            return new RunState(org, fields, contact, flow);
+        }
+        RunState run = new RunState(org, registry, contact, flow);
+        run.m_fields.addAllAbsent(fields);
         return run;
     }
 
@@ -117,41 +160,209 @@ public class RunState implements Jsonizable {
      * @return the JSON
      */
     public String toJsonString() {
-        return JsonUtils.getGson().toJson(toJson());
+        return RunStateJsonCodec.encode(this);
+    }
+
+    /**
+     * Restores a run state from its compact binary form
+     * @param data the bytes containing a serialized run state
+     * @param flow the flow the run state is for
+     * @return the run state
+     */
+    public static RunState fromBytes(byte[] data, Flow flow) {
+        return RunStateCodec.decode(data, flow);
+    }
+
+    /**
+     * Restores a run state from its compact binary form, sharing the given registry rather than keeping its own copy
+     * of the org's fields
+     * @param data the bytes containing a serialized run state
+     * @param flow the flow the run state is for
+     * @param fields the org's contact fields, which may be shared with other runs
+     * @return the run state
+     */
+    public static RunState fromBytes(byte[] data, Flow flow, FieldRegistry fields) {
+        return RunStateCodec.decode(data, flow, fields);
+    }
+
+    /**
+     * Serializes this run state to its compact binary form, which is much smaller and quicker to read and write than
+     * JSON, but can only be restored using the same flow
+     * @return the bytes
+     */
+    public byte[] toBytes() {
+        return RunStateCodec.encode(this);
+    }
+
+    /**
+     * Records the current state of this run as a checkpoint, e.g. after it's been saved in full, so that later changes
+     * can be saved as a delta
+     */
+    public void markCheckpoint() {
+        m_checkpoint = new RunStateDelta.Checkpoint(this);
+    }
+
+    /**
+     * Gets the changes made to this run since the last checkpoint, and makes the current state the new checkpoint
+     * @return the delta
+     */
+    public RunStateDelta checkpoint() {
+        if (m_checkpoint == null) {
+            throw new IllegalStateException("Run state has no checkpoint to calculate changes from");
+        }
+
+        RunStateDelta delta = RunStateDelta.between(m_checkpoint, this);
+        markCheckpoint();
+        return delta;
+    }
+
+    /**
+     * Applies changes to this run, e.g. when restoring it from a snapshot and the deltas saved since
+     * @param deltas the deltas in the order they were made
+     */
+    public void applyDeltas(List<RunStateDelta> deltas) {
+        for (RunStateDelta delta : deltas) {
+            delta.applyTo(this);
+        }
     }
 
     /**
-     * Builds the top-level evaluation context (all variables, date information)
+     * Builds the top-level evaluation context (all variables, date information). The contact, date, flow and step
+     * variables are lazy maps so values are only computed if they are used. If context reuse is enabled, then the
+     * previously built context is returned with only its stale layers rebuilt.
      * @param input the current input
      * @return the context
      */
     public EvaluationContext buildContext(Runner runner, Input input) {
-        // our concept of now may be overridden by the runner
-        Instant now = runner.getNow() != null ? runner.getNow() : Instant.now();
+        return buildContext(runner, input, null);
+    }
+
+    /**
+     * Builds the top-level evaluation context with only the given variables, e.g. those referenced by the node being
+     * visited. If context reuse is enabled, then the previously built context is returned with any stale or missing
+     * variables which are needed rebuilt, and those which aren't needed left to be rebuilt when they are.
+     * @param input the current input
+     * @param variables the names of the top-level variables which are needed, or null for all of them
+     * @return the context
+     */
+    public EvaluationContext buildContext(Runner runner, Input input, Set<String> variables) {
+        if (!m_reuseContext) {
+            RunContext context = createContext(runner);
+            updateContext(context, input, variables, EnumSet.allOf(ContextLayer.class), true);
+            return context;
+        }
 
-        EvaluationContext context = new EvaluationContext(new HashMap<String, Object>(), m_org.getTimezone(), m_org.getDateStyle(), now);
+        boolean inputChanged = input != m_contextInput;
+        if (m_context == null) {
+            m_context = createContext(runner);
+            m_staleContextLayers = EnumSet.allOf(ContextLayer.class);
+            inputChanged = true;
+        }
+
+        updateContext(m_context, input, variables, m_staleContextLayers, inputChanged);
+        m_contextInput = input;
+        return m_context;
+    }
 
-        Map<String, String> contactContext = m_contact.buildContext(this, context);
+    /**
+     * Creates a new top-level evaluation context without any variables
+     */
+    protected RunContext createContext(Runner runner) {
+        return new RunContext(new HashMap<String, Object>(), m_org.getTimezone(), m_org.getDateStyle(), getNow(runner), this);
+    }
 
-        if (input != null) {
-            context.putVariable("step", input.buildContext(context, contactContext));
+    /**
+     * Builds the needed variables of a context which are stale or missing
+     * @param context the context
+     * @param input the current input
+     * @param variables the names of the needed variables, or null for all of them
+     * @param stale the layers which are stale, from which rebuilt layers are removed
+     * @param inputChanged whether the input has changed since the step variable was built
+     */
+    protected void updateContext(RunContext context, Input input, Set<String> variables, EnumSet<ContextLayer> stale, boolean inputChanged) {
+        Map<String, Object> built = context.getVariables();
+        boolean needStep = input != null && isNeeded(variables, "step");
+
+        // the step context includes the contact context so needs it to be current
+        boolean contactRebuilt = false;
+        if (stale.contains(ContextLayer.CONTACT)) {
+            if (needStep || isNeeded(variables, "contact")) {
+                context.putVariable("contact", m_contact.buildContext(this, context));
+                stale.remove(ContextLayer.CONTACT);
+                contactRebuilt = true;
+            } else {
+                // building the contact context creates any fields missing for the contact's values, which still happens
+                m_contact.createFields(this);
+            }
         }
 
-        context.putVariable("date", buildDateContext(context));
-        context.putVariable("contact", contactContext);
-        context.putVariable("extra", m_extra);
+        if (needStep) {
+            if (inputChanged || contactRebuilt || !built.containsKey("step")) {
+                context.putVariable("step", input.buildContext(context, getContactContext(context)));
+            }
+        } else if (input == null || inputChanged || contactRebuilt) {
+            built.remove("step");
+        }
 
-        Map<String, Object> flowContext = new HashMap<>();
-        List<String> values = new ArrayList<>();
-        for (Map.Entry<String, Value> entry : m_values.entrySet()) {
-            flowContext.put(entry.getKey(), entry.getValue().buildContext(context));
-            values.add(entry.getKey() + ": " + entry.getValue().getValue());
+        if (isNeeded(variables, "date") && !built.containsKey("date")) {
+            context.putVariable("date", buildDateContext(context));
         }
-        flowContext.put("*", StringUtils.join(values, "\n"));
+        if (isNeeded(variables, "extra") && stale.remove(ContextLayer.EXTRA)) {
+            context.putVariable("extra", m_extra);
+        }
+        if (isNeeded(variables, "flow") && stale.remove(ContextLayer.FLOW)) {
+            context.putVariable("flow", buildFlowContext(context));
+        }
+    }
+
+    protected static boolean isNeeded(Set<String> variables, String variable) {
+        return variables == null || variables.contains(variable);
+    }
+
+    /**
+     * Builds an evaluation context with no variables, for evaluating things which only depend on the org's timezone and
+     * date style, e.g. rule sets whose tests are all static. Fields are still created for the contact's values, as
+     * they would be by building the full context.
+     * @param runner the flow runner
+     * @return the context
+     */
+    public EvaluationContext buildStaticContext(Runner runner) {
+        m_contact.createFields(this);
+
+        return new RunContext(new HashMap<String, Object>(), m_org.getTimezone(), m_org.getDateStyle(), getNow(runner));
+    }
+
+    /**
+     * Gets the time now, which may be overridden by the runner
+     */
+    protected static Instant getNow(Runner runner) {
+        return runner.getNow() != null ? runner.getNow() : Instant.now();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Map<String, String> getContactContext(EvaluationContext context) {
+        return (Map<String, String>) context.getVariables().get("contact");
+    }
 
-        context.putVariable("flow", flowContext);
+    /**
+     * Enables or disables reuse of the evaluation context between calls to {@link #buildContext(Runner, Input, Set)}. The
+     * runner enables this while it's resuming a run, and anything which changes the run during that time should call
+     * {@link #invalidateContext(ContextLayer)}.
+     * @param reuse whether to reuse the context
+     */
+    public void setReuseContext(boolean reuse) {
+        m_reuseContext = reuse;
+        m_context = null;
+        m_contextInput = null;
+        m_staleContextLayers.clear();
+    }
 
-        return context;
+    /**
+     * Marks a layer of the reused evaluation context as needing to be rebuilt
+     * @param layer the layer which has changed
+     */
+    public void invalidateContext(ContextLayer layer) {
+        m_staleContextLayers.add(layer);
     }
 
     /**
@@ -164,24 +375,77 @@ public class RunState implements Jsonizable {
         String key = ruleSet.getLabel().toLowerCase().replaceAll("[^a-z0-9]+", "_");
 
         m_values.put(key, new Value(result.getValue(), result.getCategory(), result.getText(), time));
+
+        invalidateContext(ContextLayer.FLOW);
     }
 
     /**
      * Builds the date context (i.e. @date.now, @date.today, ...)
      */
-    protected static Map<String, String> buildDateContext(EvaluationContext container) {
-        ZonedDateTime asDateTime = container.getNow().atZone(container.getTimezone());
-        LocalDate asDate = asDateTime.toLocalDate();
-        String asDateTimeStr = Conversions.toString(asDateTime, container);
-        String asDateStr = Conversions.toString(asDate, container);
+    protected static Map<String, String> buildDateContext(final EvaluationContext container) {
+        return new LazyMap<String>(s_dateContextKeys) {
+            @Override
+            protected String compute(String key) {
+                ZonedDateTime asDateTime = container.getNow().atZone(container.getTimezone());
+                LocalDate asDate = asDateTime.toLocalDate();
+
+                switch (key) {
+                    case "today":
+                        return Conversions.toString(asDate, container);
+                    case "tomorrow":
+                        return Conversions.toString(asDate.plus(1, ChronoUnit.DAYS), container);
+                    case "yesterday":
+                        return Conversions.toString(asDate.minus(1, ChronoUnit.DAYS), container);
+                    default:
+                        return Conversions.toString(asDateTime, container);
+                }
+            }
+        };
+    }
+
+    /**
+     * Builds the flow context (i.e. @flow.* and a context for each value)
+     */
+    protected Map<String, Object> buildFlowContext(final EvaluationContext container) {
+        final Map<String, Value> values = new LinkedHashMap<>(m_values);
+
+        Set<String> keys = new LinkedHashSet<>(values.keySet());
+        keys.add("*");
+
+        return new LazyMap<Object>(keys) {
+            @Override
+            protected Object compute(String key) {
+                if (key.equals("*")) {
+                    List<String> joined = new ArrayList<>();
+                    for (Map.Entry<String, Value> entry : values.entrySet()) {
+                        joined.add(entry.getKey() + ": " + entry.getValue().getValue());
+                    }
+                    return StringUtils.join(joined, "\n");
+                }
+                return values.get(key).buildContext(container);
+            }
+        };
+    }
+
+    /**
+     * Gets the typed form of a flow value or contact field, so that a reference to one can be used without evaluating
+     * and parsing it again
+     * @param path the variable path, e.g. "flow.age", "flow.age.value" or "contact.age"
+     * @return the typed value or null if the path isn't a flow value or contact field
+     */
+    public TypedValue getTypedValue(String path) {
+        String[] parts = StringUtils.split(path, '.');
 
-        Map<String, String> dateContext = new HashMap<>();
-        dateContext.put("*", asDateTimeStr);
-        dateContext.put("now", asDateTimeStr);
-        dateContext.put("today", asDateStr);
-        dateContext.put("tomorrow", Conversions.toString(asDate.plus(1, ChronoUnit.DAYS), container));
-        dateContext.put("yesterday", Conversions.toString(asDate.minus(1, ChronoUnit.DAYS), container));
-        return dateContext;
+        if (parts.length >= 2 && parts.length <= 3 && parts[0].equals("flow")) {
+            Value value = m_values.get(parts[1]);
+            if (value != null && (parts.length == 2 || parts[2].equals("value"))) {
+                return value.getTypedValue();
+            }
+        } else if (parts.length == 2 && parts[0].equals("contact")) {
+            Field field = m_fields.getByKey(parts[1]);
+            return m_contact.getTypedField(parts[1], field != null ? field.getValueType() : null);
+        }
+        return null;
     }
 
     public Org getOrg() {
@@ -202,11 +466,9 @@ public class RunState implements Jsonizable {
         }
 
         if (key != null) {
-            // TODO get this into a map for efficiency
-            for (Field field : m_fields) {
-                if (field.getKey().equals(key)) {
-                    return field;
-                }
+            Field existing = m_fields.getByKey(key);
+            if (existing != null) {
+                return existing;
             }
         } else {
             key = Field.makeKey(label);
@@ -221,9 +483,22 @@ public class RunState implements Jsonizable {
         return field;
     }
 
+    /**
+     * Gets the first contact field with the given value type
+     * @param valueType the value type
+     * @return the field or null if there's no such field
+     */
+    public Field getFirstFieldOfType(Field.ValueType valueType) {
+        return m_fields.getFirstOfType(valueType);
+    }
+
+    /**
+     * Gets the contact fields created by this run, which are only ever among those it added to the shared registry
+     * @return the created fields
+     */
     public List<Field> getCreatedFields() {
         List<Field> created = new ArrayList<>();
-        for (Field field : m_fields) {
+        for (Field field : m_fields.getAdded()) {
             if (field.isNew()) {
                 created.add(field);
             }
@@ -0,0 +1,406 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.JsonElement;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.RuleSet;
+import io.rapidpro.flows.definition.actions.Action;
+import io.rapidpro.flows.utils.JsonUtils;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Compact binary encoding of run states. Lengths and numbers are varints, every string is written once and then
+ * referred to by its index in a dictionary (so field keys, groups, categories etc only cost a byte or two when
+ * repeated), flow nodes and rules are written as their index in the flow, and instants are written as epoch millis.
+ * Decoding gives the same run state as restoring it from JSON would.
+ */
+public class RunStateCodec {
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected static final int FORMAT_VERSION = 1;
+
+    // string references are offset by these so that null and new strings don't need a separate byte
+    protected static final int STRING_NULL = 0;
+    protected static final int STRING_NEW = 1;
+    protected static final int STRING_REF_OFFSET = 2;
+
+    /**
+     * Encodes a run state
+     * @param run the run state
+     * @return the encoded bytes
+     */
+    public static byte[] encode(RunState run) {
+        Writer out = new Writer();
+        out.writeVarInt(FORMAT_VERSION);
+
+        Org org = run.m_org;
+        out.writeString(org.m_country);
+        out.writeString(org.m_primaryLanguage);
+        out.writeString(org.m_timezone.getId());
+        out.writeVarInt(org.m_dateStyle.ordinal());
+        out.writeBoolean(org.m_anon);
+
+        out.writeVarInt(run.m_fields.size());
+        for (Field field : run.m_fields) {
+            out.writeString(field.m_key);
+            out.writeString(field.m_label);
+            out.writeVarInt(field.m_valueType.ordinal());
+        }
+
+        Contact contact = run.m_contact;
+        out.writeString(contact.m_uuid);
+        out.writeString(contact.m_name);
+        out.writeVarInt(contact.m_urns.size());
+        for (ContactUrn urn : contact.m_urns) {
+            out.writeVarInt(urn.m_scheme.ordinal());
+            out.writeString(urn.m_path);
+        }
+        out.writeVarInt(contact.m_groups.size());
+        for (String group : contact.m_groups) {
+            out.writeString(group);
+        }
+        writeStringMap(out, contact.m_fields);
+        out.writeString(contact.m_language);
+
+        out.writeInstant(run.m_started);
+
+        out.writeVarInt(run.m_steps.size());
+        for (Step step : run.m_steps) {
+            out.writeVarInt(step.m_node.getIndex());
+            out.writeInstant(step.m_arrivedOn);
+            out.writeInstant(step.m_leftOn);
+
+            RuleSet.Result result = step.m_ruleResult;
+            if (result != null) {
+                out.writeVarInt(result.getRule().getIndex() + 1);
+                out.writeString(result.getValue());
+                out.writeString(result.getCategory());
+                out.writeString(result.getText());
+            } else {
+                out.writeVarInt(0);
+            }
+
+            // actions are polymorphic and rarely repeated, so are kept in their JSON form
+            out.writeVarInt(step.m_actions.size());
+            for (Action action : step.m_actions) {
+                out.writeString(JsonUtils.getGson().toJson(action.toJson()));
+            }
+
+            out.writeVarInt(step.m_errors.size());
+            for (String error : step.m_errors) {
+                out.writeString(error);
+            }
+        }
+
+        out.writeVarInt(run.m_values.size());
+        for (Map.Entry<String, Value> entry : run.m_values.entrySet()) {
+            Value value = entry.getValue();
+            out.writeString(entry.getKey());
+            out.writeString(value.m_value);
+            out.writeString(value.m_category);
+            out.writeString(value.m_text);
+            out.writeInstant(value.m_time);
+        }
+
+        writeStringMap(out, run.m_extra);
+        out.writeVarInt(run.m_state.ordinal());
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a run state
+     * @param data the encoded bytes
+     * @param flow the flow the run state is for
+     * @return the run state
+     */
+    public static RunState decode(byte[] data, Flow flow) {
+        return decode(data, flow, null);
+    }
+
+    /**
+     * Decodes a run state, sharing the given registry of the org's fields
+     * @param data the encoded bytes
+     * @param flow the flow the run state is for
+     * @param registry the shared contact fields, or null if the run should only have its stored fields
+     * @return the run state
+     */
+    public static RunState decode(byte[] data, Flow flow, FieldRegistry registry) {
+        Reader in = new Reader(data);
+
+        int version = in.readVarInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported run state format version: " + version);
+        }
+
+        Org org = new Org(
+                in.readString(),
+                in.readString(),
+                ZoneId.of(in.readString()),
+                in.readEnum(DateStyle.values()),
+                in.readBoolean()
+        );
+
+        int numFields = in.readVarInt();
+        List<Field> fields = new ArrayList<>(numFields);
+        for (int f = 0; f < numFields; f++) {
+            fields.add(new Field(in.readString(), in.readString(), in.readEnum(Field.ValueType.values())));
+        }
+
+        String uuid = in.readString();
+        String name = in.readString();
+        int numUrns = in.readVarInt();
+        List<ContactUrn> urns = new ArrayList<>(numUrns);
+        for (int u = 0; u < numUrns; u++) {
+            urns.add(new ContactUrn(in.readEnum(ContactUrn.Scheme.values()), in.readString()));
+        }
+        int numGroups = in.readVarInt();
+        Set<String> groups = new LinkedHashSet<>();
+        for (int g = 0; g < numGroups; g++) {
+            groups.add(in.readString());
+        }
+        Map<String, String> contactFields = readStringMap(in);
+        Contact contact = new Contact(uuid, name, urns, groups, contactFields, in.readString());
+
+        RunState run = RunState.restore(org, registry, fields, contact, flow);
+        run.m_started = in.readInstant();
+
+        Flow.DeserializationContext context = new Flow.DeserializationContext(flow);
+
+        int numSteps = in.readVarInt();
+        List<Step> steps = new ArrayList<>(numSteps);
+        for (int s = 0; s < numSteps; s++) {
+            Flow.Node node = flow.getNode(in.readIndex(flow.getNodeCount()));
+            Instant arrivedOn = in.readInstant();
+            Instant leftOn = in.readInstant();
+
+            RuleSet.Result result = null;
+            int ruleRef = in.readVarInt();
+            if (ruleRef > 0) {
+                if (ruleRef > flow.getRuleCount()) {
+                    throw new IllegalArgumentException("Invalid rule index: " + (ruleRef - 1));
+                }
+                Rule rule = flow.getRule(ruleRef - 1);
+                result = new RuleSet.Result(rule, in.readString(), in.readString(), in.readString());
+            }
+
+            int numActions = in.readVarInt();
+            List<Action> actions = new ArrayList<>(numActions);
+            for (int a = 0; a < numActions; a++) {
+                JsonElement actionJson = JsonUtils.getGson().fromJson(in.readString(), JsonElement.class);
+                actions.add(JsonUtils.fromJson(actionJson, context, Action.class));
+            }
+
+            int numErrors = in.readVarInt();
+            List<String> errors = new ArrayList<>(numErrors);
+            for (int e = 0; e < numErrors; e++) {
+                errors.add(in.readString());
+            }
+
+            steps.add(new Step(node, arrivedOn, leftOn, result, actions, errors));
+        }
+        run.m_steps = steps;
+
+        int numValues = in.readVarInt();
+        Map<String, Value> values = new HashMap<>();
+        for (int v = 0; v < numValues; v++) {
+            String key = in.readString();
+            values.put(key, new Value(in.readString(), in.readString(), in.readString(), in.readInstant()));
+        }
+        run.m_values = values;
+
+        run.m_extra = readStringMap(in);
+        run.m_state = in.readEnum(RunState.State.values());
+
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected data after run state");
+        }
+        return run;
+    }
+
+    protected static void writeStringMap(Writer out, Map<String, String> map) {
+        out.writeVarInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeString(entry.getValue());
+        }
+    }
+
+    protected static Map<String, String> readStringMap(Reader in) {
+        int size = in.readVarInt();
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = in.readString();
+            map.put(key, in.readString());
+        }
+        return map;
+    }
+
+    /**
+     * Writes primitive values to a growable buffer
+     */
+    protected static class Writer {
+
+        protected final ByteArrayOutputStream m_buffer = new ByteArrayOutputStream(256);
+
+        protected final Map<String, Integer> m_dictionary = new HashMap<>();
+
+        public void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        public void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                m_buffer.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            m_buffer.write((int) value);
+        }
+
+        public void writeBoolean(boolean value) {
+            m_buffer.write(value ? 1 : 0);
+        }
+
+        /**
+         * Writes a nullable instant as zig-zag encoded epoch millis, with zero reserved for null
+         */
+        public void writeInstant(Instant instant) {
+            if (instant == null) {
+                writeVarLong(0);
+            } else {
+                long millis = instant.toEpochMilli();
+                writeVarLong(((millis << 1) ^ (millis >> 63)) + 1);
+            }
+        }
+
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarInt(STRING_NULL);
+                return;
+            }
+
+            Integer index = m_dictionary.get(value);
+            if (index != null) {
+                writeVarInt(index + STRING_REF_OFFSET);
+                return;
+            }
+
+            m_dictionary.put(value, m_dictionary.size());
+
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarInt(STRING_NEW);
+            writeVarInt(bytes.length);
+            m_buffer.write(bytes, 0, bytes.length);
+        }
+
+        public byte[] toByteArray() {
+            return m_buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Reads primitive values written by a {@link Writer}
+     */
+    protected static class Reader {
+
+        protected final byte[] m_data;
+
+        protected int m_pos;
+
+        protected final List<String> m_dictionary = new ArrayList<>();
+
+        public Reader(byte[] data) {
+            m_data = data;
+        }
+
+        protected int readByte() {
+            if (m_pos >= m_data.length) {
+                throw new IllegalArgumentException("Unexpected end of run state data");
+            }
+            return m_data[m_pos++] & 0xFF;
+        }
+
+        public long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in run state data");
+        }
+
+        public int readVarInt() {
+            long value = readVarLong();
+            if (value > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("Malformed varint in run state data");
+            }
+            return (int) value;
+        }
+
+        public boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        public Instant readInstant() {
+            long encoded = readVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            long zigzag = encoded - 1;
+            return Instant.ofEpochMilli((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+
+        public String readString() {
+            int ref = readVarInt();
+            if (ref == STRING_NULL) {
+                return null;
+            }
+            if (ref != STRING_NEW) {
+                int index = ref - STRING_REF_OFFSET;
+                if (index < 0 || index >= m_dictionary.size()) {
+                    throw new IllegalArgumentException("Invalid string reference in run state data");
+                }
+                return m_dictionary.get(index);
+            }
+
+            int length = readVarInt();
+            if (length < 0 || length > m_data.length - m_pos) {
+                throw new IllegalArgumentException("Unexpected end of run state data");
+            }
+            String value = new String(m_data, m_pos, length, UTF8);
+            m_pos += length;
+            m_dictionary.add(value);
+            return value;
+        }
+
+        public int readIndex(int count) {
+            int index = readVarInt();
+            if (index < 0 || index >= count) {
+                throw new IllegalArgumentException("Invalid node index: " + index);
+            }
+            return index;
+        }
+
+        public <E extends Enum<E>> E readEnum(E[] values) {
+            int ordinal = readVarInt();
+            if (ordinal < 0 || ordinal >= values.length) {
+                throw new IllegalArgumentException("Invalid enum value in run state data");
+            }
+            return values[ordinal];
+        }
+
+        public boolean hasRemaining() {
+            return m_pos < m_data.length;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.rapidpro.expressions.utils.ExpressionUtils;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.utils.JsonUtils;
+import io.rapidpro.flows.utils.Jsonizable;
+import org.threeten.bp.Instant;
+
+import java.util.*;
+
+/**
+ * The changes made to a run state since a checkpoint, e.g. the new steps, values and contact changes from resuming
+ * it with a message. Deltas can be written instead of the full run state after every resume, and applied in order
+ * onto the last full snapshot to restore the run. A chain of deltas can be compacted by merging it into a single
+ * delta, or by applying it to its snapshot and writing a new snapshot.
+ */
+public class RunStateDelta implements Jsonizable {
+
+    // nulls are significant in deltas as they distinguish a value being cleared from a value being unchanged
+    protected static final Gson s_gson = new GsonBuilder().serializeNulls().create();
+
+    protected List<Field> m_fields;  // replaces all fields
+
+    protected List<Field> m_fieldsAdded = new ArrayList<>();
+
+    protected Map<String, String> m_contactChanges = new LinkedHashMap<>();  // uuid, name and language
+
+    protected List<ContactUrn> m_contactUrns;  // replaces all URNs
+
+    protected Set<String> m_groupsAdded = new LinkedHashSet<>();
+
+    protected Set<String> m_groupsRemoved = new LinkedHashSet<>();
+
+    protected Map<String, String> m_contactFieldsSet = new LinkedHashMap<>();
+
+    protected Set<String> m_contactFieldsRemoved = new LinkedHashSet<>();
+
+    protected Instant m_started;
+
+    protected List<Step> m_steps;  // replaces all steps
+
+    protected Map<String, Value> m_valuesSet = new LinkedHashMap<>();
+
+    protected Set<String> m_valuesRemoved = new LinkedHashSet<>();
+
+    protected Map<String, String> m_extraSet = new LinkedHashMap<>();
+
+    protected Set<String> m_extraRemoved = new LinkedHashSet<>();
+
+    protected RunState.State m_state;
+
+    /**
+     * Calculates the changes made to a run state since the given checkpoint
+     * @param checkpoint the checkpoint
+     * @param run the run state
+     * @return the delta
+     */
+    protected static RunStateDelta between(Checkpoint checkpoint, RunState run) {
+        RunStateDelta delta = new RunStateDelta();
+
+        // fields are normally only ever added to
+        List<Field> fields = run.m_fields;
+        if (fields.size() >= checkpoint.m_fields.size() && fields.subList(0, checkpoint.m_fields.size()).equals(checkpoint.m_fields)) {
+            delta.m_fieldsAdded.addAll(fields.subList(checkpoint.m_fields.size(), fields.size()));
+        } else {
+            delta.m_fields = new ArrayList<>(fields);
+        }
+
+        Contact contact = run.m_contact;
+        if (!Objects.equals(contact.m_uuid, checkpoint.m_contactUuid)) {
+            delta.m_contactChanges.put("uuid", contact.m_uuid);
+        }
+        if (!Objects.equals(contact.m_name, checkpoint.m_contactName)) {
+            delta.m_contactChanges.put("name", contact.m_name);
+        }
+        if (!Objects.equals(contact.m_language, checkpoint.m_contactLanguage)) {
+            delta.m_contactChanges.put("language", contact.m_language);
+        }
+        if (!contact.m_urns.equals(checkpoint.m_contactUrns)) {
+            delta.m_contactUrns = new ArrayList<>(contact.m_urns);
+        }
+        for (String group : contact.m_groups) {
+            if (!checkpoint.m_contactGroups.contains(group)) {
+                delta.m_groupsAdded.add(group);
+            }
+        }
+        for (String group : checkpoint.m_contactGroups) {
+            if (!contact.m_groups.contains(group)) {
+                delta.m_groupsRemoved.add(group);
+            }
+        }
+        diffMaps(checkpoint.m_contactFields, contact.m_fields, delta.m_contactFieldsSet, delta.m_contactFieldsRemoved);
+
+        if (!Objects.equals(run.m_started, checkpoint.m_started)) {
+            delta.m_started = run.m_started;
+        }
+
+        // steps are replaced with new step objects whenever a run is resumed
+        if (!sameElements(run.m_steps, checkpoint.m_steps)) {
+            delta.m_steps = new ArrayList<>(run.m_steps);
+        }
+
+        // values are immutable and replaced whenever they're updated
+        diffMaps(checkpoint.m_values, run.m_values, delta.m_valuesSet, delta.m_valuesRemoved);
+        diffMaps(checkpoint.m_extra, run.m_extra, delta.m_extraSet, delta.m_extraRemoved);
+
+        if (run.m_state != checkpoint.m_state) {
+            delta.m_state = run.m_state;
+        }
+
+        return delta;
+    }
+
+    protected static <V> void diffMaps(Map<String, V> before, Map<String, V> after, Map<String, V> set, Set<String> removed) {
+        for (Map.Entry<String, V> entry : after.entrySet()) {
+            String key = entry.getKey();
+            V value = entry.getValue();
+
+            if (!before.containsKey(key) || !sameValue(before.get(key), value)) {
+                set.put(key, value);
+            }
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+    }
+
+    protected static boolean sameValue(Object before, Object after) {
+        // strings are compared by value, and everything else by identity
+        return before instanceof String ? before.equals(after) : before == after;
+    }
+
+    protected static boolean sameElements(List<?> list1, List<?> list2) {
+        if (list1.size() != list2.size()) {
+            return false;
+        }
+        for (int i = 0; i < list1.size(); i++) {
+            if (list1.get(i) != list2.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies this delta to a run state, which should be in the state of the checkpoint this delta was calculated from
+     * @param run the run state
+     */
+    public void applyTo(RunState run) {
+        if (m_fields != null) {
+            run.m_fields.clear();
+            run.m_fields.addAll(m_fields);
+        }
+        run.m_fields.addAll(m_fieldsAdded);
+
+        Contact contact = run.m_contact;
+        if (m_contactChanges.containsKey("uuid")) {
+            contact.m_uuid = m_contactChanges.get("uuid");
+        }
+        if (m_contactChanges.containsKey("name")) {
+            contact.m_name = m_contactChanges.get("name");
+        }
+        if (m_contactChanges.containsKey("language")) {
+            contact.m_language = m_contactChanges.get("language");
+        }
+        if (m_contactUrns != null) {
+            contact.m_urns.clear();
+            contact.m_urns.addAll(m_contactUrns);
+        }
+        contact.m_groups.removeAll(m_groupsRemoved);
+        contact.m_groups.addAll(m_groupsAdded);
+        contact.m_fields.keySet().removeAll(m_contactFieldsRemoved);
+        contact.m_fields.putAll(m_contactFieldsSet);
+
+        if (m_started != null) {
+            run.m_started = m_started;
+        }
+        if (m_steps != null) {
+            run.m_steps.clear();
+            run.m_steps.addAll(m_steps);
+        }
+
+        run.m_values.keySet().removeAll(m_valuesRemoved);
+        run.m_values.putAll(m_valuesSet);
+        run.m_extra.keySet().removeAll(m_extraRemoved);
+        run.m_extra.putAll(m_extraSet);
+
+        if (m_state != null) {
+            run.m_state = m_state;
+        }
+    }
+
+    /**
+     * Merges this delta with the delta which follows it, giving a single delta with the same effect as applying both
+     * @param next the following delta
+     * @return the merged delta
+     */
+    public RunStateDelta merge(RunStateDelta next) {
+        RunStateDelta merged = new RunStateDelta();
+
+        if (next.m_fields != null) {
+            merged.m_fields = new ArrayList<>(next.m_fields);
+        } else {
+            merged.m_fields = m_fields != null ? new ArrayList<>(m_fields) : null;
+            merged.m_fieldsAdded.addAll(m_fieldsAdded);
+        }
+        merged.m_fieldsAdded.addAll(next.m_fieldsAdded);
+
+        merged.m_contactChanges.putAll(m_contactChanges);
+        merged.m_contactChanges.putAll(next.m_contactChanges);
+        merged.m_contactUrns = next.m_contactUrns != null ? next.m_contactUrns : m_contactUrns;
+
+        mergeChanges(m_groupsAdded, m_groupsRemoved, next.m_groupsAdded, next.m_groupsRemoved, merged.m_groupsAdded, merged.m_groupsRemoved);
+        mergeChanges(m_contactFieldsSet, m_contactFieldsRemoved, next.m_contactFieldsSet, next.m_contactFieldsRemoved, merged.m_contactFieldsSet, merged.m_contactFieldsRemoved);
+
+        merged.m_started = next.m_started != null ? next.m_started : m_started;
+        merged.m_steps = next.m_steps != null ? next.m_steps : m_steps;
+
+        mergeChanges(m_valuesSet, m_valuesRemoved, next.m_valuesSet, next.m_valuesRemoved, merged.m_valuesSet, merged.m_valuesRemoved);
+        mergeChanges(m_extraSet, m_extraRemoved, next.m_extraSet, next.m_extraRemoved, merged.m_extraSet, merged.m_extraRemoved);
+
+        merged.m_state = next.m_state != null ? next.m_state : m_state;
+        return merged;
+    }
+
+    protected static void mergeChanges(Set<String> added1, Set<String> removed1, Set<String> added2, Set<String> removed2, Set<String> added, Set<String> removed) {
+        added.addAll(added1);
+        added.removeAll(removed2);
+        added.addAll(added2);
+        removed.addAll(removed1);
+        removed.removeAll(added2);
+        removed.addAll(removed2);
+    }
+
+    protected static <V> void mergeChanges(Map<String, V> set1, Set<String> removed1, Map<String, V> set2, Set<String> removed2, Map<String, V> set, Set<String> removed) {
+        set.putAll(set1);
+        set.keySet().removeAll(removed2);
+        set.putAll(set2);
+        removed.addAll(removed1);
+        removed.removeAll(set2.keySet());
+        removed.addAll(removed2);
+    }
+
+    /**
+     * Merges a chain of deltas into a single delta
+     * @param deltas the deltas in the order they were made
+     * @return the merged delta
+     */
+    public static RunStateDelta compact(List<RunStateDelta> deltas) {
+        RunStateDelta merged = new RunStateDelta();
+        for (RunStateDelta delta : deltas) {
+            merged = merged.merge(delta);
+        }
+        return merged;
+    }
+
+    /**
+     * Gets whether this delta contains no changes
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return m_fields == null && m_fieldsAdded.isEmpty() && m_contactChanges.isEmpty() && m_contactUrns == null
+                && m_groupsAdded.isEmpty() && m_groupsRemoved.isEmpty() && m_contactFieldsSet.isEmpty()
+                && m_contactFieldsRemoved.isEmpty() && m_started == null && m_steps == null && m_valuesSet.isEmpty()
+                && m_valuesRemoved.isEmpty() && m_extraSet.isEmpty() && m_extraRemoved.isEmpty() && m_state == null;
+    }
+
+    /**
+     * Restores a delta from JSON
+     * @param json the JSON containing a serialized delta
+     * @param flow the flow the run state is for
+     * @return the delta
+     */
+    public static RunStateDelta fromJson(String json, Flow flow) {
+        JsonObject obj = JsonUtils.getGson().fromJson(json, JsonObject.class);
+        Flow.DeserializationContext context = new Flow.DeserializationContext(flow);
+        RunStateDelta delta = new RunStateDelta();
+
+        if (obj.has("fields")) {
+            delta.m_fields = JsonUtils.fromJsonArray(obj.get("fields").getAsJsonArray(), null, Field.class);
+        }
+        if (obj.has("fields_added")) {
+            delta.m_fieldsAdded = JsonUtils.fromJsonArray(obj.get("fields_added").getAsJsonArray(), null, Field.class);
+        }
+
+        if (obj.has("contact")) {
+            JsonObject contactObj = obj.get("contact").getAsJsonObject();
+            for (String key : Arrays.asList("uuid", "name", "language")) {
+                if (contactObj.has(key)) {
+                    delta.m_contactChanges.put(key, JsonUtils.getAsString(contactObj, key));
+                }
+            }
+            if (contactObj.has("urns")) {
+                delta.m_contactUrns = JsonUtils.fromJsonArray(contactObj.get("urns").getAsJsonArray(), null, ContactUrn.class);
+            }
+            delta.m_groupsAdded = readSet(contactObj, "groups_added");
+            delta.m_groupsRemoved = readSet(contactObj, "groups_removed");
+            if (contactObj.has("fields_set")) {
+                delta.m_contactFieldsSet = JsonUtils.fromJsonObject(contactObj.get("fields_set").getAsJsonObject(), null, String.class);
+            }
+            delta.m_contactFieldsRemoved = readSet(contactObj, "fields_removed");
+        }
+
+        delta.m_started = ExpressionUtils.parseJsonDate(JsonUtils.getAsString(obj, "started"));
+
+        if (obj.has("steps")) {
+            delta.m_steps = JsonUtils.fromJsonArray(obj.get("steps").getAsJsonArray(), context, Step.class);
+        }
+        if (obj.has("values_set")) {
+            delta.m_valuesSet = JsonUtils.fromJsonObject(obj.get("values_set").getAsJsonObject(), null, Value.class);
+        }
+        delta.m_valuesRemoved = readSet(obj, "values_removed");
+        if (obj.has("extra_set")) {
+            delta.m_extraSet = JsonUtils.fromJsonObject(obj.get("extra_set").getAsJsonObject(), null, String.class);
+        }
+        delta.m_extraRemoved = readSet(obj, "extra_removed");
+
+        String state = JsonUtils.getAsString(obj, "state");
+        if (state != null) {
+            delta.m_state = RunState.State.valueOf(state.toUpperCase());
+        }
+        return delta;
+    }
+
+    protected static Set<String> readSet(JsonObject obj, String memberName) {
+        if (!obj.has(memberName)) {
+            return new LinkedHashSet<>();
+        }
+        return new LinkedHashSet<>(JsonUtils.fromJsonArray(obj.get(memberName).getAsJsonArray(), null, String.class));
+    }
+
+    /**
+     * Serializes this delta to JSON, only including the parts of the run state which have changed
+     * @return the JSON
+     */
+    @Override
+    public JsonElement toJson() {
+        JsonObject obj = new JsonObject();
+
+        if (m_fields != null) {
+            obj.add("fields", JsonUtils.toJsonArray(m_fields));
+        }
+        if (!m_fieldsAdded.isEmpty()) {
+            obj.add("fields_added", JsonUtils.toJsonArray(m_fieldsAdded));
+        }
+
+        JsonObject contactObj = new JsonObject();
+        for (Map.Entry<String, String> change : m_contactChanges.entrySet()) {
+            contactObj.add(change.getKey(), JsonUtils.toJson(change.getValue()));
+        }
+        if (m_contactUrns != null) {
+            contactObj.add("urns", JsonUtils.toJsonArray(m_contactUrns));
+        }
+        addIfNotEmpty(contactObj, "groups_added", m_groupsAdded);
+        addIfNotEmpty(contactObj, "groups_removed", m_groupsRemoved);
+        if (!m_contactFieldsSet.isEmpty()) {
+            contactObj.add("fields_set", JsonUtils.toJsonObject(m_contactFieldsSet));
+        }
+        addIfNotEmpty(contactObj, "fields_removed", m_contactFieldsRemoved);
+        if (contactObj.entrySet().size() > 0) {
+            obj.add("contact", contactObj);
+        }
+
+        if (m_started != null) {
+            obj.addProperty("started", ExpressionUtils.formatJsonDate(m_started));
+        }
+        if (m_steps != null) {
+            obj.add("steps", JsonUtils.toJsonArray(m_steps));
+        }
+        if (!m_valuesSet.isEmpty()) {
+            obj.add("values_set", JsonUtils.toJsonObject(m_valuesSet));
+        }
+        addIfNotEmpty(obj, "values_removed", m_valuesRemoved);
+        if (!m_extraSet.isEmpty()) {
+            obj.add("extra_set", JsonUtils.toJsonObject(m_extraSet));
+        }
+        addIfNotEmpty(obj, "extra_removed", m_extraRemoved);
+        if (m_state != null) {
+            obj.addProperty("state", m_state.name().toLowerCase());
+        }
+        return obj;
+    }
+
+    protected static void addIfNotEmpty(JsonObject obj, String memberName, Set<String> items) {
+        if (!items.isEmpty()) {
+            obj.add(memberName, JsonUtils.toJsonArray(items));
+        }
+    }
+
+    /**
+     * Serializes this delta to a JSON string
+     * @return the JSON
+     */
+    public String toJsonString() {
+        return s_gson.toJson(toJson());
+    }
+
+    /**
+     * A copy of the parts of a run state needed to calculate what has changed since. Values, steps and fields are
+     * never modified once created so are shared rather than copied.
+     */
+    protected static class Checkpoint {
+
+        protected final List<Field> m_fields;
+
+        protected final String m_contactUuid;
+
+        protected final String m_contactName;
+
+        protected final String m_contactLanguage;
+
+        protected final List<ContactUrn> m_contactUrns;
+
+        protected final Set<String> m_contactGroups;
+
+        protected final Map<String, String> m_contactFields;
+
+        protected final Instant m_started;
+
+        protected final List<Step> m_steps;
+
+        protected final Map<String, Value> m_values;
+
+        protected final Map<String, String> m_extra;
+
+        protected final RunState.State m_state;
+
+        protected Checkpoint(RunState run) {
+            Contact contact = run.m_contact;
+
+            m_fields = new ArrayList<>(run.m_fields);
+            m_contactUuid = contact.m_uuid;
+            m_contactName = contact.m_name;
+            m_contactLanguage = contact.m_language;
+            m_contactUrns = new ArrayList<>(contact.m_urns);
+            m_contactGroups = new HashSet<>(contact.m_groups);
+            m_contactFields = new HashMap<>(contact.m_fields);
+            m_started = run.m_started;
+            m_steps = new ArrayList<>(run.m_steps);
+            m_values = new HashMap<>(run.m_values);
+            m_extra = new HashMap<>(run.m_extra);
+            m_state = run.m_state;
+        }
+    }
+}
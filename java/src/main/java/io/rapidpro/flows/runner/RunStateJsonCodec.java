@@ -0,0 +1,526 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.expressions.utils.ExpressionUtils;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.RuleSet;
+import io.rapidpro.flows.definition.actions.Action;
+import io.rapidpro.flows.utils.JsonUtils;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Streaming JSON encoding of run states, which reads and writes the same JSON as {@link RunState#toJson()} without
+ * building an intermediate tree of JSON elements. Only the performed actions in steps, which are polymorphic, are
+ * read and written as trees.
+ */
+public class RunStateJsonCodec {
+
+    /**
+     * Encodes a run state as a JSON string
+     * @param run the run state
+     * @return the JSON
+     */
+    public static String encode(RunState run) {
+        StringWriter buffer = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(buffer);
+
+            // match the output of Gson's default configuration
+            writer.setHtmlSafe(true);
+            writer.setSerializeNulls(false);
+
+            write(run, writer);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Decodes a run state from a JSON string
+     * @param json the JSON
+     * @param flow the flow the run state is for
+     * @return the run state
+     */
+    public static RunState decode(String json, Flow flow) {
+        return decode(json, flow, null);
+    }
+
+    /**
+     * Decodes a run state from a JSON string, sharing the given registry of the org's fields
+     * @param json the JSON
+     * @param flow the flow the run state is for
+     * @param registry the shared contact fields, or null if the run should only have its stored fields
+     * @return the run state
+     */
+    public static RunState decode(String json, Flow flow, FieldRegistry registry) {
+        try {
+            return read(new JsonReader(new StringReader(json)), flow, registry);
+        } catch (IOException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    /**
+     * Writes a run state to a JSON writer
+     * @param run the run state
+     * @param writer the JSON writer
+     */
+    public static void write(RunState run, JsonWriter writer) throws IOException {
+        writer.beginObject();
+
+        writer.name("org");
+        writeOrg(run.m_org, writer);
+
+        writer.name("fields").beginArray();
+        for (Field field : run.m_fields) {
+            writer.beginObject();
+            writer.name("key").value(field.m_key);
+            writer.name("label").value(field.m_label);
+            writer.name("value_type").value(field.m_valueType.m_code);
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.name("contact");
+        writeContact(run.m_contact, writer);
+
+        writer.name("started").value(ExpressionUtils.formatJsonDate(run.m_started));
+
+        writer.name("steps").beginArray();
+        for (Step step : run.m_steps) {
+            writeStep(step, writer);
+        }
+        writer.endArray();
+
+        writer.name("values").beginObject();
+        for (Map.Entry<String, Value> entry : run.m_values.entrySet()) {
+            Value value = entry.getValue();
+            writer.name(entry.getKey()).beginObject();
+            writer.name("value").value(value.m_value);
+            writer.name("category").value(value.m_category);
+            writer.name("text").value(value.m_text);
+            writer.name("time").value(ExpressionUtils.formatJsonDate(value.m_time));
+            writer.endObject();
+        }
+        writer.endObject();
+
+        writer.name("extra");
+        writeStringMap(run.m_extra, writer);
+
+        writer.name("state").value(run.m_state.name().toLowerCase());
+
+        writer.endObject();
+    }
+
+    protected static void writeOrg(Org org, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("country").value(org.m_country);
+        writer.name("primary_language").value(org.m_primaryLanguage);
+        writer.name("timezone").value(org.m_timezone.getId());
+        writer.name("date_style").value(org.m_dateStyle.name().toLowerCase());
+        writer.name("anon").value(org.m_anon);
+        writer.endObject();
+    }
+
+    protected static void writeContact(Contact contact, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("uuid").value(contact.m_uuid);
+        writer.name("name").value(contact.m_name);
+
+        writer.name("urns").beginArray();
+        for (ContactUrn urn : contact.m_urns) {
+            writer.value(urn.toString());
+        }
+        writer.endArray();
+
+        writer.name("groups").beginArray();
+        for (String group : contact.m_groups) {
+            writer.value(group);
+        }
+        writer.endArray();
+
+        writer.name("fields");
+        writeStringMap(contact.m_fields, writer);
+
+        writer.name("language").value(contact.m_language);
+        writer.endObject();
+    }
+
+    protected static void writeStep(Step step, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("node").value(step.m_node.getUuid());
+        writer.name("arrived_on").value(ExpressionUtils.formatJsonDate(step.m_arrivedOn));
+        writer.name("left_on").value(ExpressionUtils.formatJsonDate(step.m_leftOn));
+
+        RuleSet.Result result = step.m_ruleResult;
+        if (result != null) {
+            writer.name("rule").beginObject();
+            writer.name("uuid").value(result.getRule().getUuid());
+            writer.name("value").value(result.getValue());
+            writer.name("category").value(result.getCategory());
+            writer.name("text").value(result.getText());
+            writer.endObject();
+        } else {
+            writer.name("rule").nullValue();
+        }
+
+        writer.name("actions").beginArray();
+        for (Action action : step.m_actions) {
+            JsonUtils.getGson().toJson(action.toJson(), writer);
+        }
+        writer.endArray();
+
+        writer.name("errors").beginArray();
+        for (String error : step.m_errors) {
+            writer.value(error);
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+
+    protected static void writeStringMap(Map<String, String> map, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writer.name(entry.getKey()).value(entry.getValue());
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Reads a run state from a JSON reader
+     * @param reader the JSON reader
+     * @param flow the flow the run state is for
+     * @return the run state
+     */
+    public static RunState read(JsonReader reader, Flow flow) throws IOException {
+        return read(reader, flow, null);
+    }
+
+    /**
+     * Reads a run state from a JSON reader, sharing the given registry of the org's fields
+     * @param reader the JSON reader
+     * @param flow the flow the run state is for
+     * @param registry the shared contact fields, or null if the run should only have its stored fields
+     * @return the run state
+     */
+    public static RunState read(JsonReader reader, Flow flow, FieldRegistry registry) throws IOException {
+        Flow.DeserializationContext context = new Flow.DeserializationContext(flow);
+
+        Org org = null;
+        List<Field> fields = null;
+        Contact contact = null;
+        Instant started = null;
+        List<Step> steps = null;
+        Map<String, Value> values = null;
+        Map<String, String> extra = null;
+        RunState.State state = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "org":
+                    org = readOrg(reader);
+                    break;
+                case "fields":
+                    fields = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        fields.add(readField(reader));
+                    }
+                    reader.endArray();
+                    break;
+                case "contact":
+                    contact = readContact(reader);
+                    break;
+                case "started":
+                    started = ExpressionUtils.parseJsonDate(nextStringOrNull(reader));
+                    break;
+                case "steps":
+                    steps = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        steps.add(readStep(reader, context));
+                    }
+                    reader.endArray();
+                    break;
+                case "values":
+                    values = new HashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String key = reader.nextName();
+                        values.put(key, readValue(reader));
+                    }
+                    reader.endObject();
+                    break;
+                case "extra":
+                    extra = readStringMap(reader);
+                    break;
+                case "state":
+                    state = RunState.State.valueOf(reader.nextString().toUpperCase());
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (org == null || fields == null || contact == null || steps == null || values == null || extra == null || state == null) {
+            throw new JsonSyntaxException("Run state is missing required properties");
+        }
+
+        RunState run = RunState.restore(org, registry, fields, contact, flow);
+        run.m_started = started;
+        run.m_steps = steps;
+        run.m_values = values;
+        run.m_extra = extra;
+        run.m_state = state;
+        return run;
+    }
+
+    protected static Org readOrg(JsonReader reader) throws IOException {
+        String country = null, primaryLanguage = null, timezone = null, dateStyle = null;
+        boolean anon = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "country":
+                    country = nextStringOrNull(reader);
+                    break;
+                case "primary_language":
+                    primaryLanguage = nextStringOrNull(reader);
+                    break;
+                case "timezone":
+                    timezone = reader.nextString();
+                    break;
+                case "date_style":
+                    dateStyle = reader.nextString();
+                    break;
+                case "anon":
+                    anon = reader.nextBoolean();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (timezone == null || dateStyle == null) {
+            throw new JsonSyntaxException("Org is missing required properties");
+        }
+
+        return new Org(country, primaryLanguage, ZoneId.of(timezone), DateStyle.valueOf(dateStyle.toUpperCase()), anon);
+    }
+
+    protected static Field readField(JsonReader reader) throws IOException {
+        String key = null, label = null, valueType = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "key":
+                    key = nextStringOrNull(reader);
+                    break;
+                case "label":
+                    label = nextStringOrNull(reader);
+                    break;
+                case "value_type":
+                    valueType = nextStringOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Field(key, label, Field.ValueType.fromCode(valueType));
+    }
+
+    protected static Contact readContact(JsonReader reader) throws IOException {
+        String uuid = null, name = null, language = null;
+        List<ContactUrn> urns = new ArrayList<>();
+        Set<String> groups = new LinkedHashSet<>();
+        Map<String, String> fields = new HashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "uuid":
+                    uuid = nextStringOrNull(reader);
+                    break;
+                case "name":
+                    name = nextStringOrNull(reader);
+                    break;
+                case "urns":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        urns.add(ContactUrn.fromString(reader.nextString()));
+                    }
+                    reader.endArray();
+                    break;
+                case "groups":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        groups.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                case "fields":
+                    fields = readStringMap(reader);
+                    break;
+                case "language":
+                    language = nextStringOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Contact(uuid, name, urns, groups, fields, language);
+    }
+
+    protected static Step readStep(JsonReader reader, Flow.DeserializationContext context) throws IOException {
+        Flow.Node node = null;
+        Instant arrivedOn = null, leftOn = null;
+        RuleSet.Result result = null;
+        List<Action> actions = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "node":
+                    node = context.getFlow().getElementByUuid(reader.nextString());
+                    break;
+                case "arrived_on":
+                    arrivedOn = ExpressionUtils.parseJsonDate(nextStringOrNull(reader));
+                    break;
+                case "left_on":
+                    leftOn = ExpressionUtils.parseJsonDate(nextStringOrNull(reader));
+                    break;
+                case "rule":
+                    result = readRuleResult(reader, context);
+                    break;
+                case "actions":
+                    JsonParser parser = new JsonParser();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        JsonElement actionJson = parser.parse(reader);
+                        actions.add(JsonUtils.fromJson(actionJson, context, Action.class));
+                    }
+                    reader.endArray();
+                    break;
+                case "errors":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        errors.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Step(node, arrivedOn, leftOn, result, actions, errors);
+    }
+
+    protected static RuleSet.Result readRuleResult(JsonReader reader, Flow.DeserializationContext context) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        Rule rule = null;
+        String value = null, category = null, text = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "uuid":
+                    rule = context.getFlow().getElementByUuid(reader.nextString());
+                    break;
+                case "value":
+                    value = nextStringOrNull(reader);
+                    break;
+                case "category":
+                    category = nextStringOrNull(reader);
+                    break;
+                case "text":
+                    text = nextStringOrNull(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new RuleSet.Result(rule, value, category, text);
+    }
+
+    protected static Value readValue(JsonReader reader) throws IOException {
+        String value = null, category = null, text = null;
+        Instant time = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "value":
+                    value = nextStringOrNull(reader);
+                    break;
+                case "category":
+                    category = nextStringOrNull(reader);
+                    break;
+                case "text":
+                    text = nextStringOrNull(reader);
+                    break;
+                case "time":
+                    time = ExpressionUtils.parseJsonDate(nextStringOrNull(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Value(value, category, text, time);
+    }
+
+    protected static Map<String, String> readStringMap(JsonReader reader) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            map.put(key, nextStringOrNull(reader));
+        }
+        reader.endObject();
+        return map;
+    }
+
+    protected static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
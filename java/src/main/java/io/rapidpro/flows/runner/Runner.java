@@ -5,29 +5,37 @@ import io.rapidpro.expressions.EvaluationContext;
 import io.rapidpro.expressions.evaluator.Evaluator;
 import io.rapidpro.flows.definition.Flow;
 import io.rapidpro.flows.definition.RuleSet;
+import io.rapidpro.flows.definition.Template;
 import org.apache.commons.lang3.StringUtils;
 import org.threeten.bp.Instant;
 
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
- * Implementation of the flow runner
+ * Implementation of the flow runner. A runner holds no per-run state so one instance can be shared by any number of
+ * threads, as long as its template evaluator and location resolver are thread-safe. Each run state however should
+ * only be used by one thread at a time.
  */
 public class Runner {
 
-    protected Evaluator m_templateEvaluator;
+    protected final Evaluator m_templateEvaluator;
 
-    protected Location.Resolver m_locationResolver;
+    protected final Location.Resolver m_locationResolver;
 
-    protected Instant m_now;
+    protected final Instant m_now;
+
+    // whether our evaluator can evaluate compiled templates, which are compiled with the default expression prefix
+    protected final boolean m_defaultExpressionPrefix;
 
     public Runner(Evaluator templateEvaluator, Location.Resolver locationResolver, Instant now) {
         m_templateEvaluator = templateEvaluator;
         m_locationResolver = locationResolver;
         m_now = now;
+        m_defaultExpressionPrefix = templateEvaluator instanceof TemplateEvaluator
+                && ((TemplateEvaluator) templateEvaluator).getExpressionPrefix() == Template.EXPRESSION_PREFIX;
     }
 
     /**
@@ -39,6 +47,18 @@ public class Runner {
      * @return the run state
      */
     public RunState start(Org org, List<Field> fields, Contact contact, Flow flow) throws FlowRunException {
+        return start(org, new FieldRegistry(fields), contact, flow);
+    }
+
+    /**
+     * Starts a new run
+     * @param org the org
+     * @param fields the org's contact fields, which may be shared with other runs
+     * @param contact the contact
+     * @param flow the flow
+     * @return the run state
+     */
+    public RunState start(Org org, FieldRegistry fields, Contact contact, Flow flow) throws FlowRunException {
         RunState run = new RunState(org, fields, contact, flow);
         return resume(run, null);
     }
@@ -54,67 +74,87 @@ public class Runner {
             throw new FlowRunException("Cannot resume a completed run");
         }
 
-        Step lastStep = run.getSteps().size() > 0 ? run.getSteps().get(run.getSteps().size() - 1) : null;
+        // reuse the evaluation context between nodes and actions, rebuilding only the parts they change
+        run.setReuseContext(true);
+        try {
+            Step lastStep = run.getSteps().size() > 0 ? run.getSteps().get(run.getSteps().size() - 1) : null;
 
-        // reset steps list so that it doesn't grow forever in a never-ending flow
-        run.getSteps().clear();
+            // reset steps list so that it doesn't grow forever in a never-ending flow
+            run.getSteps().clear();
 
-        Flow.Node currentNode;
-        if (lastStep != null) {
-            currentNode = lastStep.getNode(); // we're resuming an existing run
-        }
-        else {
-            currentNode = run.getFlow().getEntry();  // we're starting a new run
-            if (currentNode == null) {
-                throw new FlowRunException("Flow has no entry point");
+            Flow.Node currentNode;
+            if (lastStep != null) {
+                currentNode = lastStep.getNode(); // we're resuming an existing run
+            }
+            else {
+                currentNode = run.getFlow().getEntry();  // we're starting a new run
+                if (currentNode == null) {
+                    throw new FlowRunException("Flow has no entry point");
+                }
             }
-        }
 
-        // tracks nodes visited so we can detect loops
-        Set<Flow.Node> nodesVisited = new LinkedHashSet<>();
+            // tracks nodes visited (by index) so we can detect loops
+            BitSet nodesVisited = new BitSet(run.getFlow().getNodeCount());
 
-        while (currentNode != null) {
-            // if we're resuming a previously paused step, then use its arrived on value
-            Instant arrivedOn;
-            if (lastStep != null && nodesVisited.size() == 0) {
-                arrivedOn = lastStep.getArrivedOn();
-            } else {
-                arrivedOn = Instant.now();
-            }
+            while (currentNode != null) {
+                // if we're resuming a previously paused step, then use its arrived on value
+                Instant arrivedOn;
+                if (lastStep != null && nodesVisited.isEmpty()) {
+                    arrivedOn = lastStep.getArrivedOn();
+                } else {
+                    arrivedOn = Instant.now();
+                }
 
-            // create new step for this node
-            Step step = new Step(currentNode, arrivedOn);
-            run.getSteps().add(step);
+                // create new step for this node
+                Step step = new Step(currentNode, arrivedOn);
+                run.getSteps().add(step);
 
-            // should we pause at this node?
-            if (currentNode instanceof RuleSet) {
-                if (((RuleSet) currentNode).isPause() && (input == null || input.isConsumed())) {
-                    run.setState(RunState.State.WAIT_MESSAGE);
-                    return run;
+                // should we pause at this node?
+                if (currentNode instanceof RuleSet) {
+                    if (((RuleSet) currentNode).isPause() && (input == null || input.isConsumed())) {
+                        run.setState(RunState.State.WAIT_MESSAGE);
+                        return run;
+                    }
                 }
-            }
 
-            // check for an non-pausing loop
-            if (nodesVisited.contains(currentNode)) {
-                throw new FlowLoopException(nodesVisited);
-            } else {
-                nodesVisited.add(currentNode);
-            }
+                // check for an non-pausing loop
+                if (nodesVisited.get(currentNode.getIndex())) {
+                    throw new FlowLoopException(getPath(run));
+                } else {
+                    nodesVisited.set(currentNode.getIndex());
+                }
+
+                Flow.Node nextNode = currentNode.visit(this, run, step, input);
 
-            Flow.Node nextNode = currentNode.visit(this, run, step, input);
+                if (nextNode != null) {
+                    // if we have a next node, then record leaving this one
+                    step.setLeftOn(Instant.now());
+                } else {
+                    // if not then we've completed this flow
+                    run.setState(RunState.State.COMPLETED);
+                }
 
-            if (nextNode != null) {
-                // if we have a next node, then record leaving this one
-                step.setLeftOn(Instant.now());
-            } else {
-                // if not then we've completed this flow
-                run.setState(RunState.State.COMPLETED);
+                currentNode = nextNode;
             }
 
-            currentNode = nextNode;
+            return run;
+        } finally {
+            run.setReuseContext(false);
         }
+    }
 
-        return run;
+    /**
+     * Gets the path of nodes visited before the current step, i.e. those of every step but the last
+     * @param run the run state
+     * @return the nodes
+     */
+    protected static List<Flow.Node> getPath(RunState run) {
+        List<Step> steps = run.getSteps();
+        List<Flow.Node> path = new ArrayList<>(steps.size());
+        for (int s = 0; s < steps.size() - 1; s++) {
+            path.add(steps.get(s).getNode());
+        }
+        return path;
     }
 
     /**
@@ -137,6 +177,53 @@ public class Runner {
         return m_templateEvaluator.evaluateTemplate(text, context, false, Evaluator.EvaluationStrategy.RESOLVE_AVAILABLE);
     }
 
+    /**
+     * Performs variable substitution on the the given compiled template
+     * @param template the template, e.g. "Hi @contact.name"
+     * @param context the evaluation context
+     * @return the evaluated template, e.g. "Hi Joe"
+     */
+    public EvaluatedTemplate substituteVariables(Template template, EvaluationContext context) {
+        return evaluateTemplate(template, context, Evaluator.EvaluationStrategy.COMPLETE);
+    }
+
+    /**
+     * Performs partial variable substitution on the the given compiled template
+     * @param template the template, e.g. "Hi @contact.name"
+     * @param context the evaluation context
+     * @return the evaluated template, e.g. "Hi Joe"
+     */
+    public EvaluatedTemplate substituteVariablesIfAvailable(Template template, EvaluationContext context) {
+        return evaluateTemplate(template, context, Evaluator.EvaluationStrategy.RESOLVE_AVAILABLE);
+    }
+
+    /**
+     * Evaluates a compiled template, falling back to its text if the evaluator doesn't support compiled templates
+     */
+    protected EvaluatedTemplate evaluateTemplate(Template template, EvaluationContext context, Evaluator.EvaluationStrategy strategy) {
+        if (m_templateEvaluator instanceof TemplateEvaluator) {
+            return ((TemplateEvaluator) m_templateEvaluator).evaluateTemplate(template, context, false, strategy);
+        }
+        return m_templateEvaluator.evaluateTemplate(template.getText(), context, false, strategy);
+    }
+
+    /**
+     * Gets whether the given template is static text, i.e. contains no expressions so evaluates to its own text
+     * @param template the template
+     * @return true if the template needn't be evaluated
+     */
+    public boolean isStatic(Template template) {
+        return m_defaultExpressionPrefix && template.isStatic();
+    }
+
+    /**
+     * Gets whether expressions are identified by the default prefix, so things found to be static when the flow was
+     * parsed are static for this runner
+     */
+    public boolean usesDefaultExpressionPrefix() {
+        return m_defaultExpressionPrefix;
+    }
+
     public Evaluator getTemplateEvaluator() {
         return m_templateEvaluator;
     }
@@ -232,6 +319,7 @@ public class Runner {
         }
 
         run.getContact().getFields().put(field.getKey(), actualValue);
+        run.invalidateContext(RunState.ContextLayer.CONTACT);
         return field;
     }
 
@@ -242,18 +330,14 @@ public class Runner {
      */
     public void updateExtra(RunState run, Map<String, String> values) {
         run.getExtra().putAll(values);
+        run.invalidateContext(RunState.ContextLayer.EXTRA);
     }
 
     /**
      * TODO this mimics what we currently do in RapidPro but needs changed
      */
     public Field getLocationField(RunState run, Field.ValueType type) {
-        for (Field field : run.m_fields) {
-            if (field.getValueType().equals(type)) {
-                return field;
-            }
-        }
-        return null;
+        return run.getFirstFieldOfType(type);
     }
 
     public Instant getNow() {
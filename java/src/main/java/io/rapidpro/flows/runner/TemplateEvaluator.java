@@ -0,0 +1,58 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.expressions.EvaluatedTemplate;
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.evaluator.Evaluator;
+import io.rapidpro.expressions.functions.FunctionManager;
+import io.rapidpro.flows.definition.Template;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Template evaluator which can also evaluate templates which were compiled when the flow was loaded
+ */
+public class TemplateEvaluator extends Evaluator {
+
+    protected final char m_expressionPrefix;
+
+    protected final Set<String> m_allowedTopLevels;
+
+    protected final FunctionManager m_functionManager;
+
+    public TemplateEvaluator(char expressionPrefix, Set<String> allowedTopLevels, List<Class<?>> functionLibraries) {
+        super(expressionPrefix, allowedTopLevels, functionLibraries);
+
+        m_expressionPrefix = expressionPrefix;
+        m_allowedTopLevels = allowedTopLevels;
+        m_functionManager = new FunctionManager();
+        for (Class<?> library : functionLibraries) {
+            m_functionManager.addLibrary(library);
+        }
+    }
+
+    /**
+     * Evaluates a compiled template
+     * @param template the template
+     * @param context the evaluation context
+     * @param urlEncode whether or not values should be URL encoded
+     * @param strategy the evaluation strategy
+     * @return the evaluated template
+     */
+    public EvaluatedTemplate evaluateTemplate(Template template, EvaluationContext context, boolean urlEncode, EvaluationStrategy strategy) {
+        // templates are compiled with the default prefix so anything else has to be evaluated from the text
+        if (m_expressionPrefix != Template.EXPRESSION_PREFIX) {
+            return evaluateTemplate(template.getText(), context, urlEncode, strategy);
+        }
+
+        return template.evaluate(m_functionManager, m_allowedTopLevels, context, urlEncode, strategy);
+    }
+
+    public char getExpressionPrefix() {
+        return m_expressionPrefix;
+    }
+
+    public Set<String> getAllowedTopLevels() {
+        return m_allowedTopLevels;
+    }
+}
@@ -0,0 +1,148 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.EvaluationError;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.expressions.evaluator.Conversions;
+import io.rapidpro.flows.definition.tests.date.DateScanner;
+import io.rapidpro.flows.definition.tests.numeric.NumericTest;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+import java.math.BigDecimal;
+
+/**
+ * A contact field or flow value stored as a string, with its decimal and date forms parsed the first time they're
+ * needed. Date forms depend on the timezone and date style of the evaluation context, so are parsed again if those
+ * change. Like the run state which owns it, this class is not thread-safe.
+ */
+public class TypedValue {
+
+    protected final String m_raw;
+
+    protected final Field.ValueType m_valueType;
+
+    protected BigDecimal m_decimal;
+
+    protected boolean m_decimalParsed;
+
+    // the context which the date forms below were parsed for
+    protected ZoneId m_timezone;
+
+    protected DateStyle m_dateStyle;
+
+    protected ZonedDateTime m_dateTime;
+
+    protected LocalDate m_date;
+
+    protected boolean m_dateParsed;
+
+    protected String m_contextValue;
+
+    /**
+     * Creates a new typed value
+     * @param raw the string value
+     * @param valueType the type of the contact field, or null for flow values
+     */
+    public TypedValue(String raw, Field.ValueType valueType) {
+        m_raw = raw;
+        m_valueType = valueType != null ? valueType : Field.ValueType.TEXT;
+    }
+
+    /**
+     * Gets whether this holds the given string value of the given type, i.e. whether it's still valid for a field
+     */
+    public boolean isFor(String raw, Field.ValueType valueType) {
+        return m_raw.equals(raw) && m_valueType == (valueType != null ? valueType : Field.ValueType.TEXT);
+    }
+
+    /**
+     * Gets the value as it appears in the evaluation context, which for datetime fields is the value formatted for the
+     * org
+     * @param context the evaluation context
+     * @return the context value
+     */
+    public String getContextValue(EvaluationContext context) {
+        if (m_valueType != Field.ValueType.DATETIME) {
+            return m_raw;
+        }
+
+        checkContext(context);
+        if (m_contextValue == null) {
+            m_contextValue = Conversions.toString(getDateTime(context), context);
+        }
+        return m_contextValue;
+    }
+
+    /**
+     * Gets the value as a decimal, parsed in the same way as test values
+     * @return the decimal or null if the context value isn't a decimal
+     */
+    public BigDecimal getDecimal() {
+        if (!m_decimalParsed) {
+            m_decimal = m_valueType != Field.ValueType.DATETIME ? NumericTest.parseDecimal(m_raw.trim()) : null;
+            m_decimalParsed = true;
+        }
+        return m_decimal;
+    }
+
+    /**
+     * Gets the value as a date, parsed in the same way as test values
+     * @param context the evaluation context
+     * @return the date or null if the context value isn't a date
+     */
+    public LocalDate getDate(EvaluationContext context) {
+        checkContext(context);
+        if (!m_dateParsed) {
+            if (m_valueType == Field.ValueType.DATETIME) {
+                try {
+                    m_date = getDateTime(context).withZoneSameInstant(context.getTimezone()).toLocalDate();
+                }
+                catch (EvaluationError ex) {
+                    m_date = null;
+                }
+            } else {
+                m_date = DateScanner.toDate(m_raw, context);
+            }
+            m_dateParsed = true;
+        }
+        return m_date;
+    }
+
+    /**
+     * Gets the value as a datetime
+     * @param context the evaluation context
+     * @return the datetime
+     * @throws EvaluationError if the value isn't a datetime
+     */
+    public ZonedDateTime getDateTime(EvaluationContext context) {
+        checkContext(context);
+        if (m_dateTime == null) {
+            m_dateTime = Conversions.toDateTime(m_raw, context);
+        }
+        return m_dateTime;
+    }
+
+    /**
+     * Discards the date forms if they were parsed for a different timezone or date style
+     */
+    protected void checkContext(EvaluationContext context) {
+        if (!context.getTimezone().equals(m_timezone) || context.getDateStyle() != m_dateStyle) {
+            m_timezone = context.getTimezone();
+            m_dateStyle = context.getDateStyle();
+            m_dateTime = null;
+            m_date = null;
+            m_dateParsed = false;
+            m_contextValue = null;
+        }
+    }
+
+    public String getRaw() {
+        return m_raw;
+    }
+
+    public Field.ValueType getValueType() {
+        return m_valueType;
+    }
+}
@@ -7,16 +7,21 @@ import io.rapidpro.expressions.evaluator.Conversions;
 import io.rapidpro.expressions.utils.ExpressionUtils;
 import io.rapidpro.flows.utils.JsonUtils;
 import io.rapidpro.flows.utils.Jsonizable;
+import io.rapidpro.flows.utils.LazyMap;
 import org.threeten.bp.Instant;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Holds the result of a contact's last visit to a ruleset
  */
 public class Value implements Jsonizable {
 
+    protected static final Set<String> s_contextKeys = new LinkedHashSet<>(Arrays.asList("*", "value", "category", "text", "time"));
+
     protected String m_value;
 
     protected String m_category;
@@ -25,6 +30,8 @@ public class Value implements Jsonizable {
 
     protected Instant m_time;
 
+    protected TypedValue m_typedValue;
+
     public Value(String value, String category, String text, Instant time) {
         m_value = value;
         m_category = category;
@@ -52,20 +59,43 @@ public class Value implements Jsonizable {
         );
     }
 
-    public Map<String, String> buildContext(EvaluationContext container) {
-        Map<String, String> context = new HashMap<>();
-        context.put("*", m_value);
-        context.put("value", m_value);
-        context.put("category", m_category);
-        context.put("text", m_text);
-        context.put("time", Conversions.toString(m_time.atZone(container.getTimezone()), container));
-        return context;
+    /**
+     * Builds the evaluation context for this value, with the time only formatted if it's used
+     * @param container the containing evaluation context
+     * @return the context
+     */
+    public Map<String, String> buildContext(final EvaluationContext container) {
+        return new LazyMap<String>(s_contextKeys) {
+            @Override
+            protected String compute(String key) {
+                switch (key) {
+                    case "category":
+                        return m_category;
+                    case "text":
+                        return m_text;
+                    case "time":
+                        return Conversions.toString(m_time.atZone(container.getTimezone()), container);
+                    default:
+                        return m_value;
+                }
+            }
+        };
     }
 
     public String getValue() {
         return m_value;
     }
 
+    /**
+     * Gets the typed form of the value, which is parsed as needed and kept for as long as this value is
+     */
+    public TypedValue getTypedValue() {
+        if (m_typedValue == null) {
+            m_typedValue = new TypedValue(m_value, null);
+        }
+        return m_typedValue;
+    }
+
     public String getCategory() {
         return m_category;
     }
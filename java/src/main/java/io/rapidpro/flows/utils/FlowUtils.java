@@ -7,9 +7,6 @@ import org.apache.commons.lang3.text.WordUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Miscellaneous utility methods
  */
@@ -19,36 +16,72 @@ public class FlowUtils {
      * Computes the Damerau-Levenshtein distance between the two given strings
      */
     public static int editDistance(String s1, String s2) {
-        Map<Pair<Integer, Integer>, Integer> d = new HashMap<>();
+        return editDistance(s1, s2, Integer.MAX_VALUE - 1);
+    }
+
+    /**
+     * Computes the Damerau-Levenshtein distance between the two given strings, giving up as soon as it's known to be
+     * more than the given maximum. Only three rows of the distance matrix are kept, in a single int array.
+     * @param s1 the first string
+     * @param s2 the second string
+     * @param maxDistance the maximum distance of interest
+     * @return the distance, or maxDistance + 1 if the distance is greater than maxDistance
+     */
+    public static int editDistance(String s1, String s2, int maxDistance) {
         int lenstr1 = s1.length();
         int lenstr2 = s2.length();
 
-        for (int i = -1; i < lenstr1 + 1; i++) {
-            d.put(new ImmutablePair<>(i, -1), i + 1);
+        // distance can't be less than the difference in lengths
+        if (Math.abs(lenstr1 - lenstr2) > maxDistance) {
+            return maxDistance + 1;
         }
-        for (int j = -1; j < lenstr2 + 1; j++) {
-            d.put(new ImmutablePair<>(-1, j), j + 1);
+
+        // rows for i - 2, i - 1 and i, where column j + 1 holds the distance for j, and column 0 for j = -1
+        int width = lenstr2 + 1;
+        int[] rows = new int[width * 3];
+        int prev2 = 0, prev = width, cur = width * 2;
+
+        for (int j = 0; j < width; j++) {
+            rows[prev + j] = j;
         }
+        int prevMin = 0;
 
         for (int i = 0; i < lenstr1; i++) {
+            rows[cur] = i + 1;
+            int curMin = i + 1;
+
             for (int j = 0; j < lenstr2; j++) {
                 int cost = s1.charAt(i) == s2.charAt(j) ? 0 : 1;
 
-                int deletion = d.get(new ImmutablePair<>(i - 1, j)) + 1;
-                int insertion = d.get(new ImmutablePair<>(i, j - 1)) + 1;
-                int substitution = d.get(new ImmutablePair<>(i - 1, j - 1)) + cost;
+                int deletion = rows[prev + j + 1] + 1;
+                int insertion = rows[cur + j] + 1;
+                int substitution = rows[prev + j] + cost;
 
                 int val = Math.min(deletion, Math.min(insertion, substitution));
 
                 if (i > 1 && j > 1 && s1.charAt(i) == s2.charAt(j - 1) && s1.charAt(i - 1) == s2.charAt(j)) {
-                    int transposition = d.get(new ImmutablePair<>(i - 2, j - 2)) + cost;
+                    int transposition = rows[prev2 + j - 1] + cost;
                     val = Math.min(val, transposition);
                 }
 
-                d.put(new ImmutablePair<>(i, j), val);
+                rows[cur + j + 1] = val;
+                curMin = Math.min(curMin, val);
+            }
+
+            // later rows can only be reached from this row, or the previous row with a transposition
+            if (curMin > maxDistance && prevMin >= maxDistance) {
+                return maxDistance + 1;
             }
+
+            int recycled = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = recycled;
+            prevMin = curMin;
         }
-        return d.get(new ImmutablePair<>(lenstr1 - 1, lenstr2 - 1));
+
+        int distance = rows[prev + lenstr2];
+        return distance <= maxDistance ? distance : maxDistance + 1;
     }
 
     /**
@@ -6,13 +6,46 @@ import io.rapidpro.flows.definition.Flow;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * JSON utility methods
  */
 public class JsonUtils {
 
-    protected static Gson s_gson = new GsonBuilder().create();
+    protected static final Gson s_gson = new GsonBuilder().create();
+
+    /**
+     * Creates objects of a given class from JSON
+     */
+    public interface Factory<T> {
+
+        /**
+         * Creates an object from JSON
+         * @param elm the JSON element (never null)
+         * @param context the deserialization context (may be null)
+         * @return the new object instance
+         */
+        T fromJson(JsonElement elm, Flow.DeserializationContext context);
+    }
+
+    // factories by class, so that each class's fromJson method is only looked up once
+    protected static final ConcurrentMap<Class<?>, Factory<?>> s_factories = new ConcurrentHashMap<>();
+    static {
+        s_factories.put(String.class, new Factory<String>() {
+            @Override
+            public String fromJson(JsonElement elm, Flow.DeserializationContext context) {
+                return elm.getAsString();
+            }
+        });
+        s_factories.put(Boolean.class, new Factory<Boolean>() {
+            @Override
+            public Boolean fromJson(JsonElement elm, Flow.DeserializationContext context) {
+                return elm.getAsBoolean();
+            }
+        });
+    }
 
     public static Gson getGson() {
         return s_gson;
@@ -125,22 +158,68 @@ public class JsonUtils {
             return null;
         }
 
-        if (clazz.equals(String.class)) {
-            return (T) elm.getAsString();
-        } else if (clazz.equals(Boolean.class)) {
-            return (T) (Boolean) elm.getAsBoolean();
+        return getFactory(clazz).fromJson(elm, context);
+    }
+
+    /**
+     * Gets the factory for the given class, which calls its static fromJson(JsonElement, DeserializationContext)
+     * method if there is a context, and its static fromJson(JsonElement) method if there isn't
+     * @param clazz the class
+     * @return the factory
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Factory<T> getFactory(Class<T> clazz) {
+        Factory<T> factory = (Factory<T>) s_factories.get(clazz);
+        if (factory == null) {
+            factory = new MethodFactory<>(clazz);
+            Factory<T> existing = (Factory<T>) s_factories.putIfAbsent(clazz, factory);
+            if (existing != null) {
+                factory = existing;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Factory which invokes a class's static fromJson methods, which are looked up when the factory is created
+     */
+    protected static class MethodFactory<T> implements Factory<T> {
+
+        protected final Method m_withContext;
+
+        protected final Method m_withoutContext;
+
+        protected final String m_className;
+
+        protected MethodFactory(Class<T> clazz) {
+            m_withContext = findMethod(clazz, JsonElement.class, Flow.DeserializationContext.class);
+            m_withoutContext = findMethod(clazz, JsonElement.class);
+            m_className = clazz.getName();
+        }
+
+        protected static Method findMethod(Class<?> clazz, Class<?>... parameterTypes) {
+            try {
+                return clazz.getDeclaredMethod("fromJson", parameterTypes);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
         }
 
-        try {
-            if (context != null) {
-                Method method = clazz.getDeclaredMethod("fromJson", JsonElement.class, Flow.DeserializationContext.class);
-                return (T) method.invoke(null, elm, context);
-            } else {
-                Method method = clazz.getDeclaredMethod("fromJson", JsonElement.class);
-                return (T) method.invoke(null, elm);
+        /**
+         * @see Factory#fromJson(JsonElement, Flow.DeserializationContext)
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public T fromJson(JsonElement elm, Flow.DeserializationContext context) {
+            Method method = context != null ? m_withContext : m_withoutContext;
+            try {
+                if (method == null) {
+                    throw new NoSuchMethodException(m_className + ".fromJson");
+                }
+                return context != null ? (T) method.invoke(null, elm, context) : (T) method.invoke(null, elm);
+            } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
+                throw new RuntimeException(e);
             }
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
-            throw new RuntimeException(e);
         }
     }
 
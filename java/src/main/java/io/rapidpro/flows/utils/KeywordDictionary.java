@@ -0,0 +1,181 @@
+package io.rapidpro.flows.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A dictionary of lowercase keywords which finds the words of an input which match each keyword, either exactly or
+ * fuzzily as defined by {@link #isFuzzyMatch(String, String)}. Fuzzy matches are found by indexing each keyword under
+ * all the strings made by deleting one of its characters, as two words within an edit distance of 1 always have at
+ * least one of those in common. So rather than comparing every word with every keyword, each word only has to be
+ * compared with the few keywords that share one of its deletions. Instances are immutable and so can be shared
+ * between threads.
+ */
+public class KeywordDictionary {
+
+    protected final String[] m_keywords;
+
+    protected final Map<String, Integer> m_keywordIds;
+
+    // keyword ids by the keyword itself and each of its single character deletions
+    protected final Map<String, int[]> m_fuzzyKeywordIds;
+
+    /**
+     * Creates a new dictionary
+     * @param keywords the keywords, which will be given ids in the order they first occur
+     */
+    public KeywordDictionary(List<String> keywords) {
+        List<String> distinct = new ArrayList<>();
+        Map<String, Integer> keywordIds = new HashMap<>();
+        Map<String, Set<Integer>> fuzzyKeywordIds = new HashMap<>();
+
+        for (String keyword : keywords) {
+            if (keywordIds.containsKey(keyword)) {
+                continue;
+            }
+            int id = distinct.size();
+            distinct.add(keyword);
+            keywordIds.put(keyword, id);
+
+            if (isFuzzyMatchable(keyword)) {
+                for (String key : deletions(keyword)) {
+                    Set<Integer> idsForKey = fuzzyKeywordIds.get(key);
+                    if (idsForKey == null) {
+                        idsForKey = new LinkedHashSet<>();
+                        fuzzyKeywordIds.put(key, idsForKey);
+                    }
+                    idsForKey.add(id);
+                }
+            }
+        }
+
+        Map<String, int[]> fuzzy = new HashMap<>();
+        for (Map.Entry<String, Set<Integer>> entry : fuzzyKeywordIds.entrySet()) {
+            int[] ids = new int[entry.getValue().size()];
+            int i = 0;
+            for (Integer id : entry.getValue()) {
+                ids[i++] = id;
+            }
+            fuzzy.put(entry.getKey(), ids);
+        }
+
+        m_keywords = distinct.toArray(new String[distinct.size()]);
+        m_keywordIds = keywordIds;
+        m_fuzzyKeywordIds = fuzzy;
+    }
+
+    /**
+     * Gets the id of the given keyword
+     * @param keyword the keyword
+     * @return the id or -1 if it's not in this dictionary
+     */
+    public int getId(String keyword) {
+        Integer id = m_keywordIds.get(keyword);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Gets the number of distinct keywords
+     * @return the number of keywords
+     */
+    public int size() {
+        return m_keywords.length;
+    }
+
+    /**
+     * Makes a single pass over the input words, finding the first word which matches each keyword
+     * @param words the lowercase words of the input
+     * @return the index of the first matching word for each keyword id, or -1 for keywords not matched
+     */
+    public int[] findFirstWords(String[] words) {
+        int[] firstWords = new int[m_keywords.length];
+        Arrays.fill(firstWords, -1);
+        int remaining = m_keywords.length;
+
+        for (int w = 0; w < words.length && remaining > 0; w++) {
+            String word = words[w];
+
+            Integer exact = m_keywordIds.get(word);
+            if (exact != null && firstWords[exact] < 0) {
+                firstWords[exact] = w;
+                remaining--;
+            }
+
+            if (isFuzzyMatchable(word) && !m_fuzzyKeywordIds.isEmpty()) {
+                for (String key : deletions(word)) {
+                    int[] candidates = m_fuzzyKeywordIds.get(key);
+                    if (candidates == null) {
+                        continue;
+                    }
+                    for (int id : candidates) {
+                        if (firstWords[id] < 0 && isFuzzyMatch(word, m_keywords[id])) {
+                            firstWords[id] = w;
+                            remaining--;
+                        }
+                    }
+                }
+            }
+        }
+        return firstWords;
+    }
+
+    /**
+     * Finds the first keyword which the given word is a fuzzy match for, by only comparing it with the keywords which
+     * share one of its deletions
+     * @param word the lowercase word
+     * @return the lowest id of a matching keyword, or -1 if no keyword matches
+     */
+    public int findFuzzy(String word) {
+        int found = -1;
+        if (isFuzzyMatchable(word)) {
+            for (String key : deletions(word)) {
+                int[] candidates = m_fuzzyKeywordIds.get(key);
+                if (candidates == null) {
+                    continue;
+                }
+                for (int id : candidates) {
+                    if ((found < 0 || id < found) && isFuzzyMatch(word, m_keywords[id])) {
+                        found = id;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Whether a word and keyword are a fuzzy match, i.e. both are over 4 characters, they start with the same letter
+     * and have an edit distance of 1 or less
+     * @param word the word
+     * @param keyword the keyword
+     * @return true if they match
+     */
+    public static boolean isFuzzyMatch(String word, String keyword) {
+        return isFuzzyMatchable(word) && isFuzzyMatchable(keyword) && word.charAt(0) == keyword.charAt(0)
+                && FlowUtils.editDistance(word, keyword, 1) <= 1;
+    }
+
+    /**
+     * Whether a word or keyword is long enough to be matched with an edit distance of 1
+     */
+    protected static boolean isFuzzyMatchable(String word) {
+        return word.length() > 4;
+    }
+
+    /**
+     * Gets a word and all the strings made by deleting one of its characters
+     */
+    protected static Set<String> deletions(String word) {
+        Set<String> deletions = new LinkedHashSet<>();
+        deletions.add(word);
+        for (int c = 0; c < word.length(); c++) {
+            deletions.add(word.substring(0, c) + word.substring(c + 1));
+        }
+        return deletions;
+    }
+}
@@ -0,0 +1,106 @@
+package io.rapidpro.flows.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only map with a fixed set of keys whose values are only computed when they're first read. Used for evaluation
+ * contexts where most templates only ever read one or two of the available values.
+ */
+public abstract class LazyMap<V> extends AbstractMap<String, V> {
+
+    protected static final Object NULL_VALUE = new Object();
+
+    protected final Set<String> m_keys;
+
+    protected final Map<String, Object> m_values = new HashMap<>();
+
+    /**
+     * Creates a new lazy map
+     * @param keys the keys which this map will contain
+     */
+    public LazyMap(Set<String> keys) {
+        m_keys = keys;
+    }
+
+    /**
+     * Computes the value for the given key
+     * @param key the key, which is always one of this map's keys
+     * @return the value
+     */
+    protected abstract V compute(String key);
+
+    /**
+     * @see Map#containsKey(Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return m_keys.contains(key);
+    }
+
+    /**
+     * @see Map#get(Object)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!m_keys.contains(key)) {
+            return null;
+        }
+
+        Object value = m_values.get(key);
+        if (value == null) {
+            value = compute((String) key);
+            m_values.put((String) key, value != null ? value : NULL_VALUE);
+        }
+        return value != NULL_VALUE ? (V) value : null;
+    }
+
+    /**
+     * @see Map#size()
+     */
+    @Override
+    public int size() {
+        return m_keys.size();
+    }
+
+    /**
+     * @see Map#entrySet()
+     */
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                final Iterator<String> keys = m_keys.iterator();
+
+                return new Iterator<Entry<String, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        String key = keys.next();
+                        return new SimpleImmutableEntry<>(key, get(key));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return m_keys.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package io.rapidpro.flows.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe cache which holds a maximum number of values, evicting the least recently used value when that is
+ * exceeded, and which counts hits and misses so its effectiveness can be monitored
+ */
+public class LruCache<K, V> {
+
+    protected final int m_maxSize;
+
+    protected final Map<K, V> m_values;
+
+    protected final AtomicLong m_hits = new AtomicLong();
+
+    protected final AtomicLong m_misses = new AtomicLong();
+
+    /**
+     * Creates a new cache
+     * @param maxSize the maximum number of values
+     */
+    public LruCache(final int maxSize) {
+        m_maxSize = maxSize;
+        m_values = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a value from the cache
+     * @param key the key
+     * @return the value or null if it's not in the cache
+     */
+    public V get(K key) {
+        V value;
+        synchronized (m_values) {
+            value = m_values.get(key);
+        }
+        if (value != null) {
+            m_hits.incrementAndGet();
+        } else {
+            m_misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Puts a value in the cache
+     * @param key the key
+     * @param value the value which must not be null
+     */
+    public void put(K key, V value) {
+        synchronized (m_values) {
+            m_values.put(key, value);
+        }
+    }
+
+    /**
+     * Removes all values from the cache
+     */
+    public void clear() {
+        synchronized (m_values) {
+            m_values.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (m_values) {
+            return m_values.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return m_maxSize;
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    /**
+     * Gets the proportion of lookups which were hits
+     * @return the hit rate between 0 and 1, or 0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long hits = m_hits.get();
+        long total = hits + m_misses.get();
+        return total > 0 ? (double) hits / total : 0;
+    }
+}
@@ -12,7 +12,14 @@ import org.junit.Test;
 import org.threeten.bp.ZoneOffset;
 import org.threeten.bp.ZonedDateTime;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
@@ -32,6 +39,62 @@ public class InteractionTest extends BaseFlowsTest {
         runInteractionTests("test_flows/basic-form.json", "test_runs/basic-form.runs.json");
     }
 
+    /**
+     * Runs the same interaction tests from many threads at once, with every thread sharing the same flows and runner
+     */
+    @Test
+    public void interactionTests_concurrently() throws Exception {
+        final String[][] files = {
+                {"test_flows/mushrooms.json", "test_runs/mushrooms.runs.json"},
+                {"test_flows/registration.json", "test_runs/registration.runs.json"},
+                {"test_flows/birthdate-check.json", "test_runs/birthdate-check.runs.json"},
+                {"test_flows/basic-form.json", "test_runs/basic-form.runs.json"}
+        };
+        final Flow[] flows = new Flow[files.length];
+        final JsonArray[] interactions = new JsonArray[files.length];
+        for (int f = 0; f < files.length; f++) {
+            flows[f] = Flow.fromJson(readResource(files[f][0]));
+            interactions[f] = JsonUtils.getGson().fromJson(readResource(files[f][1]), JsonArray.class);
+        }
+
+        final Runner runner = createRunner();
+        final CountDownLatch ready = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int t = 0; t < 32; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ready.await();
+
+                        // each thread works through the flows in a different order
+                        for (int f = 0; f < files.length; f++) {
+                            int index = (f + offset) % files.length;
+
+                            // test definitions are consumed as they're run so each thread needs its own
+                            List<TestDefinition> tests = JsonUtils.fromJsonArray(interactions[index], null, TestDefinition.class);
+                            for (TestDefinition test : tests) {
+                                runInteractionTest(runner, flows[index], test);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            ready.countDown();
+
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     protected void runInteractionTests(String flowFile, String interactionsFile) throws Exception {
         System.out.println("Running interaction tests from " + interactionsFile);
 
@@ -39,7 +102,15 @@ public class InteractionTest extends BaseFlowsTest {
 
         JsonArray interactionsJson = JsonUtils.getGson().fromJson(readResource(interactionsFile), JsonArray.class);
         List<TestDefinition> tests = JsonUtils.fromJsonArray(interactionsJson, null, TestDefinition.class);
-        Runner runner = new RunnerBuilder()
+        Runner runner = createRunner();
+
+        for (TestDefinition test : tests) {
+            runInteractionTest(runner, flow, test);
+        }
+    }
+
+    protected Runner createRunner() {
+        return new RunnerBuilder()
                 .withLocationResolver(new Location.Resolver() {
                     @Override
                     public Location resolve(String input, String country, Location.Level level, Location parent) {
@@ -53,10 +124,6 @@ public class InteractionTest extends BaseFlowsTest {
                 })
                 .withNowAs(ZonedDateTime.of(2015, 10, 15, 7, 48, 30, 123456789, ZoneOffset.UTC).toInstant())
                 .build();
-
-        for (TestDefinition test : tests) {
-            runInteractionTest(runner, flow, test);
-        }
     }
 
     protected void runInteractionTest(Runner runner, Flow flow, TestDefinition test) throws Exception {
@@ -0,0 +1,220 @@
+package io.rapidpro.flows.definition;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link FlowRegistry}
+ */
+public class FlowRegistryTest extends BaseFlowsTest {
+
+    protected static final String MUSHROOMS = "73c40f19-007d-46bd-83ea-aef439de9f9c";
+
+    protected Map<String, String> m_definitions;
+
+    protected AtomicInteger m_loads;
+
+    protected FlowRegistry.Loader m_loader;
+
+    @Before
+    public void setupDefinitions() throws Exception {
+        String mushrooms = readResource("test_flows/mushrooms.json");
+
+        m_definitions = new HashMap<>();
+        m_definitions.put(MUSHROOMS + "@25", mushrooms);
+        m_definitions.put(MUSHROOMS + "@26", mushrooms.replace("\"revision\": 25", "\"revision\": 26"));
+        m_definitions.put(MUSHROOMS + "@27", mushrooms.replace("\"revision\": 25", "\"revision\": 27"));
+        m_definitions.put(MUSHROOMS + "@99", mushrooms);  // stored under the wrong revision
+
+        m_loads = new AtomicInteger();
+        m_loader = new FlowRegistry.Loader() {
+            @Override
+            public String load(String flowUuid, int revision) {
+                m_loads.incrementAndGet();
+                return m_definitions.get(flowUuid + "@" + revision);
+            }
+        };
+    }
+
+    @Test
+    public void get() {
+        FlowRegistry registry = new FlowRegistry(m_loader, 1000000);
+
+        Flow flow = registry.get(MUSHROOMS, 25);
+        assertThat(flow.getUuid(), is(MUSHROOMS));
+        assertThat(flow.getRevision(), is(25));
+        assertThat(registry.getMisses(), is(1L));
+        assertThat(registry.getLoads(), is(1L));
+
+        // second request is a hit for the same instance
+        assertThat(registry.get(MUSHROOMS, 25), is(sameInstance(flow)));
+        assertThat(registry.getHits(), is(1L));
+        assertThat(registry.getLoads(), is(1L));
+
+        // other revisions are separate flows
+        Flow rev26 = registry.get(MUSHROOMS, 26);
+        assertThat(rev26.getRevision(), is(26));
+        assertThat(rev26, is(not(sameInstance(flow))));
+        assertThat(registry.size(), is(2));
+        assertThat(registry.getWeight(), is((long) (m_definitions.get(MUSHROOMS + "@25").length() * 2)));
+
+        // non-existent revisions aren't cached
+        assertThat(registry.get(MUSHROOMS, 30), is(nullValue()));
+        assertThat(registry.get(MUSHROOMS, 30), is(nullValue()));
+        assertThat(registry.size(), is(2));
+        assertThat(m_loads.get(), is(4));
+    }
+
+    @Test(expected = FlowParseException.class)
+    public void get_withWrongRevision() {
+        new FlowRegistry(m_loader, 1000000).get(MUSHROOMS, 99);
+    }
+
+    @Test
+    public void eviction() {
+        // only room for two flows
+        long weight = m_definitions.get(MUSHROOMS + "@25").length();
+        FlowRegistry registry = new FlowRegistry(m_loader, weight * 2);
+
+        Flow rev25 = registry.get(MUSHROOMS, 25);
+        registry.get(MUSHROOMS, 26);
+        registry.get(MUSHROOMS, 25);  // now 26 is least recently used
+        registry.get(MUSHROOMS, 27);
+
+        assertThat(registry.size(), is(2));
+        assertThat(registry.getEvictions(), is(1L));
+        assertThat(registry.getWeight(), is(weight * 2));
+
+        assertThat(registry.get(MUSHROOMS, 25), is(sameInstance(rev25)));
+        assertThat(registry.getLoads(), is(3L));
+
+        registry.get(MUSHROOMS, 26);
+        assertThat(registry.getLoads(), is(4L));
+    }
+
+    @Test
+    public void pinning() {
+        long weight = m_definitions.get(MUSHROOMS + "@25").length();
+        FlowRegistry registry = new FlowRegistry(m_loader, weight);
+
+        Flow pinned = registry.pin(MUSHROOMS, 25);
+        registry.get(MUSHROOMS, 26);
+        registry.get(MUSHROOMS, 27);
+
+        // pinned flow is never evicted, even when over the limit
+        assertThat(registry.get(MUSHROOMS, 25), is(sameInstance(pinned)));
+        assertThat(registry.getLoads(), is(3L));
+
+        registry.pin(MUSHROOMS, 25);
+        registry.unpin(MUSHROOMS, 25);
+        assertThat(registry.get(MUSHROOMS, 25), is(sameInstance(pinned)));
+
+        // once unpinned it can be evicted
+        registry.unpin(MUSHROOMS, 25);
+        registry.get(MUSHROOMS, 26);
+        assertThat(registry.size(), is(1));
+        assertThat(registry.get(MUSHROOMS, 25), is(not(sameInstance(pinned))));
+    }
+
+    @Test
+    public void pinning_overMaxWeight() {
+        long weight = m_definitions.get(MUSHROOMS + "@25").length();
+        FlowRegistry registry = new FlowRegistry(m_loader, weight);
+
+        registry.pin(MUSHROOMS, 25);
+        registry.pin(MUSHROOMS, 26);
+        assertThat(registry.getPinnedWeight(), is(weight * 2));
+
+        // pinned flows don't count towards the limit, so unpinned flows are still cached
+        Flow rev27 = registry.get(MUSHROOMS, 27);
+        assertThat(registry.get(MUSHROOMS, 27), is(sameInstance(rev27)));
+        assertThat(registry.getLoads(), is(3L));
+        assertThat(registry.getEvictions(), is(0L));
+        assertThat(registry.getWeight(), is(weight * 3));
+
+        // unpinning a flow puts the unpinned flows over the limit
+        registry.unpin(MUSHROOMS, 26);
+        assertThat(registry.getPinnedWeight(), is(weight));
+        assertThat(registry.getEvictions(), is(1L));
+        assertThat(registry.get(MUSHROOMS, 26), is(notNullValue()));
+        assertThat(registry.getLoads(), is(3L));  // 27 was least recently used so was evicted
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unpin_whenNotPinned() {
+        FlowRegistry registry = new FlowRegistry(m_loader, 1000000);
+        registry.get(MUSHROOMS, 25);
+        registry.unpin(MUSHROOMS, 25);
+    }
+
+    @Test
+    public void get_concurrently() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // loader which blocks until all threads are waiting on the same load
+        final FlowRegistry registry = new FlowRegistry(new FlowRegistry.Loader() {
+            @Override
+            public String load(String flowUuid, int revision) {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return m_loader.load(flowUuid, revision);
+            }
+        }, 1000000);
+
+        int numThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Flow>> results = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                results.add(executor.submit(new Callable<Flow>() {
+                    @Override
+                    public Flow call() throws Exception {
+                        return registry.get(MUSHROOMS, 25);
+                    }
+                }));
+            }
+
+            loading.await();
+            while (registry.getMisses() < numThreads) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            Flow first = results.get(0).get();
+            for (Future<Flow> result : results) {
+                assertThat(result.get(), is(sameInstance(first)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(m_loads.get(), is(1));
+        assertThat(registry.getLoads(), is(1L));
+        assertThat(registry.size(), is(1));
+
+        // loading slot was released when the entry was installed
+        assertThat(registry.m_loading.isEmpty(), is(true));
+        assertThat(registry.get(MUSHROOMS, 25), is(notNullValue()));
+        assertThat(registry.getLoads(), is(1L));
+    }
+}
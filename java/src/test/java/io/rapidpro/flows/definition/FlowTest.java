@@ -4,10 +4,16 @@ import io.rapidpro.flows.BaseFlowsTest;
 import io.rapidpro.flows.definition.actions.group.AddToGroupsAction;
 import io.rapidpro.flows.definition.actions.group.RemoveFromGroupsAction;
 import io.rapidpro.flows.definition.actions.message.ReplyAction;
+import io.rapidpro.flows.definition.tests.logic.AndTest;
+import io.rapidpro.flows.definition.tests.logic.OrTest;
 import io.rapidpro.flows.definition.tests.logic.TrueTest;
+import io.rapidpro.flows.definition.tests.numeric.BetweenTest;
+import io.rapidpro.flows.definition.tests.numeric.EqualTest;
 import io.rapidpro.flows.definition.tests.text.ContainsAnyTest;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
@@ -25,6 +31,8 @@ public class FlowTest extends BaseFlowsTest {
         assertThat(flow.getLanguages(), containsInAnyOrder("eng", "fre"));
         assertThat(flow.getMetadata().get("name").getAsString(), is("Mushrooms"));
         assertThat(flow.getMetadata().get("revision").getAsInt(), is(25));
+        assertThat(flow.getUuid(), is("73c40f19-007d-46bd-83ea-aef439de9f9c"));
+        assertThat(flow.getRevision(), is(25));
 
 
         ActionSet as1 = (ActionSet) flow.getEntry();
@@ -79,6 +87,51 @@ public class FlowTest extends BaseFlowsTest {
         assertThat(as4.getDestination(), is((Flow.Node) rs1));
     }
 
+    @Test
+    public void fromJson_indexesNodesAndRules() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+
+        assertThat(flow.getNodeCount(), is(6));
+        assertThat(flow.getRuleCount(), is(3));
+
+        for (int n = 0; n < flow.getNodeCount(); n++) {
+            Flow.Node node = flow.getNode(n);
+            assertThat(node.getIndex(), is(n));
+            assertThat(flow.getElementByUuid(node.getUuid()), is((Flow.Element) node));
+        }
+        for (int r = 0; r < flow.getRuleCount(); r++) {
+            assertThat(flow.getRule(r).getIndex(), is(r));
+        }
+
+        RuleSet rs1 = flow.getElementByUuid("1e318293-4730-481c-b455-daaaf86b2e6c");
+        assertThat(rs1.getRules().get(0), is(flow.getRule(0)));
+    }
+
+    @Test
+    public void fromJson_detectsStaticRuleSets() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+
+        // operand is @step.value and tests are constant words or true
+        RuleSet rs1 = flow.getElementByUuid("1e318293-4730-481c-b455-daaaf86b2e6c");
+        assertThat(rs1.m_static, is(true));
+
+        assertThat(new ContainsAnyTest(new TranslatableText("yes")).isStatic(), is(true));
+        assertThat(new ContainsAnyTest(new TranslatableText("@contact.name")).isStatic(), is(false));
+        assertThat(new BetweenTest("1", "5").isStatic(), is(true));
+        assertThat(new BetweenTest("1", "@contact.age").isStatic(), is(false));
+        assertThat(new AndTest(Arrays.<io.rapidpro.flows.definition.tests.Test>asList(new TrueTest(), new EqualTest("3"))).isStatic(), is(true));
+        assertThat(new OrTest(Arrays.<io.rapidpro.flows.definition.tests.Test>asList(new TrueTest(), new EqualTest("@flow.x"))).isStatic(), is(false));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    @SuppressWarnings("deprecation")
+    public void setDestination_afterParsing() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        RuleSet ruleSet = flow.getElementByUuid("1e318293-4730-481c-b455-daaaf86b2e6c");
+
+        ruleSet.getRules().get(0).setDestination(null);
+    }
+
     @Test
     public void fromJson_withEmptyFlow() throws Exception {
         Flow flow = Flow.fromJson(readResource("test_flows/empty.json"));
@@ -0,0 +1,136 @@
+package io.rapidpro.flows.definition;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.rapidpro.expressions.EvaluatedTemplate;
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.expressions.evaluator.Evaluator;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.runner.TemplateEvaluator;
+import org.junit.Test;
+import org.threeten.bp.ZoneId;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link Template}
+ */
+public class TemplateTest {
+
+    @Test
+    public void compile() {
+        Template template = new Template("Hi @contact.name, you said @@ @(UPPER(step.value))");
+        assertThat(template.m_parts, nullValue());
+
+        template.compile();
+
+        assertThat(template.m_parts, arrayWithSize(4));
+        assertThat(template.m_parts[0], is((Object) "Hi "));
+        assertThat(((Template.Expression) template.m_parts[1]).m_block, is("@contact.name"));
+        assertThat(((Template.Expression) template.m_parts[1]).m_topLevel, is("contact"));
+        assertThat(template.m_parts[2], is((Object) ", you said @ "));
+        assertThat(((Template.Expression) template.m_parts[3]).m_block, is("@(UPPER(step.value))"));
+        assertThat(((Template.Expression) template.m_parts[3]).m_topLevel, nullValue());
+
+        // text without expressions is a single literal
+        assertThat(new Template("Hello").compile().m_parts, arrayContaining((Object) "Hello"));
+        assertThat(new Template("").compile().m_parts, arrayContaining((Object) ""));
+
+        // null text can't be compiled but that's only an error when it's evaluated
+        assertThat(new Template(null).compile().m_parts, nullValue());
+    }
+
+    @Test
+    public void evaluate_sameAsEvaluator() {
+        TemplateEvaluator evaluator = (TemplateEvaluator) new RunnerBuilder().build().getTemplateEvaluator();
+
+        Map<String, Object> contact = new HashMap<>();
+        contact.put("*", "Joe Flow");
+        contact.put("name", "Joe Flow");
+        contact.put("first_name", "Joe");
+        contact.put("age", "34");
+
+        Map<String, Object> step = new HashMap<>();
+        step.put("*", "Yes please");
+        step.put("value", "Yes please");
+
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("contact", contact);
+        variables.put("step", step);
+
+        EvaluationContext context = new EvaluationContext(variables, ZoneId.of("Africa/Kigali"), DateStyle.DAY_FIRST);
+
+        List<String> texts = Arrays.asList(
+                "",
+                "Hello",
+                "Hi @contact.first_name",
+                "Hi @contact",
+                "@contact.name.",
+                "@contact.age years",
+                "Email: bob@nyaruka.com",
+                "@@contact.name is escaped",
+                "@@@contact.name",
+                "@",
+                "@ contact",
+                "Unbalanced @(1 + 2",
+                "Sum @(contact.age + 1) and @(LOWER(\"ABC\")) and @(\"(\" & \")\")",
+                "Missing @contact.xxx or @(step.value & contact.xxx)",
+                "Bad @(badexpression and @(1 +)",
+                "Unknown @foo.bar but @step.value",
+                "Functions @(UPPER(contact.name)) @(FIELD(step.value, 2, \" \"))",
+                "@(step.value & flow.xxx)"
+        );
+
+        for (String text : texts) {
+            Template template = new Template(text).compile();
+
+            for (Evaluator.EvaluationStrategy strategy : Evaluator.EvaluationStrategy.values()) {
+                for (boolean urlEncode : new boolean[] { false, true }) {
+                    EvaluatedTemplate expected = evaluator.evaluateTemplate(text, context, urlEncode, strategy);
+                    EvaluatedTemplate actual = evaluator.evaluateTemplate(template, context, urlEncode, strategy);
+
+                    assertThat(text, actual.getOutput(), is(expected.getOutput()));
+                    assertThat(text, actual.getErrors(), is(expected.getErrors()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void isStatic() {
+        assertThat(new Template("Hello").isStatic(), is(true));
+        assertThat(new Template("").isStatic(), is(true));
+        assertThat(new Template("Hi @contact.name").isStatic(), is(false));
+        assertThat(new Template("Email joe@@example.com").isStatic(), is(false));
+        assertThat(new Template(null).isStatic(), is(false));
+
+        assertThat(new RunnerBuilder().build().isStatic(new Template("Hello")), is(true));
+        assertThat(new RunnerBuilder().build().isStatic(new Template("Hi @contact.name")), is(false));
+    }
+
+    @Test
+    public void getTopLevels() {
+        assertThat(new Template("Hello").getTopLevels(), empty());
+        assertThat(new Template(null).getTopLevels(), empty());
+        assertThat(new Template("Email joe@@example.com").getTopLevels(), empty());
+        assertThat(new Template("Hi @contact.name, it's @DATE.now").getTopLevels(), containsInAnyOrder("contact", "date"));
+        assertThat(new Template("@(UPPER(contact.first_name) & \" \" & flow.color.category)").getTopLevels(), containsInAnyOrder("contact", "flow"));
+        assertThat(new Template("@(SUM(1, 2))").getTopLevels(), empty());
+    }
+
+    @Test
+    public void findTopLevels() {
+        JsonElement json = new JsonParser().parse("{\"type\": \"reply\", \"msg\": {\"eng\": \"Hi @contact\", \"fre\": \"Salut @(step.value)\"}, " +
+                "\"groups\": [{\"name\": \"@flow.group\"}], \"uuid\": 123}");
+
+        assertThat(Template.findTopLevels(json), containsInAnyOrder("contact", "step", "flow"));
+        assertThat(Template.findTopLevels(new JsonParser().parse("{\"msg\": \"Hello\"}")), empty());
+    }
+}
@@ -62,4 +62,12 @@ public class TranslatableTextTest {
         assertThat(new TranslatableText("eng", "Hello", "fra", "Bonjour").equals(new TranslatableText("eng", "Hello", "fra", "Bonjour")), is(true));
         assertThat(new TranslatableText("eng", "Hello", "fra", "Salut").equals(new TranslatableText("eng", "Hello", "fra", "Bonjour")), is(false));
     }
+
+    @Test
+    public void isStatic() {
+        assertThat(new TranslatableText("Hello").isStatic(), is(true));
+        assertThat(new TranslatableText("Hi @contact.name").isStatic(), is(false));
+        assertThat(new TranslatableText("eng", "Hello", "fra", "Bonjour").isStatic(), is(true));
+        assertThat(new TranslatableText("eng", "Hello", "fra", "Bonjour @contact.name").isStatic(), is(false));
+    }
 }
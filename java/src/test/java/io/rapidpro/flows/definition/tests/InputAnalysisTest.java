@@ -0,0 +1,72 @@
+package io.rapidpro.flows.definition.tests;
+
+import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.numeric.EqualTest;
+import io.rapidpro.flows.definition.tests.numeric.GreaterThanTest;
+import io.rapidpro.flows.definition.tests.text.ContainsAnyTest;
+import io.rapidpro.flows.definition.tests.text.ContainsTest;
+import org.threeten.bp.LocalDate;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link InputAnalysis}
+ */
+public class InputAnalysisTest extends BaseTestTest {
+
+    @org.junit.Test
+    public void tokens() {
+        InputAnalysis input = new InputAnalysis("Yes I LIKE them");
+
+        assertThat(input.getTokens(), arrayContaining("Yes", "I", "LIKE", "them"));
+        assertThat(input.getLowerTokens(), arrayContaining("yes", "i", "like", "them"));
+
+        // tokens are only computed once
+        assertThat(input.getTokens(), is(sameInstance(input.getTokens())));
+        assertThat(input.getLowerTokens(), is(sameInstance(input.getLowerTokens())));
+    }
+
+    @org.junit.Test
+    public void getDecimals() {
+        assertThat(new InputAnalysis("I have 1,234 apples and l2O pears").getDecimals(), contains(new BigDecimal(1234), new BigDecimal(120)));
+        assertThat(new InputAnalysis("12th of 3 things").getDecimals(), contains(new BigDecimal(12), new BigDecimal(3)));
+        assertThat(new InputAnalysis("none").getDecimals(), is(empty()));
+    }
+
+    @org.junit.Test
+    public void getDate() {
+        assertThat(new InputAnalysis("born on 3/5/1980").getDate(m_context), is(LocalDate.of(1980, 5, 3)));
+        assertThat(new InputAnalysis("no date").getDate(m_context), is(nullValue()));
+    }
+
+    @org.junit.Test
+    public void getPhoneNumber() {
+        InputAnalysis input = new InputAnalysis("My phone number is 0788 383 383");
+
+        assertThat(input.getPhoneNumber("RW"), is("+250788383383"));
+        assertThat(input.getPhoneNumber("US"), is(nullValue()));
+        assertThat(new InputAnalysis("+12067799294").getPhoneNumber("RW"), is("+12067799294"));
+    }
+
+    @org.junit.Test
+    public void sharedByTests() {
+        InputAnalysis input = new InputAnalysis("I have 12 red apples");
+
+        for (Test test : Arrays.asList(
+                new ContainsTest(new TranslatableText("green")),
+                new ContainsAnyTest(new TranslatableText("blue")),
+                new EqualTest("10"),
+                new GreaterThanTest("20"))) {
+            assertThat(test.evaluate(m_runner, m_run, m_context, input).isMatched(), is(false));
+        }
+
+        String[] tokens = input.getTokens();
+        assertThat(new ContainsTest(new TranslatableText("apples")).evaluate(m_runner, m_run, m_context, input).getValue(), is((Object) "apples"));
+        assertThat(new GreaterThanTest("10").evaluate(m_runner, m_run, m_context, input).getValue(), is((Object) new BigDecimal(12)));
+        assertThat(input.getTokens(), is(sameInstance(tokens)));
+    }
+}
@@ -0,0 +1,115 @@
+package io.rapidpro.flows.definition.tests;
+
+import com.google.gson.JsonObject;
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.tests.date.DateTest;
+import io.rapidpro.flows.definition.tests.numeric.NumericTest;
+import io.rapidpro.flows.utils.JsonUtils;
+import org.threeten.bp.LocalDate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link IntervalIndex}
+ */
+public class IntervalIndexTest extends BaseTestTest {
+
+    @org.junit.Test
+    public void numeric() {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(createRule(JsonUtils.object("type", "lt", "test", "0")));
+        rules.add(createRule(JsonUtils.object("type", "between", "min", "0", "max", "12")));
+        rules.add(createRule(JsonUtils.object("type", "eq", "test", "18")));
+        rules.add(createRule(JsonUtils.object("type", "lte", "test", " 17.5 ")));
+        rules.add(createRule(JsonUtils.object("type", "gt", "test", "@contact.age")));
+        rules.add(createRule(JsonUtils.object("type", "gt", "test", "xyz")));
+        rules.add(createRule(JsonUtils.object("type", "contains_any", "test", "old")));
+        rules.add(createRule(JsonUtils.object("type", "gte", "test", "65")));
+        rules.add(createRule(JsonUtils.object("type", "between", "min", "40", "max", "30")));
+        rules.add(createRule(JsonUtils.object("type", "number")));
+
+        IntervalIndex<BigDecimal> index = NumericTest.buildIndex(rules, '@');
+
+        assertThat(index.firstRule(new BigDecimal(-1)), is(0));
+        assertThat(index.firstRule(new BigDecimal(0)), is(1));
+        assertThat(index.firstRule(new BigDecimal("12.00")), is(1));
+        assertThat(index.firstRule(new BigDecimal("12.5")), is(3));
+        assertThat(index.firstRule(new BigDecimal(18)), is(2));
+        assertThat(index.firstRule(new BigDecimal(19)), is(9));
+        assertThat(index.firstRule(new BigDecimal(100)), is(7));
+
+        List<Boolean> indexed = new ArrayList<>();
+        for (int r = 0; r < rules.size(); r++) {
+            indexed.add(index.matcher(Collections.<BigDecimal>emptyList()).evaluate(r) != null);
+        }
+        assertThat(indexed, contains(true, true, true, true, false, true, false, true, true, true));
+
+        // indexed tests give the same results as evaluating each test
+        for (String text : Arrays.asList("-5", "0", "I am 12", "12.5", "17.5", "18", "1,800", "I am 19 or 70", "70 or 19",
+                "65", "64.99", "none", "", "l8", "3O", "20 5")) {
+            assertSameAsEvaluated(rules, text, index.matcher(new InputAnalysis(text).getDecimals()));
+        }
+    }
+
+    @org.junit.Test
+    public void dates() {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(createRule(JsonUtils.object("type", "date_before", "test", "31-12-1999")));
+        rules.add(createRule(JsonUtils.object("type", "date_equal", "test", "1-1-2000")));
+        rules.add(createRule(JsonUtils.object("type", "date_after", "test", "@(date.today + 1)")));
+        rules.add(createRule(JsonUtils.object("type", "date_before", "test", "2-1-2000")));
+        rules.add(createRule(JsonUtils.object("type", "date_after", "test", "1-1-2010")));
+        rules.add(createRule(JsonUtils.object("type", "date")));
+
+        IntervalIndex<LocalDate> index = DateTest.buildIndex(rules, '@', m_context);
+
+        assertThat(index.getKey(), is(DateTest.getIndexKey('@', m_context)));
+        assertThat(index.firstRule(LocalDate.of(1999, 12, 31)), is(0));
+        assertThat(index.firstRule(LocalDate.of(2000, 1, 1)), is(1));
+        assertThat(index.firstRule(LocalDate.of(2000, 1, 2)), is(3));
+        assertThat(index.firstRule(LocalDate.of(2000, 1, 3)), is(5));
+        assertThat(index.firstRule(LocalDate.of(2010, 1, 1)), is(4));
+
+        for (String text : Arrays.asList("1-1-1990", "31-12-1999", "1-1-2000", "2-1-2000", "3-1-2000", "1-1-2010",
+                "5-5-2050", "not a date")) {
+            LocalDate date = new InputAnalysis(text).getDate(m_context);
+            assertSameAsEvaluated(rules, text, index.matcher(date != null ? Collections.singletonList(date) : Collections.<LocalDate>emptyList()));
+        }
+    }
+
+    @org.junit.Test
+    public void build_withTooFewRules() {
+        List<Rule> rules = Arrays.asList(
+                createRule(JsonUtils.object("type", "lt", "test", "5")),
+                createRule(JsonUtils.object("type", "gt", "test", "@contact.age"))
+        );
+
+        IntervalIndex<BigDecimal> index = NumericTest.buildIndex(rules, '@');
+        assertThat(index.isEmpty(), is(true));
+        assertThat(index.firstRule(new BigDecimal(1)), is(-1));
+        assertThat(index.matcher(Collections.singletonList(new BigDecimal(1))).evaluate(0), is(nullValue()));
+    }
+
+    protected void assertSameAsEvaluated(List<Rule> rules, String text, IntervalIndex<?>.Matcher matcher) {
+        for (int r = 0; r < rules.size(); r++) {
+            Test.Result actual = matcher.evaluate(r);
+            if (actual != null) {
+                Test.Result expected = rules.get(r).getTest().evaluate(m_runner, m_run, m_context, text);
+
+                assertThat("rule " + r + " with '" + text + "'", actual.isMatched(), is(expected.isMatched()));
+                assertThat("rule " + r + " with '" + text + "'", actual.getValue(), is(expected.getValue()));
+            }
+        }
+    }
+
+    protected Rule createRule(JsonObject test) {
+        return Rule.fromJson(JsonUtils.object("uuid", "2b308f98-5237-401a-b74d-c7e0aaa809a9", "test", test, "category", "Cat"), m_deserializationContext);
+    }
+}
@@ -0,0 +1,59 @@
+package io.rapidpro.flows.definition.tests.date;
+
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.EvaluationError;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.expressions.evaluator.Conversions;
+import org.junit.Test;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link DateScanner}
+ */
+public class DateScannerTest {
+
+    @Test
+    public void toDate() {
+        EvaluationContext context = new EvaluationContext(new HashMap<String, Object>(), ZoneId.of("Africa/Kigali"), DateStyle.DAY_FIRST);
+
+        assertThat(DateScanner.toDate("31-12-1999", context), is(LocalDate.of(1999, 12, 31)));
+        assertThat(DateScanner.toDate("I was born on 3 Feb 1980", context), is(LocalDate.of(1980, 2, 3)));
+        assertThat(DateScanner.toDate("31-2-2000", context), is(nullValue()));
+        assertThat(DateScanner.toDate("not a date", context), is(nullValue()));
+        assertThat(DateScanner.toDate("", context), is(nullValue()));
+    }
+
+    @Test
+    public void toDate_sameAsConversions() {
+        List<String> texts = Arrays.asList("1-1-2000", "31-12-99", "29-2-2000", "29-2-2001", "31-4-2015", "32-1-2015",
+                "12/25/2015", "25/12/2015", "2015-12-25", "Dec 25", "25 december 2015", "january", "feb 30", "1-13-2000",
+                "0-1-2000", "1-0-2000", "12345678901234-1-2000", "99999999999", "1-1-2000 12:30", "1-1-2000 23:59:59",
+                "1-1-2000 24:00", "1-1-2000 12:60", "1-1-2000 11:30 pm", "1-1-2000 12:30 am", "1-1-2000 2400",
+                "1-1-2000 0930", "1-1-2000 10:30:15.123456 z", "2015-12-25T10:30:00.000000Z", "10:30", "10:30 pm",
+                "on 3 Feb I'll be 40", "l0-1-2000", "1 2 3 4 5 6 7 8 9", "٣-١-٢٠٠٠", "   ", "today", "5 days from 1-1-2000");
+
+        for (DateStyle style : DateStyle.values()) {
+            EvaluationContext context = new EvaluationContext(new HashMap<String, Object>(), ZoneId.of("Africa/Kigali"), style);
+
+            for (String text : texts) {
+                LocalDate expected;
+                try {
+                    expected = Conversions.toDate(text, context);
+                } catch (EvaluationError ex) {
+                    expected = null;
+                }
+
+                assertThat(style + " " + text, DateScanner.toDate(text, context), is(expected));
+            }
+        }
+    }
+}
@@ -3,8 +3,10 @@ package io.rapidpro.flows.definition.tests.numeric;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -28,4 +30,30 @@ public class NumericTestTest {
     public void extractDecimal_whenTextHasAlphaSubstitutionsAndSuffix() {
         NumericTest.extractDecimal("I23C");
     }
+
+    @Test
+    public void scanDecimal() {
+        assertThat(NumericTest.scanDecimal("120"), is(new BigDecimal(120)));
+        assertThat(NumericTest.scanDecimal("l2O"), is(new BigDecimal(120)));
+        assertThat(NumericTest.scanDecimal("123C"), is(new BigDecimal(123)));
+        assertThat(NumericTest.scanDecimal("abc"), is(nullValue()));
+        assertThat(NumericTest.scanDecimal("I23C"), is(nullValue()));
+        assertThat(NumericTest.scanDecimal(""), is(nullValue()));
+    }
+
+    @Test
+    public void parseDecimal() {
+        // should accept and reject exactly the same text as the BigDecimal constructor
+        for (String text : Arrays.asList("0", "-1", "+1.5", ".5", "5.", "1e3", "1.2E-3", "-.5e+10", "\u0661\u0662", "0012.00",
+                "", "-", "+", ".", "-.", "e5", "1e", "1e+", "1.2.3", "1e5.5", "--1", "1 ", " 1", "1,000", "abc", "12a",
+                "1e999999999", "1e0000000000001", "1e2147483648", "1e99999999999", "0.1e-2147483647", "1.5e-2147483648")) {
+            BigDecimal expected;
+            try {
+                expected = new BigDecimal(text);
+            } catch (NumberFormatException ex) {
+                expected = null;
+            }
+            assertThat(text, NumericTest.parseDecimal(text), is(expected));
+        }
+    }
 }
@@ -52,5 +52,13 @@ public class ContainsAnyTestTest extends BaseTestTest {
         assertTest(test, "good morning", true, "good");
         assertTest(test, "kLab is good", true, "kLab good");
         assertTest(test, "kigali city", false, null);
+
+        // enough words to be matched using a dictionary
+        test = new ContainsAnyTest(new TranslatableText("yes yeah yep sure okay affirmative certainly definitely yes"));
+        assertTest(test, "yes", true, "yes yes");  // matches are per test word
+        assertTest(test, "Sure, DEFINATELY yes!", true, "yes Sure DEFINATELY yes");
+        assertTest(test, "certainyl yep", true, "yep certainyl");
+        assertTest(test, "Ok YEES I will", false, null);
+        assertTest(test, "no", false, null);
     }
 }
@@ -0,0 +1,86 @@
+package io.rapidpro.flows.definition.tests.text;
+
+import io.rapidpro.flows.definition.Rule;
+import io.rapidpro.flows.definition.TranslatableText;
+import io.rapidpro.flows.definition.tests.BaseTestTest;
+import io.rapidpro.flows.definition.tests.InputAnalysis;
+import io.rapidpro.flows.definition.tests.Test;
+import io.rapidpro.flows.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link KeywordIndex}
+ */
+public class KeywordIndexTest extends BaseTestTest {
+
+    @org.junit.Test
+    public void evaluate() throws Exception {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(createRule(JsonUtils.object("type", "contains_any", "test", "yes,affirmative,yeah")));
+        rules.add(createRule(JsonUtils.object("type", "contains", "test", JsonUtils.object("eng", "red apples", "fre", "pommes rouges"))));
+        rules.add(createRule(JsonUtils.object("type", "contains", "test", "apples apples")));
+        rules.add(createRule(JsonUtils.object("type", "starts", "test", "Stop")));
+        rules.add(createRule(JsonUtils.object("type", "contains_any", "test", "@contact.first_name")));
+        rules.add(createRule(JsonUtils.object("type", "number")));
+        rules.add(createRule(JsonUtils.object("type", "contains", "test", "")));
+        rules.add(createRule(JsonUtils.object("type", "contains_any", "test", "")));
+
+        KeywordIndex index = KeywordIndex.build(rules, Arrays.asList("eng"), '@');
+
+        // the templated and non-text tests aren't indexed
+        List<Boolean> indexed = new ArrayList<>();
+        for (int r = 0; r < rules.size(); r++) {
+            indexed.add(index.matcher(new InputAnalysis("")).evaluate(r, rules.get(r).getTest()) != null);
+        }
+        assertThat(indexed, contains(true, true, true, true, false, false, true, true));
+
+        // indexed tests give the same results as evaluating each test
+        for (String text : Arrays.asList("yes", "AFFIRMATIVE SIR", "affirmative yes", "afirmative!", "Ok YEES I will",
+                "I like Red Apples", "red aples please", "READ appples", "apples", "apple", "appless and red",
+                "  STOPPED", "stop", "st", "Yes, stop", "yeah yes", "", "   ", "Bob", "Affirmative affirmatve")) {
+
+            KeywordIndex.Matcher matcher = index.matcher(new InputAnalysis(text));
+
+            for (int r = 0; r < rules.size(); r++) {
+                Test test = rules.get(r).getTest();
+                if (!indexed.get(r)) {
+                    continue;
+                }
+                Test.Result expected = test.evaluate(m_runner, m_run, m_context, text);
+                Test.Result actual = matcher.evaluate(r, test);
+
+                assertThat("rule " + r + " with '" + text + "'", actual.isMatched(), is(expected.isMatched()));
+                assertThat("rule " + r + " with '" + text + "'", actual.getValue(), is(expected.getValue()));
+            }
+        }
+
+        // tests are localized using the preferred languages
+        KeywordIndex french = KeywordIndex.build(rules, Arrays.asList("fre", "eng"), '@');
+        assertThat(french.matcher(new InputAnalysis("des pommes rouges")).evaluate(1, rules.get(1).getTest()).getValue(), is((Object) "pommes rouges"));
+        assertThat(french.matcher(new InputAnalysis("red apples")).evaluate(1, rules.get(1).getTest()).isMatched(), is(false));
+
+        // a different expression prefix means the @ test is static
+        KeywordIndex dollar = KeywordIndex.build(rules, Arrays.asList("eng"), '$');
+        assertThat(dollar.matcher(new InputAnalysis("@contact.first_name")).evaluate(4, rules.get(4).getTest()).isMatched(), is(true));
+    }
+
+    @org.junit.Test
+    public void build_withTooFewRules() throws Exception {
+        List<Rule> rules = Arrays.asList(
+                createRule(JsonUtils.object("type", "contains_any", "test", "yes")),
+                createRule(JsonUtils.object("type", "number"))
+        );
+
+        assertThat(KeywordIndex.build(rules, Arrays.asList("eng"), '@').isEmpty(), is(true));
+    }
+
+    protected Rule createRule(Object test) {
+        return Rule.fromJson(JsonUtils.object("uuid", "2b308f98-5237-401a-b74d-c7e0aaa809a9", "test", test, "category", "Cat"), m_deserializationContext);
+    }
+}
@@ -9,12 +9,11 @@ import io.rapidpro.flows.utils.JsonUtils;
 import java.util.HashMap;
 import java.util.Map;
 
-import static org.hamcrest.Matchers.hasEntry;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
 /**
- * Test for {@link ContainsTest}
+ * Test for {@link RegexTest}
  */
 public class RegexTestTest extends BaseTestTest {
 
@@ -40,6 +39,27 @@ public class RegexTestTest extends BaseTestTest {
         assertThat(m_run.getExtra(), hasEntry("first_name", (Object) "Isaac"));
     }
 
+    @org.junit.Test
+    public void evaluate_withTranslations() {
+        RegexTest test = new RegexTest(new TranslatableText("eng", "^yes$", "fre", "^oui$", "kin", "[invalid"));
+
+        // every translation is compiled up front
+        assertThat(test.m_compiled.keySet(), containsInAnyOrder("^yes$", "^oui$", "[invalid"));
+        assertThat(test.m_compiled.get("[invalid").m_pattern, is(nullValue()));
+
+        assertTest(test, "YES", true, "YES");
+        assertTest(test, "oui", false, null);
+
+        m_run.getContact().setLanguage("fre");
+        assertTest(test, "oui", true, "oui");
+
+        m_run.getContact().setLanguage("kin");
+        assertTest(test, "[invalid", false, null);
+
+        // anything else is compiled when it's needed
+        assertThat(test.getCompiled("").m_pattern, is(notNullValue()));
+    }
+
     @org.junit.Test
     public void pythonToJavaRegex() {
         Map<String, String> groupNames = new HashMap<>();
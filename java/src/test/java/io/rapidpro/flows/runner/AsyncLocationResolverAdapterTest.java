@@ -0,0 +1,52 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link AsyncLocationResolverAdapter}
+ */
+public class AsyncLocationResolverAdapterTest extends BaseFlowsTest {
+
+    @Test
+    public void resolveAll() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Location.AsyncResolver resolver = new AsyncLocationResolverAdapter(new TestLocationResolver(), executor);
+            Location kigali = new TestLocationResolver().resolve("Kigali", "RW", Location.Level.STATE, null);
+
+            Future<List<Location>> future = resolver.resolveAll(Arrays.asList(
+                    new Location.Query("kigali", "RW", Location.Level.STATE, null),
+                    new Location.Query("Nowhere", "RW", Location.Level.STATE, null),
+                    new Location.Query("gasabo", "RW", Location.Level.DISTRICT, kigali)
+            ));
+
+            List<Location> locations = future.get();
+            assertThat(locations, hasSize(3));
+            assertThat(locations.get(0).getOsmId(), is("S0001"));
+            assertThat(locations.get(1), is(nullValue()));
+            assertThat(locations.get(2).getOsmId(), is("D0001"));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void resolveAll_withoutExecutor() throws Exception {
+        Location.AsyncResolver resolver = new AsyncLocationResolverAdapter(new TestLocationResolver(), null);
+
+        Future<List<Location>> future = resolver.resolveAll(Arrays.asList(new Location.Query("kigali", "RW", Location.Level.STATE, null)));
+        assertThat(future.isDone(), is(true));
+        assertThat(future.get().get(0).getName(), is("Kigali"));
+    }
+}
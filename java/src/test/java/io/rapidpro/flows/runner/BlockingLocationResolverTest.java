@@ -0,0 +1,78 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link BlockingLocationResolver}
+ */
+public class BlockingLocationResolverTest extends BaseFlowsTest {
+
+    @Test
+    public void resolve() {
+        Location.Resolver resolver = new BlockingLocationResolver(new AsyncLocationResolverAdapter(new TestLocationResolver(), null), 1000);
+
+        assertThat(resolver.resolve("Kigali", "RW", Location.Level.STATE, null).getOsmId(), is("S0001"));
+        assertThat(resolver.resolve("Nowhere", "RW", Location.Level.STATE, null), is(nullValue()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resolve_whenTimesOut() {
+        Location.AsyncResolver neverResolves = new Location.AsyncResolver() {
+            @Override
+            public Future<List<Location>> resolveAll(List<Location.Query> queries) {
+                return new FutureTask<>(new Runnable() {
+                    @Override
+                    public void run() {}
+                }, null);
+            }
+        };
+
+        new BlockingLocationResolver(neverResolves, 10).resolve("Kigali", "RW", Location.Level.STATE, null);
+    }
+
+    @Test
+    public void resolve_cancelsAbandonedLookups() {
+        final List<Future<List<Location>>> futures = new ArrayList<>();
+        Location.AsyncResolver neverResolves = new Location.AsyncResolver() {
+            @Override
+            public Future<List<Location>> resolveAll(List<Location.Query> queries) {
+                FutureTask<List<Location>> future = new FutureTask<>(new Runnable() {
+                    @Override
+                    public void run() {}
+                }, null);
+                futures.add(future);
+                return future;
+            }
+        };
+        Location.Resolver resolver = new BlockingLocationResolver(neverResolves, 10);
+
+        // lookup which times out
+        try {
+            resolver.resolve("Kigali", "RW", Location.Level.STATE, null);
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage(), is("Timed out resolving location"));
+        }
+
+        // lookup which is interrupted
+        Thread.currentThread().interrupt();
+        try {
+            resolver.resolve("Kigali", "RW", Location.Level.STATE, null);
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage(), is("Interrupted whilst resolving location"));
+        }
+        assertThat(Thread.interrupted(), is(true));
+
+        assertThat(futures, hasSize(2));
+        assertThat(futures.get(0).isCancelled(), is(true));
+        assertThat(futures.get(1).isCancelled(), is(true));
+    }
+}
@@ -0,0 +1,117 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link BulkStarter}
+ */
+public class BulkStarterTest extends BaseFlowsTest {
+
+    @Test
+    public void start() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        final int numContacts = 500;
+        final int maxPending = 8;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        // iterator which tracks how many contacts have been taken but not yet returned to the callback
+        Iterator<Contact> contacts = new Iterator<Contact>() {
+            int m_next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return m_next < numContacts;
+            }
+
+            @Override
+            public Contact next() {
+                int current = inFlight.incrementAndGet();
+                if (current > maxInFlight.get()) {
+                    maxInFlight.set(current);
+                }
+                String uuid = "contact-" + (m_next++);
+                return new Contact(uuid, "Joe " + uuid, ContactUrn.fromString("tel:+260964153686"), "eng");
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final Map<String, RunState> runs = new ConcurrentHashMap<>();
+
+        BulkStarter starter = new BulkStarter(runner, executor, maxPending);
+        int count = starter.start(m_org, m_fields, flow, contacts, new BulkStarter.Callback() {
+            @Override
+            public void onStarted(RunState run) {
+                runs.put(run.getContact().getUuid(), run);
+                inFlight.decrementAndGet();
+            }
+
+            @Override
+            public void onError(Contact contact, Exception ex) {
+                inFlight.decrementAndGet();
+            }
+        });
+
+        executor.shutdown();
+
+        assertThat(count, is(numContacts));
+        assertThat(runs.size(), is(numContacts));
+
+        // one contact may have been taken from the iterator while waiting for a free slot
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(maxPending + 1));
+
+        RunState run = runs.get("contact-123");
+        assertThat(run.getState(), is(RunState.State.WAIT_MESSAGE));
+        assertThat(run.getSteps().get(0).getActions(), hasSize(1));
+        assertReply(run.getSteps().get(0).getActions().get(0), "Hi Joe. Do you like mushrooms?");
+    }
+
+    @Test
+    public void start_withErrors() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // a null contact will cause the start to fail
+        List<Contact> contacts = Arrays.asList(m_contact, null, m_contact);
+
+        final AtomicInteger started = new AtomicInteger();
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+        new BulkStarter(runner, executor, 2).start(m_org, m_fields, flow, contacts.iterator(), new BulkStarter.Callback() {
+            @Override
+            public void onStarted(RunState run) {
+                started.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Contact contact, Exception ex) {
+                errors.add(ex);
+            }
+        });
+
+        executor.shutdown();
+
+        assertThat(started.get(), is(2));
+        assertThat(errors, hasSize(1));
+    }
+}
@@ -0,0 +1,125 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link CachingLocationResolver}
+ */
+public class CachingLocationResolverTest extends BaseFlowsTest {
+
+    protected AtomicInteger m_calls;
+
+    protected Location.Resolver m_counting;
+
+    @Before
+    public void setupResolver() {
+        m_calls = new AtomicInteger();
+
+        final Location.Resolver resolver = new TestLocationResolver();
+        m_counting = new Location.Resolver() {
+            @Override
+            public Location resolve(String text, String country, Location.Level level, Location parent) {
+                m_calls.incrementAndGet();
+                return resolver.resolve(text, country, level, parent);
+            }
+        };
+    }
+
+    @Test
+    public void resolve() {
+        CachingLocationResolver resolver = new CachingLocationResolver(m_counting, 100, false);
+
+        Location kigali = resolver.resolve("Kigali", "RW", Location.Level.STATE, null);
+        assertThat(kigali.getOsmId(), is("S0001"));
+        assertThat(m_calls.get(), is(1));
+
+        // names are normalized
+        assertThat(resolver.resolve(" KIGALI ", "RW", Location.Level.STATE, null), is(sameInstance(kigali)));
+        assertThat(m_calls.get(), is(1));
+
+        // but results are scoped by country, level and parent
+        assertThat(resolver.resolve("Kigali", "UG", Location.Level.STATE, null), is(sameInstance(kigali)));
+        assertThat(resolver.resolve("Kigali", "RW", Location.Level.DISTRICT, kigali), is(nullValue()));
+        assertThat(m_calls.get(), is(3));
+
+        Location gasabo = resolver.resolve("Gasabo", "RW", Location.Level.DISTRICT, kigali);
+        assertThat(resolver.resolve("gasabo", "RW", Location.Level.DISTRICT, new Location("S0001", "Kigali", Location.Level.STATE)), is(sameInstance(gasabo)));
+        assertThat(m_calls.get(), is(4));
+
+        // without negative caching, names not found are always passed on
+        assertThat(resolver.resolve("Nowhere", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(resolver.resolve("Nowhere", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(m_calls.get(), is(6));
+
+        assertThat(resolver.size(), is(3));
+        assertThat(resolver.getHits(), is(2L));
+        assertThat(resolver.getMisses(), is(6L));
+        assertThat(resolver.getResolves(), is(6L));
+        assertThat(resolver.getNotFoundHits(), is(0L));
+        assertThat(resolver.getHitRate(), is(0.25));
+
+        resolver.clear();
+        resolver.resolve("Kigali", "RW", Location.Level.STATE, null);
+        assertThat(m_calls.get(), is(7));
+    }
+
+    @Test
+    public void resolve_withNegativeCaching() {
+        CachingLocationResolver resolver = new CachingLocationResolver(m_counting, 100, true);
+
+        assertThat(resolver.resolve("Nowhere", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(resolver.resolve("nowhere", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(m_calls.get(), is(1));
+        assertThat(resolver.getNotFoundHits(), is(1L));
+    }
+
+    @Test
+    public void preload() throws Exception {
+        CachingLocationResolver resolver = new CachingLocationResolver(m_counting, 100, true);
+        Location.AsyncResolver async = new AsyncLocationResolverAdapter(new TestLocationResolver(), null);
+
+        List<Location> locations = resolver.preload(async, Arrays.asList(
+                new Location.Query("Kigali", "RW", Location.Level.STATE, null),
+                new Location.Query("Nowhere", "RW", Location.Level.STATE, null)
+        ));
+        assertThat(locations.get(0).getOsmId(), is("S0001"));
+        assertThat(locations.get(1), is(nullValue()));
+
+        // preloaded names are served from the cache
+        assertThat(resolver.resolve("kigali", "RW", Location.Level.STATE, null), is(sameInstance(locations.get(0))));
+        assertThat(resolver.resolve("nowhere", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(m_calls.get(), is(0));
+    }
+
+    @Test
+    public void updateContactField() throws Exception {
+        CachingLocationResolver resolver = new CachingLocationResolver(m_counting, 100, true);
+        Runner runner = new RunnerBuilder().withLocationResolver(resolver).build();
+
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        run.getOrCreateField("state", "State", Field.ValueType.STATE);
+        run.getOrCreateField("district", "District", Field.ValueType.DISTRICT);
+        run.getOrCreateField("ward", "Ward", Field.ValueType.WARD);
+
+        runner.updateContactField(run, "state", "kigali");
+        runner.updateContactField(run, "district", "gasabo");
+        runner.updateContactField(run, "ward", "jali");
+        assertThat(run.getContact().getFields().get("ward"), is("Jali"));
+
+        // the state and district lookups for the district and ward were served from the cache
+        assertThat(m_calls.get(), is(3));
+        assertThat(resolver.getHits(), is(3L));
+    }
+}
@@ -0,0 +1,237 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link ContactScheduler}
+ */
+public class ContactSchedulerTest extends BaseFlowsTest {
+
+    @Test
+    public void startAndResume() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        final int numContacts = 50;
+        final int numInputs = 10;
+
+        final Map<String, RunState> stored = new ConcurrentHashMap<>();
+        final Set<String> busy = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicBoolean overlapped = new AtomicBoolean();
+
+        // store which checks that no contact is ever being processed by two threads at once
+        ContactScheduler.RunStore store = new ContactScheduler.RunStore() {
+            @Override
+            public RunState load(String contactUuid) {
+                if (!busy.add(contactUuid)) {
+                    overlapped.set(true);
+                }
+                return stored.get(contactUuid);
+            }
+
+            @Override
+            public void save(String contactUuid, RunState run) {
+                stored.put(contactUuid, run);
+                busy.remove(contactUuid);
+            }
+        };
+
+        final Map<String, List<String>> processed = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(numContacts * (numInputs + 1));
+
+        ContactScheduler scheduler = new ContactScheduler(runner, store, executor, new ContactScheduler.Callback() {
+            @Override
+            public void onProcessed(String contactUuid, Input input, RunState run) {
+                record(contactUuid, input);
+            }
+
+            @Override
+            public void onError(String contactUuid, Input input, Exception ex) {
+                busy.remove(contactUuid);
+                record(contactUuid, input);
+            }
+
+            protected void record(String contactUuid, Input input) {
+                List<String> values = processed.get(contactUuid);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    processed.put(contactUuid, values);
+                }
+                values.add(input != null ? input.getValueAsText(new EvaluationContext()) : "start");
+                done.countDown();
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+        expected.add("start");
+
+        for (int c = 0; c < numContacts; c++) {
+            Contact contact = new Contact("contact-" + c, "Joe " + c, ContactUrn.fromString("tel:+260964153686"), "eng");
+            scheduler.start(m_org, new ArrayList<>(m_fields), contact, flow);
+        }
+        for (int i = 0; i < numInputs; i++) {
+            for (int c = 0; c < numContacts; c++) {
+                scheduler.resume("contact-" + c, Input.of("msg " + i));
+            }
+            expected.add("msg " + i);
+        }
+
+        assertThat(done.await(30, TimeUnit.SECONDS), is(true));
+        executor.shutdown();
+
+        assertThat(overlapped.get(), is(false));
+        assertThat(processed.size(), is(numContacts));
+
+        // each contact's inputs were processed in the order they were submitted
+        for (List<String> values : processed.values()) {
+            assertThat(values, is(expected));
+        }
+
+        RunState run = stored.get("contact-7");
+        assertThat(run.getContact().getName(), is("Joe 7"));
+        assertThat(run.getState(), is(RunState.State.WAIT_MESSAGE));
+    }
+
+    @Test
+    public void resume_withNoRun() throws Exception {
+        Runner runner = new RunnerBuilder().build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        ContactScheduler.RunStore store = new ContactScheduler.RunStore() {
+            @Override
+            public RunState load(String contactUuid) {
+                return null;
+            }
+
+            @Override
+            public void save(String contactUuid, RunState run) {
+            }
+        };
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final CountDownLatch done = new CountDownLatch(1);
+
+        ContactScheduler scheduler = new ContactScheduler(runner, store, executor, new ContactScheduler.Callback() {
+            @Override
+            public void onProcessed(String contactUuid, Input input, RunState run) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String contactUuid, Input input, Exception ex) {
+                errors.add(ex);
+                done.countDown();
+            }
+        });
+
+        scheduler.resume("contact-1", Input.of("yes"));
+
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        executor.shutdown();
+
+        assertThat(errors, hasSize(1));
+        assertThat(errors.get(0), instanceOf(FlowRunException.class));
+        assertThat(errors.get(0).getMessage(), is("No run for contact contact-1"));
+    }
+
+    @Test
+    public void resume_withShutDownExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        ContactScheduler scheduler = new ContactScheduler(new RunnerBuilder().build(), new NullStore(), executor, new ErrorRecorder(errors));
+
+        scheduler.resume("contact-1", Input.of("yes"));
+        scheduler.resume("contact-1", Input.of("no"));
+
+        // inputs fail rather than being silently dropped
+        assertThat(errors, contains("yes", "no"));
+        assertThat(scheduler.getActiveContactCount(), is(0));
+    }
+
+    @Test
+    public void resume_withRejectedReschedule() throws Exception {
+        // executor which accepts the first mailbox but rejects it when it's rescheduled
+        final List<Runnable> accepted = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (!accepted.isEmpty()) {
+                    throw new RejectedExecutionException("Full");
+                }
+                accepted.add(command);
+            }
+        };
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        ContactScheduler scheduler = new ContactScheduler(new RunnerBuilder().build(), new NullStore(), executor, new ErrorRecorder(errors));
+
+        int numInputs = ContactScheduler.MAX_BATCH + 3;
+        for (int i = 0; i < numInputs; i++) {
+            scheduler.resume("contact-1", Input.of("msg " + i));
+        }
+        assertThat(accepted, hasSize(1));
+        assertThat(errors, empty());
+
+        // the first batch fails because there's no run, and the rest fail because the mailbox is rejected
+        accepted.get(0).run();
+
+        assertThat(errors, hasSize(numInputs));
+        assertThat(errors.get(numInputs - 1), is("msg " + (numInputs - 1)));
+        assertThat(scheduler.getActiveContactCount(), is(0));
+    }
+
+    /**
+     * Store in which no contact has a run
+     */
+    protected static class NullStore implements ContactScheduler.RunStore {
+        @Override
+        public RunState load(String contactUuid) {
+            return null;
+        }
+
+        @Override
+        public void save(String contactUuid, RunState run) {
+        }
+    }
+
+    /**
+     * Callback which records the input of each error
+     */
+    protected static class ErrorRecorder implements ContactScheduler.Callback {
+
+        protected final List<String> m_errors;
+
+        public ErrorRecorder(List<String> errors) {
+            m_errors = errors;
+        }
+
+        @Override
+        public void onProcessed(String contactUuid, Input input, RunState run) {
+        }
+
+        @Override
+        public void onError(String contactUuid, Input input, Exception ex) {
+            m_errors.add(input.getValueAsText(new EvaluationContext()));
+        }
+    }
+}
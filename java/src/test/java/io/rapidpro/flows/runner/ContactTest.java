@@ -124,4 +124,15 @@ public class ContactTest extends BaseFlowsTest {
         assertThat(context, hasEntry("age", "34"));
         assertThat(context, hasEntry("joined", "10-06-2015 13:30"));
     }
+
+    @Test
+    public void buildContext_withNullField() {
+        m_contact.getFields().put("nickname", null);
+
+        Map<String, String> context = m_contact.buildContext(m_run, m_context);
+        assertThat(context, hasEntry("nickname", (String) null));
+
+        EvaluationContext runContext = m_run.buildContext(m_runner, null);
+        assertThat(m_runner.substituteVariables("Hi @contact.nickname", runContext).getOutput(), is("Hi "));
+    }
 }
@@ -0,0 +1,121 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link FieldRegistry}
+ */
+public class FieldRegistryTest extends BaseFlowsTest {
+
+    @Test
+    public void lookups() {
+        Field gender = new Field("gender", "Gender", Field.ValueType.TEXT);
+        Field state = new Field("state", "State", Field.ValueType.STATE);
+        Field other = new Field("gender", "Other Gender", Field.ValueType.TEXT);
+        FieldRegistry registry = new FieldRegistry(Arrays.asList(gender, state, other));
+
+        assertThat(registry.size(), is(3));
+        assertThat(registry.getFields(), contains(gender, state, other));
+        assertThat(registry.get("gender"), sameInstance(gender));
+        assertThat(registry.get("state"), sameInstance(state));
+        assertThat(registry.get("xyz"), nullValue());
+        assertThat(registry.getFirstOfType(Field.ValueType.TEXT), sameInstance(gender));
+        assertThat(registry.getFirstOfType(Field.ValueType.STATE), sameInstance(state));
+        assertThat(registry.getFirstOfType(Field.ValueType.WARD), nullValue());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable() {
+        new FieldRegistry(m_fields).getFields().add(new Field("xyz", "XYZ", Field.ValueType.TEXT));
+    }
+
+    @Test
+    public void runFields() {
+        FieldRegistry registry = new FieldRegistry(m_fields);
+        RunFields fields = new RunFields(registry);
+
+        assertThat(fields, hasSize(3));
+        assertThat(fields.getByKey("age"), sameInstance(m_fields.get(1)));
+
+        Field district = new Field("district", "District", Field.ValueType.DISTRICT, true);
+        fields.add(district);
+
+        assertThat(fields, hasSize(4));
+        assertThat(fields.get(3), sameInstance(district));
+        assertThat(fields.getByKey("district"), sameInstance(district));
+        assertThat(fields.getFirstOfType(Field.ValueType.DISTRICT), sameInstance(district));
+        assertThat(fields.getFirstOfType(Field.ValueType.DECIMAL), sameInstance(m_fields.get(1)));
+        assertThat(registry.size(), is(3));
+        assertThat(registry.get("district"), nullValue());
+
+        fields.clear();
+
+        assertThat(fields, empty());
+        assertThat(fields.getByKey("age"), nullValue());
+
+        fields.addAll(m_fields);
+
+        assertThat(fields, hasSize(3));
+        assertThat(fields.getByKey("age"), sameInstance(m_fields.get(1)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void runFieldsOnlyAppend() {
+        new RunFields(new FieldRegistry(m_fields)).add(0, new Field("xyz", "XYZ", Field.ValueType.TEXT));
+    }
+
+    @Test
+    public void sharedByRuns() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        FieldRegistry registry = new FieldRegistry(m_fields);
+
+        RunState run1 = runner.start(m_org, registry, m_contact, flow);
+        RunState run2 = runner.start(m_org, registry, m_contact, flow);
+
+        Field created = run1.getOrCreateField("mushroom_pref", "Mushroom Pref", Field.ValueType.TEXT);
+
+        assertThat(run1.getOrCreateField("mushroom_pref"), sameInstance(created));
+        assertThat(run1.getCreatedFields(), contains(created));
+        assertThat(run1.getOrCreateField("age"), sameInstance(m_fields.get(1)));
+        assertThat(run2.getCreatedFields(), empty());
+        assertThat(run1.m_fields.getAdded(), contains(created));
+        assertThat(registry.size(), is(3));
+        assertThat(registry.get("mushroom_pref"), nullValue());
+    }
+
+    @Test
+    public void sharedByRestoredRuns() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        FieldRegistry registry = new FieldRegistry(m_fields);
+
+        RunState run = runner.start(m_org, registry, m_contact, flow);
+        run.getOrCreateField("mushroom_pref", "Mushroom Pref", Field.ValueType.TEXT);
+
+        RunState fromJson = RunState.fromJson(run.toJsonString(), flow, registry);
+        RunState fromBytes = RunState.fromBytes(run.toBytes(), flow, registry);
+
+        // restored runs share the registry and only add the stored fields which aren't in it
+        for (RunState restored : Arrays.asList(fromJson, fromBytes)) {
+            assertThat(restored.m_fields.getRegistry(), sameInstance(registry));
+            assertThat(restored.m_fields, hasSize(4));
+            assertThat(restored.m_fields.getAdded(), hasSize(1));
+            assertThat(restored.m_fields.getAdded().get(0).getKey(), is("mushroom_pref"));
+            assertThat(restored.getOrCreateField("age"), sameInstance(m_fields.get(1)));
+        }
+
+        // without a registry, restored runs have their own copy of the stored fields
+        RunState unshared = RunState.fromJson(run.toJsonString(), flow);
+        assertThat(unshared.m_fields.getRegistry(), not(sameInstance(registry)));
+        assertThat(unshared.m_fields, hasSize(4));
+    }
+}
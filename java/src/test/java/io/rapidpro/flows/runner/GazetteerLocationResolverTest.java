@@ -0,0 +1,81 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link GazetteerLocationResolver}
+ */
+public class GazetteerLocationResolverTest extends BaseFlowsTest {
+
+    protected GazetteerLocationResolver m_resolver;
+
+    @Before
+    public void loadResolver() throws Exception {
+        m_resolver = GazetteerLocationResolver.fromJson(readResource("test_locations/rwanda.json"));
+    }
+
+    @Test
+    public void resolve() {
+        assertThat(m_resolver.size(), is(9));
+
+        Location kigali = m_resolver.resolve("Kigali City", "RW", Location.Level.STATE, null);
+        assertThat(kigali.getOsmId(), is("1708283"));
+        assertThat(kigali.getName(), is("Kigali City"));
+        assertThat(kigali.getLevel(), is(Location.Level.STATE));
+
+        // by alias, ignoring case and punctuation
+        assertThat(m_resolver.resolve("  KIGALI!", "RW", Location.Level.STATE, null), is(sameInstance(kigali)));
+        assertThat(m_resolver.resolve("umujyi-wa-kigali", "RW", Location.Level.STATE, null), is(sameInstance(kigali)));
+
+        // as words in a longer text, preferring longer names
+        assertThat(m_resolver.resolve("I live in kigali city now", "RW", Location.Level.STATE, null), is(sameInstance(kigali)));
+        assertThat(m_resolver.resolve("eastern province", "RW", Location.Level.STATE, null).getOsmId(), is("171591"));
+
+        // fuzzy matches
+        assertThat(m_resolver.resolve("Kigaly", "RW", Location.Level.STATE, null), is(sameInstance(kigali)));
+        assertThat(m_resolver.resolve("Kigaly Citty", "RW", Location.Level.STATE, null), is(sameInstance(kigali)));
+
+        // only locations in the given parent are considered
+        Location gasabo = m_resolver.resolve("gasabo", "RW", Location.Level.DISTRICT, kigali);
+        assertThat(gasabo.getOsmId(), is("1711131"));
+        assertThat(m_resolver.resolve("Rwamagana", "RW", Location.Level.DISTRICT, kigali), is(nullValue()));
+        assertThat(m_resolver.resolve("Remera", "RW", Location.Level.WARD, gasabo).getOsmId(), is("3963735"));
+
+        Location eastern = m_resolver.resolve("Iburasirazuba", "RW", Location.Level.STATE, null);
+        Location rwamagana = m_resolver.resolve("Rwamagana", "RW", Location.Level.DISTRICT, eastern);
+        assertThat(m_resolver.resolve("Remera", "RW", Location.Level.WARD, rwamagana).getOsmId(), is("3963760"));
+
+        // no such locations
+        assertThat(m_resolver.resolve("Kampala", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(m_resolver.resolve("Kigali", "UG", Location.Level.STATE, null), is(nullValue()));
+        assertThat(m_resolver.resolve("Gasabo", "RW", Location.Level.DISTRICT, null), is(nullValue()));
+        assertThat(m_resolver.resolve("", "RW", Location.Level.STATE, null), is(nullValue()));
+        assertThat(m_resolver.resolve("Kigali", "RW", Location.Level.WARD, gasabo), is(nullValue()));
+    }
+
+    @Test
+    public void updateContactField() throws Exception {
+        Runner runner = new RunnerBuilder().withLocationResolver(m_resolver).build();
+
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        run.getOrCreateField("state", "State", Field.ValueType.STATE);
+        run.getOrCreateField("district", "District", Field.ValueType.DISTRICT);
+        run.getOrCreateField("ward", "Ward", Field.ValueType.WARD);
+
+        runner.updateContactField(run, "state", "kigali");
+        runner.updateContactField(run, "district", "gasabo");
+        runner.updateContactField(run, "ward", "jali");
+
+        assertThat(run.getContact().getFields().get("state"), is("Kigali City"));
+        assertThat(run.getContact().getFields().get("district"), is("Gasabo"));
+        assertThat(run.getContact().getFields().get("ward"), is("Jali"));
+    }
+}
@@ -0,0 +1,92 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.JsonParser;
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link RunStateCodec}
+ */
+public class RunStateCodecTest extends BaseFlowsTest {
+
+    @Test
+    public void encodeAndDecode() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+
+        m_contact.getGroups().add("Testers");
+        m_contact.getFields().put("age", "34");
+
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        assertDecodesSameAsJson(run, flow);
+
+        run.getExtra().put("code", "ABC");
+        runner.resume(run, Input.of("Maybe"));
+        assertDecodesSameAsJson(run, flow);
+
+        runner.resume(run, Input.of("Yes"));
+        assertThat(run.getState(), is(RunState.State.COMPLETED));
+        assertDecodesSameAsJson(run, flow);
+
+        byte[] data = run.toBytes();
+        RunState decoded = RunState.fromBytes(data, flow);
+
+        // restored steps and rule results refer to the same flow elements
+        assertThat(decoded.getSteps().get(0).getNode(), sameInstance(run.getSteps().get(0).getNode()));
+        assertThat(decoded.getValues().get("response_1").getCategory(), is("Yes"));
+        assertThat(decoded.getStarted(), is(run.getStarted()));
+
+        // binary form is much smaller than the JSON
+        assertThat(data.length, lessThan(run.toJsonString().getBytes("UTF-8").length / 2));
+    }
+
+    @Test
+    public void encodeAndDecode_interactions() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/registration.json"));
+        Runner runner = new RunnerBuilder().build();
+
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        for (String text : Arrays.asList("Bob Smith", "34", "Kigali", "Jun 1 1980")) {
+            runner.resume(run, Input.of(text));
+            assertDecodesSameAsJson(run, flow);
+        }
+    }
+
+    @Test
+    public void decode_withInvalidData() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        RunState run = new RunnerBuilder().build().start(m_org, m_fields, m_contact, flow);
+        byte[] data = run.toBytes();
+
+        try {
+            RunState.fromBytes(Arrays.copyOf(data, data.length - 3), flow);
+            fail("Should throw exception for truncated data");
+        } catch (IllegalArgumentException ignored) {}
+
+        byte[] badVersion = data.clone();
+        badVersion[0] = 99;
+        try {
+            RunState.fromBytes(badVersion, flow);
+            fail("Should throw exception for unsupported version");
+        } catch (IllegalArgumentException ex) {
+            assertThat(ex.getMessage(), is("Unsupported run state format version: 99"));
+        }
+    }
+
+    protected void assertDecodesSameAsJson(RunState run, Flow flow) {
+        JsonParser parser = new JsonParser();
+        RunState fromJson = RunState.fromJson(run.toJsonString(), flow);
+        RunState fromBytes = RunState.fromBytes(run.toBytes(), flow);
+
+        assertThat(parser.parse(fromBytes.toJsonString()), is(parser.parse(fromJson.toJsonString())));
+        assertThat(fromBytes.getCreatedFields(), is(fromJson.getCreatedFields()));
+    }
+}
@@ -0,0 +1,136 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link RunStateDelta}
+ */
+public class RunStateDeltaTest extends BaseFlowsTest {
+
+    @Test
+    public void checkpointAndRestore() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/registration.json"));
+        Runner runner = new RunnerBuilder().build();
+
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        String snapshot = run.toJsonString();
+        run.markCheckpoint();
+
+        // nothing has changed since the checkpoint
+        assertThat(run.checkpoint().isEmpty(), is(true));
+        assertThat(run.checkpoint().toJsonString(), is("{}"));
+
+        List<String> deltas = new ArrayList<>();
+        for (String text : Arrays.asList("Bob Smith", "34", "Kigali", "Jun 1 1980")) {
+            runner.resume(run, Input.of(text));
+
+            String delta = run.checkpoint().toJsonString();
+            deltas.add(delta);
+
+            assertThat(delta.length(), lessThan(run.toJsonString().length()));
+            assertRestores(run, snapshot, deltas, flow);
+        }
+
+        // the first delta has the new steps and value, but not the unchanged org or contact
+        String first = deltas.get(0);
+        assertThat(first, containsString("\"steps\""));
+        assertThat(first, containsString("\"values_set\":{\"language\":"));
+        assertThat(first, not(containsString("\"org\"")));
+
+        // compact the deltas into one
+        List<RunStateDelta> parsed = new ArrayList<>();
+        for (String delta : deltas) {
+            parsed.add(RunStateDelta.fromJson(delta, flow));
+        }
+        String compacted = RunStateDelta.compact(parsed).toJsonString();
+        assertRestores(run, snapshot, Collections.singletonList(compacted), flow);
+    }
+
+    @Test
+    public void checkpoint_withRemovals() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+
+        m_contact.getGroups().add("Testers");
+        m_contact.getFields().put("age", "34");
+
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        run.getExtra().put("code", "ABC");
+        run.getExtra().put("level", "1");
+
+        String snapshot = run.toJsonString();
+        run.markCheckpoint();
+
+        run.getContact().setName(null);
+        run.getContact().setLanguage("fre");
+        run.getContact().getGroups().remove("Testers");
+        run.getContact().getGroups().add("Customers");
+        run.getContact().getFields().remove("age");
+        run.getContact().getFields().put("gender", "M");
+        run.getContact().getUrns().add(ContactUrn.fromString("twitter:bobby"));
+        run.getExtra().remove("code");
+        run.getExtra().put("level", "2");
+        run.getOrCreateField("gender");
+
+        List<String> deltas = new ArrayList<>();
+        deltas.add(run.checkpoint().toJsonString());
+
+        assertThat(deltas.get(0), containsString("\"name\":null"));
+        assertThat(deltas.get(0), containsString("\"groups_removed\":[\"Testers\"]"));
+        assertThat(deltas.get(0), containsString("\"extra_removed\":[\"code\"]"));
+        assertThat(deltas.get(0), not(containsString("\"steps\"")));
+
+        assertRestores(run, snapshot, deltas, flow);
+
+        runner.resume(run, Input.of("Yes"));
+        run.getContact().getGroups().add("Testers");
+        run.getExtra().put("code", "XYZ");
+        deltas.add(run.checkpoint().toJsonString());
+
+        assertRestores(run, snapshot, deltas, flow);
+
+        // a group which is removed and re-added across deltas is still present after compaction
+        RunStateDelta compacted = RunStateDelta.compact(Arrays.asList(RunStateDelta.fromJson(deltas.get(0), flow), RunStateDelta.fromJson(deltas.get(1), flow)));
+        assertThat(compacted.m_groupsRemoved, empty());
+        assertRestores(run, snapshot, Collections.singletonList(compacted.toJsonString()), flow);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkpoint_withoutMark() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        new RunnerBuilder().build().start(m_org, m_fields, m_contact, flow).checkpoint();
+    }
+
+    protected void assertRestores(RunState run, String snapshot, List<String> deltas, Flow flow) {
+        RunState restored = RunState.fromJson(snapshot, flow);
+        List<RunStateDelta> parsed = new ArrayList<>();
+        for (String delta : deltas) {
+            parsed.add(RunStateDelta.fromJson(delta, flow));
+        }
+        restored.applyDeltas(parsed);
+
+        // groups are a set so their order doesn't matter
+        assertThat(restored.getContact().getGroups(), is(run.getContact().getGroups()));
+
+        JsonParser parser = new JsonParser();
+        JsonObject expected = parser.parse(run.toJsonString()).getAsJsonObject();
+        JsonObject actual = parser.parse(restored.toJsonString()).getAsJsonObject();
+        expected.get("contact").getAsJsonObject().remove("groups");
+        actual.get("contact").getAsJsonObject().remove("groups");
+
+        assertThat(actual, is(expected));
+    }
+}
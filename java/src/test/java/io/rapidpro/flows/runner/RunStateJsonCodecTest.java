@@ -0,0 +1,70 @@
+package io.rapidpro.flows.runner;
+
+import com.google.gson.JsonSyntaxException;
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.utils.JsonUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link RunStateJsonCodec}
+ */
+public class RunStateJsonCodecTest extends BaseFlowsTest {
+
+    @Test
+    public void encodeAndDecode() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/registration.json"));
+        Runner runner = new RunnerBuilder().build();
+
+        m_contact.getGroups().add("Testers & <Friends>");
+        m_contact.getFields().put("nickname", null);
+
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        assertSameAsTree(run, flow);
+
+        run.getExtra().put("code", "\"ABC\"");
+
+        for (String text : Arrays.asList("Bob Smith", "34", "Kigali", "Jun 1 1980")) {
+            runner.resume(run, Input.of(text));
+            assertSameAsTree(run, flow);
+        }
+    }
+
+    @Test
+    public void decode_ignoresUnknownProperties() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        RunState run = new RunnerBuilder().build().start(m_org, m_fields, m_contact, flow);
+        String json = run.toJsonString();
+
+        String withExtras = "{\"xxx\":[1,{\"a\":null}]," + json.substring(1, json.length() - 1) + ",\"yyy\":true}";
+
+        assertThat(RunStateJsonCodec.decode(withExtras, flow).toJsonString(), is(json));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void decode_withMissingProperties() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        RunStateJsonCodec.decode("{\"state\":\"completed\"}", flow);
+    }
+
+    /**
+     * Checks that the streamed JSON is identical to that produced from the JSON tree, and that it reads back to an
+     * identical run state
+     */
+    protected void assertSameAsTree(RunState run, Flow flow) {
+        String expected = JsonUtils.getGson().toJson(run.toJson());
+        String actual = RunStateJsonCodec.encode(run);
+
+        assertThat(actual, is(expected));
+
+        RunState decoded = RunStateJsonCodec.decode(actual, flow);
+        assertThat(JsonUtils.getGson().toJson(decoded.toJson()), is(expected));
+        assertThat(decoded.getCreatedFields(), hasSize(0));
+    }
+}
@@ -1,20 +1,23 @@
 package io.rapidpro.flows.runner;
 
 import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.EvaluationError;
 import io.rapidpro.expressions.dates.DateStyle;
 import io.rapidpro.flows.BaseFlowsTest;
 import io.rapidpro.flows.RunnerBuilder;
 import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.definition.RuleSet;
 import org.junit.Test;
 import org.threeten.bp.Instant;
 import org.threeten.bp.ZoneId;
 import org.threeten.bp.ZonedDateTime;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-import static org.hamcrest.Matchers.hasEntry;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -46,6 +49,140 @@ public class RunStateTest extends BaseFlowsTest {
         assertThat(context, hasEntry("yesterday", "08-23-2015"));
     }
 
+    @Test
+    public void buildContext() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        runner.resume(run, Input.of("Yes"));
+
+        EvaluationContext context = run.buildContext(runner, Input.of("Hello"));
+        assertThat(context, instanceOf(RunContext.class));
+
+        // compare with a context of eagerly copied maps
+        EvaluationContext eager = new EvaluationContext(copyMaps(context.getVariables()), context.getTimezone(), context.getDateStyle(), context.getNow());
+
+        for (String variable : Arrays.asList("contact", "contact.name", "contact.FIRST_NAME", "contact.tel", "contact.tel_e164",
+                "contact.twitter", "contact.groups", "contact.joined", "contact.age", "contact.xxx", "contact.name.xxx",
+                "date", "date.now", "date.today", "date.tomorrow", "flow", "flow.response_1", "flow.response_1.category",
+                "flow.response_1.time", "flow.xxx", "step", "step.value", "step.time", "step.contact.name", "extra")) {
+            Object expected, actual;
+            try {
+                expected = eager.resolveVariable(variable);
+            } catch (EvaluationError ex) {
+                expected = ex.getMessage();
+            }
+            try {
+                actual = context.resolveVariable(variable);
+            } catch (EvaluationError ex) {
+                actual = ex.getMessage();
+            }
+            assertThat(variable, actual, is(expected));
+        }
+    }
+
+    @Test
+    public void buildContext_withReuse() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        Input input = Input.of("Yes");
+
+        // without reuse, every call builds a new context
+        assertThat(run.buildContext(runner, input), not(sameInstance(run.buildContext(runner, input))));
+
+        run.setReuseContext(true);
+
+        EvaluationContext context = run.buildContext(runner, input);
+        assertThat(run.buildContext(runner, input), sameInstance(context));
+        assertThat(context.resolveVariable("contact.name"), is((Object) "Joe Flow"));
+        assertThat(context.resolveVariable("step.contact.name"), is((Object) "Joe Flow"));
+
+        // contact layer is only rebuilt once it's invalidated
+        run.getContact().setName("Bob Flow");
+        assertThat(run.buildContext(runner, input).resolveVariable("contact.name"), is((Object) "Joe Flow"));
+
+        run.invalidateContext(RunState.ContextLayer.CONTACT);
+        assertThat(run.buildContext(runner, input), sameInstance(context));
+        assertThat(context.resolveVariable("contact.name"), is((Object) "Bob Flow"));
+        assertThat(context.resolveVariable("step.contact.name"), is((Object) "Bob Flow"));
+
+        // flow layer is rebuilt after a value is updated
+        RuleSet ruleSet = (RuleSet) flow.getNode(flow.getNodeCount() - 1);
+        run.updateValue(ruleSet, new RuleSet.Result(null, "Yes", "Yes", "yes"), Instant.now());
+        assertThat(run.buildContext(runner, input).resolveVariable("flow.response_1.category"), is((Object) "Yes"));
+
+        // step layer follows the input
+        run.buildContext(runner, null);
+        assertThat(context.getVariables().containsKey("step"), is(false));
+        run.buildContext(runner, Input.of("No"));
+        assertThat(context.resolveVariable("step.value"), is((Object) "No"));
+
+        // disabling reuse discards the context
+        run.setReuseContext(false);
+        assertThat(run.buildContext(runner, input), not(sameInstance(context)));
+    }
+
+    @Test
+    public void buildContext_withVariables() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+        Runner runner = new RunnerBuilder().build();
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        Input input = Input.of("Yes");
+
+        // only the needed variables are built
+        EvaluationContext context = run.buildContext(runner, input, Collections.singleton("flow"));
+        assertThat(context.getVariables().keySet(), contains("flow"));
+
+        context = run.buildContext(runner, input, Collections.singleton("step"));
+        assertThat(context.getVariables().keySet(), containsInAnyOrder("contact", "step"));
+        assertThat(context.resolveVariable("step.contact.name"), is((Object) "Joe Flow"));
+
+        // with reuse, variables missing from the previous context are built when they're needed
+        run.setReuseContext(true);
+
+        context = run.buildContext(runner, input, Collections.singleton("date"));
+        assertThat(context.getVariables().keySet(), contains("date"));
+
+        assertThat(run.buildContext(runner, input, Collections.singleton("contact")), sameInstance(context));
+        assertThat(context.getVariables().keySet(), containsInAnyOrder("date", "contact"));
+        assertThat(context.resolveVariable("contact.name"), is((Object) "Joe Flow"));
+
+        run.buildContext(runner, input, null);
+        assertThat(context.getVariables().keySet(), containsInAnyOrder("date", "contact", "step", "flow", "extra"));
+    }
+
+    @Test
+    public void buildStaticContext() throws Exception {
+        // flow whose only node is a rule set with static tests
+        Flow flow = Flow.fromJson("{\"base_language\": \"eng\", \"version\": 7, \"flow_type\": \"F\", \"action_sets\": [], " +
+                "\"entry\": \"e9b2c4b2-67d3-4d50-8c6b-8e0a5b6c1f01\", \"rule_sets\": [{\"uuid\": \"e9b2c4b2-67d3-4d50-8c6b-8e0a5b6c1f01\", " +
+                "\"ruleset_type\": \"wait_message\", \"label\": \"Response\", \"operand\": \"@step.value\", \"rules\": [{" +
+                "\"uuid\": \"2f7e1a8c-4a1b-4c2e-9d3f-5b6a7c8d9e02\", \"test\": {\"type\": \"contains_any\", \"test\": \"yes\"}, " +
+                "\"category\": \"Yes\", \"destination\": null}]}], " +
+                "\"metadata\": {\"uuid\": \"8a1f0c55-3b7d-4f6e-a2c9-d0e1f2a3b403\", \"name\": \"Static\", \"revision\": 1}}");
+        Runner runner = new RunnerBuilder().build();
+        m_contact.getFields().put("nickname", "Joey");
+        RunState run = runner.start(m_org, m_fields, m_contact, flow);
+        runner.resume(run, Input.of("yes"));
+
+        assertThat(run.getValues().get("response").getCategory(), is("Yes"));
+
+        // fields are still created for the contact's values, like they are when the contact context is built
+        assertThat(run.getCreatedFields(), hasSize(1));
+        assertThat(run.getCreatedFields().get(0).getKey(), is("nickname"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copyMaps(Map<String, ?> map) {
+        Map<String, Object> copy = new HashMap<>();
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            copy.put(entry.getKey(), value instanceof Map ? copyMaps((Map<String, ?>) value) : value);
+        }
+        return copy;
+    }
+
     @Test
     public void toAndFromJson() throws Exception {
         Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
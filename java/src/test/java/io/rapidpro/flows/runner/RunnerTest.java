@@ -10,6 +10,7 @@ import org.threeten.bp.ZoneId;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Test for {@link Runner}
@@ -209,6 +210,23 @@ public class RunnerTest extends BaseFlowsTest {
         m_runner.start(m_org, m_fields, m_contact, flow);
     }
 
+    @Test
+    public void start_withNonPausingLoop() throws Exception {
+        Flow flow = Flow.fromJson("{\"version\": 8, \"flow_type\": \"F\", \"base_language\": \"eng\", \"metadata\": {}, " +
+                "\"entry\": \"ccd0b5e0-0a06-4a8e-a0c2-a9e0b1f7b3f1\", \"rule_sets\": [], \"action_sets\": [" +
+                "{\"uuid\": \"ccd0b5e0-0a06-4a8e-a0c2-a9e0b1f7b3f1\", \"destination\": \"5c2b7c25-1f49-4f4b-9f3c-1c3b7d5d0c2e\", " +
+                "\"actions\": [{\"type\": \"reply\", \"msg\": {\"eng\": \"Ping\"}}]}, " +
+                "{\"uuid\": \"5c2b7c25-1f49-4f4b-9f3c-1c3b7d5d0c2e\", \"destination\": \"ccd0b5e0-0a06-4a8e-a0c2-a9e0b1f7b3f1\", " +
+                "\"actions\": [{\"type\": \"reply\", \"msg\": {\"eng\": \"Pong\"}}]}]}");
+
+        try {
+            m_runner.start(m_org, m_fields, m_contact, flow);
+            fail("Should have thrown FlowLoopException");
+        } catch (FlowLoopException ex) {
+            assertThat(ex.getPath(), contains(flow.getNode(0), flow.getNode(1)));
+        }
+    }
+
     @Test
     public void updateContactField() throws Exception {
         m_fields.add(new Field("district", "District", Field.ValueType.DISTRICT));
@@ -0,0 +1,151 @@
+package io.rapidpro.flows.runner;
+
+import io.rapidpro.expressions.EvaluationContext;
+import io.rapidpro.expressions.dates.DateStyle;
+import io.rapidpro.flows.BaseFlowsTest;
+import io.rapidpro.flows.RunnerBuilder;
+import io.rapidpro.flows.definition.Flow;
+import io.rapidpro.flows.definition.tests.Test;
+import io.rapidpro.flows.definition.tests.date.DateEqualTest;
+import io.rapidpro.flows.definition.tests.numeric.BetweenTest;
+import io.rapidpro.flows.definition.tests.numeric.EqualTest;
+import io.rapidpro.flows.definition.tests.numeric.GreaterThanTest;
+import org.junit.Before;
+import org.threeten.bp.Instant;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link TypedValue}
+ */
+public class TypedValueTest extends BaseFlowsTest {
+
+    protected Runner m_runner;
+
+    protected RunState m_run;
+
+    @Before
+    public void setupRunState() throws Exception {
+        Flow flow = Flow.fromJson(readResource("test_flows/mushrooms.json"));
+
+        m_runner = new RunnerBuilder().build();
+        m_run = m_runner.start(m_org, m_fields, m_contact, flow);
+    }
+
+    @org.junit.Test
+    public void text() {
+        EvaluationContext context = new EvaluationContext(new HashMap<String, Object>(), ZoneId.of("Africa/Kigali"), DateStyle.DAY_FIRST);
+        TypedValue value = new TypedValue(" 34.5 ", null);
+
+        assertThat(value.getValueType(), is(Field.ValueType.TEXT));
+        assertThat(value.getContextValue(context), is(" 34.5 "));
+        assertThat(value.getDecimal(), is(new BigDecimal("34.5")));
+        assertThat(value.getDate(context), nullValue());
+        assertThat(value.isFor(" 34.5 ", Field.ValueType.TEXT), is(true));
+        assertThat(value.isFor("34.5", Field.ValueType.TEXT), is(false));
+        assertThat(value.isFor(" 34.5 ", Field.ValueType.DECIMAL), is(false));
+
+        value = new TypedValue("1/2/2016", null);
+
+        assertThat(value.getDecimal(), nullValue());
+        assertThat(value.getDate(context), is(LocalDate.of(2016, 2, 1)));
+
+        // date forms are parsed again if the date style changes
+        context = new EvaluationContext(new HashMap<String, Object>(), ZoneId.of("Africa/Kigali"), DateStyle.MONTH_FIRST);
+
+        assertThat(value.getDate(context), is(LocalDate.of(2016, 1, 2)));
+    }
+
+    @org.junit.Test
+    public void datetime() {
+        EvaluationContext context = new EvaluationContext(new HashMap<String, Object>(), ZoneId.of("Africa/Kigali"), DateStyle.DAY_FIRST);
+        TypedValue value = new TypedValue("2015-10-06T23:30:00.000Z", Field.ValueType.DATETIME);
+
+        assertThat(value.getContextValue(context), is("07-10-2015 01:30"));
+        assertThat(value.getDate(context), is(LocalDate.of(2015, 10, 7)));
+        assertThat(value.getDecimal(), nullValue());
+
+        // date forms are parsed again if the timezone changes
+        context = new EvaluationContext(new HashMap<String, Object>(), ZoneId.of("UTC"), DateStyle.DAY_FIRST);
+
+        assertThat(value.getContextValue(context), is("06-10-2015 23:30"));
+        assertThat(value.getDate(context), is(LocalDate.of(2015, 10, 6)));
+    }
+
+    @org.junit.Test
+    public void contactFields() {
+        TypedValue age = m_contact.getTypedField("age", Field.ValueType.DECIMAL);
+
+        assertThat(age.getDecimal(), is(new BigDecimal(34)));
+        assertThat(m_contact.getTypedField("age", Field.ValueType.DECIMAL), sameInstance(age));
+        assertThat(m_contact.getTypedField("xyz", Field.ValueType.TEXT), nullValue());
+
+        // writing a field invalidates its typed form
+        m_contact.getFields().put("age", "35");
+
+        assertThat(m_contact.getTypedField("age", Field.ValueType.DECIMAL).getDecimal(), is(new BigDecimal(35)));
+
+        assertThat(m_run.getTypedValue("contact.age").getDecimal(), is(new BigDecimal(35)));
+        assertThat(m_run.getTypedValue("contact.joined").getValueType(), is(Field.ValueType.DATETIME));
+        assertThat(m_run.getTypedValue("contact.xyz"), nullValue());
+        assertThat(m_run.getTypedValue("contact.age.xyz"), nullValue());
+        assertThat(m_run.getTypedValue("date.today"), nullValue());
+    }
+
+    @org.junit.Test
+    public void flowValues() {
+        m_run.getValues().put("guess", new Value("12", "Number", "12 please", Instant.now()));
+
+        assertThat(m_run.getTypedValue("flow.guess").getDecimal(), is(new BigDecimal(12)));
+        assertThat(m_run.getTypedValue("flow.guess.value"), sameInstance(m_run.getTypedValue("flow.guess")));
+        assertThat(m_run.getTypedValue("flow.guess.category"), nullValue());
+        assertThat(m_run.getTypedValue("flow.xyz"), nullValue());
+    }
+
+    @org.junit.Test
+    public void testsUseTypedValues() {
+        m_run.getValues().put("guess", new Value("12", "Number", "12 please", Instant.now()));
+        m_run.getValues().put("when", new Value("7-10-2015", "Date", "7-10-2015", Instant.now()));
+        m_contact.getFields().put("joined", "2015-10-06T23:30:00.000Z");
+
+        List<Test> tests = Arrays.<Test>asList(
+                new EqualTest("@flow.guess"),
+                new EqualTest("@flow.guess.value"),
+                new GreaterThanTest("@contact.age"),
+                new GreaterThanTest("@contact.joined"),
+                new GreaterThanTest("@contact.xyz"),
+                new BetweenTest("@flow.guess", "@contact.age"),
+                new DateEqualTest("@flow.when"),
+                new DateEqualTest("@contact.joined")
+        );
+        List<String> inputs = Arrays.asList("12", "35", "20", "7/10/2015", "6/10/2015");
+
+        // a context built by the run can use typed values, whereas one which hides a variable has to evaluate them
+        EvaluationContext context = m_run.buildContext(m_runner, null);
+        EvaluationContext evaluated = RunContext.hidingVariable(context, "step");
+
+        assertThat(((RunContext) context).getRun(), sameInstance(m_run));
+        assertThat(((RunContext) evaluated).getRun(), nullValue());
+
+        for (Test test : tests) {
+            for (String input : inputs) {
+                Test.Result expected = test.evaluate(m_runner, m_run, evaluated, input);
+                Test.Result actual = test.evaluate(m_runner, m_run, context, input);
+
+                assertThat(actual.isMatched(), is(expected.isMatched()));
+                assertThat(actual.getValue(), is(expected.getValue()));
+            }
+        }
+
+        assertThat(new DateEqualTest("@contact.joined").evaluate(m_runner, m_run, context, "7/10/2015").isMatched(), is(true));
+        assertThat(new BetweenTest("@flow.guess", "@contact.age").evaluate(m_runner, m_run, context, "20").isMatched(), is(true));
+    }
+}
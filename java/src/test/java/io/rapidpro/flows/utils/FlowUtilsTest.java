@@ -5,6 +5,10 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -23,6 +27,86 @@ public class FlowUtilsTest extends BaseFlowsTest {
         assertThat(FlowUtils.editDistance("abcd", "acbd"), is(1));    // 1 transposition
     }
 
+    @Test
+    public void editDistance_bounded() {
+        assertThat(FlowUtils.editDistance("abcd", "abcd", 1), is(0));
+        assertThat(FlowUtils.editDistance("abcd", "acbd", 1), is(1));
+        assertThat(FlowUtils.editDistance("abcd", "ad", 1), is(2));          // exceeds maximum
+        assertThat(FlowUtils.editDistance("abcdefgh", "abxdexgx", 1), is(2));
+        assertThat(FlowUtils.editDistance("abcdefgh", "abxdexgx", 3), is(3));
+        assertThat(FlowUtils.editDistance("", "abc", 5), is(3));
+
+        // check against the full matrix calculation on lots of random strings
+        Random random = new Random(123);
+        for (int n = 0; n < 2000; n++) {
+            String s1 = randomString(random);
+            String s2 = random.nextBoolean() ? randomString(random) : mutate(s1, random);
+            int expected = referenceEditDistance(s1, s2);
+
+            assertThat(s1 + " vs " + s2, FlowUtils.editDistance(s1, s2), is(expected));
+            for (int max = 0; max < 4; max++) {
+                assertThat(s1 + " vs " + s2, FlowUtils.editDistance(s1, s2, max), is(Math.min(expected, max + 1)));
+            }
+        }
+    }
+
+    protected static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(8);
+        for (int c = 0; c < length; c++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    protected static String mutate(String s, Random random) {
+        StringBuilder sb = new StringBuilder(s);
+        int edits = random.nextInt(3);
+        for (int e = 0; e < edits && sb.length() > 1; e++) {
+            int pos = random.nextInt(sb.length() - 1);
+            char c = sb.charAt(pos);
+            sb.setCharAt(pos, sb.charAt(pos + 1));
+            sb.setCharAt(pos + 1, c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The original full matrix implementation
+     */
+    protected static int referenceEditDistance(String s1, String s2) {
+        Map<Pair<Integer, Integer>, Integer> d = new HashMap<>();
+        int lenstr1 = s1.length();
+        int lenstr2 = s2.length();
+
+        for (int i = -1; i < lenstr1 + 1; i++) {
+            d.put(new ImmutablePair<>(i, -1), i + 1);
+        }
+        for (int j = -1; j < lenstr2 + 1; j++) {
+            d.put(new ImmutablePair<>(-1, j), j + 1);
+        }
+
+        for (int i = 0; i < lenstr1; i++) {
+            for (int j = 0; j < lenstr2; j++) {
+                int cost = s1.charAt(i) == s2.charAt(j) ? 0 : 1;
+
+                int deletion = d.get(new ImmutablePair<>(i - 1, j)) + 1;
+                int insertion = d.get(new ImmutablePair<>(i, j - 1)) + 1;
+                int substitution = d.get(new ImmutablePair<>(i - 1, j - 1)) + cost;
+
+                int val = Math.min(deletion, Math.min(insertion, substitution));
+
+                if (i > 1 && j > 1 && s1.charAt(i) == s2.charAt(j - 1) && s1.charAt(i - 1) == s2.charAt(j)) {
+                    int transposition = d.get(new ImmutablePair<>(i - 2, j - 2)) + cost;
+                    val = Math.min(val, transposition);
+                }
+
+                d.put(new ImmutablePair<>(i, j), val);
+            }
+        }
+        return d.get(new ImmutablePair<>(lenstr1 - 1, lenstr2 - 1));
+    }
+
     @Test
     public void normalizeNumber() {
         // valid numbers
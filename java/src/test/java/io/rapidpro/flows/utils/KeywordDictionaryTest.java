@@ -0,0 +1,63 @@
+package io.rapidpro.flows.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link KeywordDictionary}
+ */
+public class KeywordDictionaryTest {
+
+    @Test
+    public void findFirstWords() {
+        KeywordDictionary dictionary = new KeywordDictionary(Arrays.asList("yes", "affirmative", "apples", "yes", "stop", "bananas"));
+
+        assertThat(dictionary.size(), is(5));
+        assertThat(dictionary.getId("yes"), is(0));
+        assertThat(dictionary.getId("bananas"), is(4));
+        assertThat(dictionary.getId("pears"), is(-1));
+
+        String[] words = { "yees", "im", "affirmatve", "about", "aples", "and", "apples", "stop" };
+
+        int[] firstWords = dictionary.findFirstWords(words);
+        assertThat(firstWords[0], is(-1));  // too short for a fuzzy match
+        assertThat(firstWords[1], is(2));
+        assertThat(firstWords[2], is(4));   // the first fuzzy match takes precedence over a later exact match
+        assertThat(firstWords[3], is(7));
+        assertThat(firstWords[4], is(-1));
+    }
+
+    @Test
+    public void findFuzzy() {
+        KeywordDictionary dictionary = new KeywordDictionary(Arrays.asList("kigali", "kigoli", "gasabo", "nyarugenge"));
+
+        assertThat(dictionary.findFuzzy("kigali"), is(0));
+        assertThat(dictionary.findFuzzy("kigal"), is(0));
+        assertThat(dictionary.findFuzzy("kigeli"), is(0));  // matches both, so first keyword wins
+        assertThat(dictionary.findFuzzy("nyarugenje"), is(3));
+        assertThat(dictionary.findFuzzy("gasbo"), is(2));
+        assertThat(dictionary.findFuzzy("rubavu"), is(-1));
+        assertThat(dictionary.findFuzzy("gas"), is(-1));     // too short for a fuzzy match
+    }
+
+    @Test
+    public void isFuzzyMatch() {
+        assertThat(KeywordDictionary.isFuzzyMatch("affirmatve", "affirmative"), is(true));   // deletion
+        assertThat(KeywordDictionary.isFuzzyMatch("afirmative", "affirmative"), is(true));
+        assertThat(KeywordDictionary.isFuzzyMatch("affirmaitve", "affirmative"), is(true));  // transposition
+        assertThat(KeywordDictionary.isFuzzyMatch("affirmatife", "affirmative"), is(true));  // substitution
+        assertThat(KeywordDictionary.isFuzzyMatch("bffirmative", "affirmative"), is(false)); // different first letter
+        assertThat(KeywordDictionary.isFuzzyMatch("afirmatve", "affirmative"), is(false));   // 2 edits
+        assertThat(KeywordDictionary.isFuzzyMatch("yees", "yes"), is(false));                // too short
+    }
+
+    @Test
+    public void deletions() {
+        assertThat(KeywordDictionary.deletions("abc"), contains("abc", "bc", "ac", "ab"));
+        assertThat(KeywordDictionary.deletions("aab"), contains("aab", "ab", "aa"));
+    }
+}
@@ -0,0 +1,56 @@
+package io.rapidpro.flows.utils;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link LazyMap}
+ */
+public class LazyMapTest {
+
+    @Test
+    public void computesValuesOnlyWhenRead() {
+        final List<String> computed = new ArrayList<>();
+
+        Map<String, String> map = new LazyMap<String>(new LinkedHashSet<>(Arrays.asList("a", "b", "c"))) {
+            @Override
+            protected String compute(String key) {
+                computed.add(key);
+                return key.equals("c") ? null : key.toUpperCase();
+            }
+        };
+
+        assertThat(map.size(), is(3));
+        assertThat(map.containsKey("a"), is(true));
+        assertThat(map.containsKey("x"), is(false));
+        assertThat(computed, empty());
+
+        assertThat(map.get("a"), is("A"));
+        assertThat(map.get("a"), is("A"));
+        assertThat(map.get("c"), nullValue());
+        assertThat(map.get("c"), nullValue());
+        assertThat(map.get("x"), nullValue());
+        assertThat(computed, contains("a", "c"));  // each value computed once, including nulls
+
+        // iterating computes the rest
+        Map<String, String> copy = new HashMap<>(map);
+        assertThat(copy, hasEntry("b", "B"));
+        assertThat(copy, hasEntry("c", null));
+        assertThat(computed, contains("a", "c", "b"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isReadOnly() {
+        Map<String, String> map = new LazyMap<String>(Collections.singleton("a")) {
+            @Override
+            protected String compute(String key) {
+                return key;
+            }
+        };
+        map.put("b", "B");
+    }
+}
@@ -0,0 +1,36 @@
+package io.rapidpro.flows.utils;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test for {@link LruCache}
+ */
+public class LruCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LruCache<String, Integer> cache = new LruCache<>(2);
+        assertThat(cache.getHitRate(), is(0.0));
+
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertThat(cache.get("a"), is(1));  // b is now least recently used
+
+        cache.put("c", 3);
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("b"), is(nullValue()));
+        assertThat(cache.get("a"), is(1));
+        assertThat(cache.get("c"), is(3));
+
+        assertThat(cache.getHits(), is(3L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHitRate(), is(0.75));
+
+        cache.clear();
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getMaxSize(), is(2));
+    }
+}